@@ -0,0 +1,57 @@
+package com.golan;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Step 4: edge betweenness with EdgeBetweennessEngine on the undirected hop graph
+ * of the sampled links, exact (pivots = 0) or from a fixed number of seeded pivot
+ * sources. Exact betweenness is quadratic in the network size; use pivots for the
+ * larger networks and compare exact runs on the small ones only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BetweennessBenchmark {
+
+    @Param({"256"}) // 0 = exact
+    public int pivots;
+
+    @Param({"1", "0"}) // 0 = all cores
+    public int threads;
+
+    private CsrGraph graph;
+    private int[] pivotNodes;
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        int vertexCount = LinkDistributorLogic.assignGraphNodes(network.sampledLinks);
+        graph = CsrGraph.fromLinks(network.sampledLinks, vertexCount, false, false);
+        if (pivots > 0 && pivots < graph.vertexCount) {
+            pivotNodes = EdgeBetweennessEngine.samplePivots(graph.vertexCount, pivots, network.seed);
+        }
+    }
+
+    @Benchmark
+    public double[] betweenness() throws InterruptedException, ExecutionException {
+        EdgeBetweennessEngine engine = new EdgeBetweennessEngine(graph,
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        return pivotNodes != null ? engine.computeScores(pivotNodes) : engine.computeScores();
+    }
+}
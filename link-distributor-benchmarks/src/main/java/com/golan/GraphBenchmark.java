@@ -0,0 +1,60 @@
+package com.golan;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.golan.LinkDistributorLogic.NodeManager;
+
+/**
+ * The graph side of steps 1 and 4 in isolation: snapping every link endpoint with
+ * a fresh NodeManager, and building the CSR graph of the sampled links (vertex
+ * renumbering plus CsrGraph.fromLinks).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBenchmark {
+
+    private double[] endpoints; // x0, y0, x1, y1 per link
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        LinkTable table = network.table;
+        endpoints = new double[4 * table.size()];
+        for (int row = 0; row < table.size(); row++) {
+            endpoints[4 * row] = table.startX(row);
+            endpoints[4 * row + 1] = table.startY(row);
+            endpoints[4 * row + 2] = table.endX(row);
+            endpoints[4 * row + 3] = table.endY(row);
+        }
+    }
+
+    @Benchmark
+    public int snapEndpoints() {
+        NodeManager nodes = new NodeManager();
+        for (int i = 0; i < endpoints.length; i += 2) {
+            nodes.getOrCreateNodeId(endpoints[i], endpoints[i + 1]);
+        }
+        return nodes.size();
+    }
+
+    @Benchmark
+    public CsrGraph buildGraph(NetworkState network) {
+        int vertexCount = LinkDistributorLogic.assignGraphNodes(network.sampledLinks);
+        return CsrGraph.fromLinks(network.sampledLinks, vertexCount, false, false);
+    }
+}
@@ -0,0 +1,42 @@
+package com.golan;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Step 1: loading the synthetic shapefile into a LinkTable, including endpoint
+ * snapping, with the memory-mapped reader or the GeoTools record reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"MAPPED", "GEOTOOLS"})
+    public String reader;
+
+    @Param({"1", "0"}) // 0 = all cores
+    public int threads;
+
+    @Benchmark
+    public LinkTable load(NetworkState network) throws IOException {
+        ShapefileLinkLoader loader = new ShapefileLinkLoader(false, 0, null);
+        loader.setUseMappedReader(reader.equals("MAPPED"));
+        loader.setParallelism(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        return loader.load(network.shapefile);
+    }
+}
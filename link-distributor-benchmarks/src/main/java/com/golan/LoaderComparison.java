@@ -0,0 +1,94 @@
+package com.golan;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Times step 1 on a given shapefile with the memory-mapped reader and with the
+ * GeoTools record reader, and checks that both produce the same link table.
+ * The memory-mapped reader is also timed single-threaded, and its table is
+ * checked to be identical for both thread counts. LoadBenchmark times the same
+ * paths on the synthetic networks.
+ *
+ * Usage: LoaderComparison <input.shp> [iterations] [threads]
+ */
+public class LoaderComparison {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoaderComparison <input.shp> [iterations] [threads]");
+            System.exit(2);
+        }
+        File shapefile = new File(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        // One untimed load per path to warm up the JIT and the file cache.
+        LinkTable mapped = load(shapefile, true, threads);
+        LinkTable mappedSingle = load(shapefile, true, 1);
+        LinkTable geotools = load(shapefile, false, 1);
+        String mismatch = compare(mapped, geotools);
+        if (mismatch == null) {
+            mismatch = compare(mapped, mappedSingle);
+        }
+        if (mismatch != null) {
+            System.err.println("Readers disagree: " + mismatch);
+            System.exit(1);
+        }
+        System.out.println("All readers loaded " + mapped.size() + " links (" + mapped.nodeCount() + " nodes).");
+
+        long[] mappedMillis = new long[iterations];
+        long[] singleMillis = new long[iterations];
+        long[] geotoolsMillis = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            mappedMillis[i] = time(shapefile, true, threads);
+            singleMillis[i] = time(shapefile, true, 1);
+            geotoolsMillis[i] = time(shapefile, false, 1);
+        }
+        long mappedMedian = median(mappedMillis);
+        long singleMedian = median(singleMillis);
+        long geotoolsMedian = median(geotoolsMillis);
+        System.out.println("GeoTools reader:                  median " + geotoolsMedian + " ms over " + iterations + " runs");
+        System.out.println("Memory-mapped reader, 1 thread:   median " + singleMedian + " ms over " + iterations + " runs");
+        System.out.println("Memory-mapped reader, " + threads + " threads: median " + mappedMedian + " ms over " + iterations + " runs");
+        System.out.println(String.format("Speedup over GeoTools: %.2fx (1 thread), %.2fx (%d threads)",
+                geotoolsMedian / (double) Math.max(1, singleMedian), geotoolsMedian / (double) Math.max(1, mappedMedian), threads));
+    }
+
+    private static LinkTable load(File shapefile, boolean useMappedReader, int threads) throws Exception {
+        ShapefileLinkLoader loader = new ShapefileLinkLoader(false, 0, null);
+        loader.setUseMappedReader(useMappedReader);
+        loader.setParallelism(threads);
+        return loader.load(shapefile);
+    }
+
+    private static long time(File shapefile, boolean useMappedReader, int threads) throws Exception {
+        long start = System.nanoTime();
+        load(shapefile, useMappedReader, threads);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // First difference between the two tables, or null if they hold the same rows.
+    private static String compare(LinkTable a, LinkTable b) {
+        if (a.size() != b.size()) {
+            return "row count " + a.size() + " vs " + b.size();
+        }
+        for (int row = 0; row < a.size(); row++) {
+            if (!a.id(row).equals(b.id(row)) || !a.type(row).equals(b.type(row))
+                    || !a.combinedId(row).equals(b.combinedId(row)) || a.isTwoSided(row) != b.isTwoSided(row)
+                    || Double.compare(a.data1(row), b.data1(row)) != 0
+                    || a.startNode(row) != b.startNode(row) || a.endNode(row) != b.endNode(row)
+                    || a.shpOffset(row) != b.shpOffset(row) || a.geometryHash(row) != b.geometryHash(row)
+                    || Math.abs(a.length(row) - b.length(row)) > 1e-9 * Math.max(1.0, a.length(row))) {
+                return "row " + row + " (ID " + a.id(row) + " vs " + b.id(row) + ")";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * A loaded synthetic network shared by the stage benchmarks: the shapefile, a
+ * LinkDistributorLogic with the default settings reading it, the link table and
+ * the links after steps 2-3. The links get seeded pseudo-random centrality scores
+ * instead of computed ones, so the sampling and writer benchmarks do not pay for
+ * step 4 in their setup.
+ *
+ * Networks are generated once into the benchmark data directory (system property
+ * benchmark.dataDir, by default link-distributor-bench under java.io.tmpdir) and
+ * reused by later forks and runs.
+ */
+@State(Scope.Benchmark)
+public class NetworkState {
+
+    @Param({"GRID", "RANDOM_PLANAR"}) // or RADIAL
+    public String topology;
+
+    @Param({"10000", "100000"})
+    public int links;
+
+    @Param({"42"})
+    public long seed;
+
+    File shapefile;
+    File outputFolder;
+    LinkDistributorLogic logic;
+    LinkTable table;
+    List<Link> sampledLinks; // after group assignment and ramp filtering; all are of the centrality road types
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File dataDir = new File(System.getProperty("benchmark.dataDir",
+                new File(System.getProperty("java.io.tmpdir"), "link-distributor-bench").getPath()));
+        SyntheticNetworkGenerator.Options options = new SyntheticNetworkGenerator.Options();
+        options.topology = SyntheticNetworkGenerator.Topology.valueOf(topology);
+        options.links = links;
+        options.seed = seed;
+        shapefile = SyntheticNetworkGenerator.ensure(dataDir, options);
+        outputFolder = Files.createTempDirectory("link-distributor-bench-out").toFile();
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("input", shapefile.getPath());
+        settings.put("output", outputFolder.getPath());
+        settings.put("cache", "false");
+        logic = new RunConfig(settings).createLogic(null);
+        table = logic.loadNetwork();
+        if (table.size() == 0) {
+            throw new IllegalStateException("No links loaded from " + shapefile);
+        }
+
+        sampledLinks = logic.assignAndFilter(table.toLinks());
+        SplittableRandom random = new SplittableRandom(seed);
+        for (Link link : sampledLinks) {
+            link.centrality = random.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.golan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+/**
+ * Streams PolyLine records with the link schema the loaders read (ID, TYPE, DATA1,
+ * isTwoSided, combinedId) straight into .shp, .shx and .dbf files, without
+ * GeoTools features. Records go through one fixed-size buffer per file, so memory
+ * stays constant however many links are written; the headers, which hold the
+ * record count, file length and bounding box, are patched on close.
+ */
+final class PolylineShapefileWriter implements Closeable {
+
+    private static final int SHP_FILE_CODE = 9994;
+    private static final int SHP_VERSION = 1000;
+    private static final int SHAPE_POLYLINE = 3;
+    private static final int HEADER_LENGTH = 100;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    // DBF columns: name, type, length.
+    private static final String[] FIELD_NAMES = {"ID", "TYPE", "DATA1", "isTwoSided", "combinedId"};
+    private static final char[] FIELD_TYPES = {'C', 'N', 'N', 'L', 'C'};
+    private static final int[] FIELD_LENGTHS = {16, 2, 4, 1, 16};
+    private static final int DBF_RECORD_LENGTH = 1 + 16 + 2 + 4 + 1 + 16;
+    private static final int DBF_HEADER_LENGTH = 32 + 32 * FIELD_NAMES.length + 1;
+
+    private final FileChannel shp;
+    private final FileChannel shx;
+    private final FileChannel dbf;
+    private final ByteBuffer shpBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final ByteBuffer shxBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final ByteBuffer dbfBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final byte[] field = new byte[16];
+
+    private long shpLength = HEADER_LENGTH;
+    private int records;
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param shapefile The .shp file; the .shx, .dbf and .prj are written next to it.
+     * @param prjWkt WKT of the coordinate system for the .prj, or null for none.
+     */
+    PolylineShapefileWriter(File shapefile, String prjWkt) throws IOException {
+        String base = shapefile.getPath().substring(0, shapefile.getPath().length() - 4);
+        shp = open(shapefile);
+        shx = open(new File(base + ".shx"));
+        dbf = open(new File(base + ".dbf"));
+        if (prjWkt != null) {
+            Files.write(new File(base + ".prj").toPath(), prjWkt.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        // Placeholders; the real headers are written on close.
+        shp.position(HEADER_LENGTH);
+        shx.position(HEADER_LENGTH);
+        dbf.position(DBF_HEADER_LENGTH);
+    }
+
+    /**
+     * Appends one link.
+     *
+     * @param xy Interleaved coordinates of all parts (x0, y0, x1, y1, ...).
+     * @param points Number of points used from xy.
+     * @param partStarts Index of the first point of each part; {0} for a LineString.
+     * @param parts Number of parts used from partStarts.
+     */
+    void write(String id, int type, int data1, boolean twoSided, String combinedId,
+               double[] xy, int points, int[] partStarts, int parts) throws IOException {
+        int contentBytes = 44 + 4 * parts + 16 * points;
+        if (shpLength + 8 + contentBytes > Integer.MAX_VALUE) {
+            throw new IOException("Shapefile would exceed the 2 GB limit after " + records + " records");
+        }
+        records++;
+
+        ensure(shxBuffer, shx, 8);
+        shxBuffer.order(ByteOrder.BIG_ENDIAN);
+        shxBuffer.putInt((int) (shpLength / 2));
+        shxBuffer.putInt(contentBytes / 2);
+
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 2 * points; i += 2) {
+            x0 = Math.min(x0, xy[i]);
+            x1 = Math.max(x1, xy[i]);
+            y0 = Math.min(y0, xy[i + 1]);
+            y1 = Math.max(y1, xy[i + 1]);
+        }
+        minX = Math.min(minX, x0);
+        minY = Math.min(minY, y0);
+        maxX = Math.max(maxX, x1);
+        maxY = Math.max(maxY, y1);
+
+        ensure(shpBuffer, shp, 8 + contentBytes);
+        shpBuffer.order(ByteOrder.BIG_ENDIAN);
+        shpBuffer.putInt(records);
+        shpBuffer.putInt(contentBytes / 2);
+        shpBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        shpBuffer.putInt(SHAPE_POLYLINE);
+        shpBuffer.putDouble(x0).putDouble(y0).putDouble(x1).putDouble(y1);
+        shpBuffer.putInt(parts);
+        shpBuffer.putInt(points);
+        for (int i = 0; i < parts; i++) {
+            shpBuffer.putInt(partStarts[i]);
+        }
+        for (int i = 0; i < 2 * points; i++) {
+            shpBuffer.putDouble(xy[i]);
+        }
+        shpLength += 8 + contentBytes;
+
+        ensure(dbfBuffer, dbf, DBF_RECORD_LENGTH);
+        dbfBuffer.put((byte) ' ');
+        putText(id, 16);
+        putNumber(type, 2);
+        putNumber(data1, 4);
+        dbfBuffer.put((byte) (twoSided ? 'T' : 'F'));
+        putText(combinedId, 16);
+    }
+
+    int size() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(shpBuffer, shp);
+            flush(shxBuffer, shx);
+            dbfBuffer.put((byte) 0x1A);
+            flush(dbfBuffer, dbf);
+            shp.write(shpHeader(shpLength), 0);
+            shx.write(shpHeader(HEADER_LENGTH + 8L * records), 0);
+            dbf.write(dbfHeader(), 0);
+        } finally {
+            shp.close();
+            shx.close();
+            dbf.close();
+        }
+    }
+
+    private ByteBuffer shpHeader(long fileBytes) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.putInt(SHP_FILE_CODE);
+        header.position(24);
+        header.putInt((int) (fileBytes / 2));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SHP_VERSION);
+        header.putInt(SHAPE_POLYLINE);
+        boolean empty = records == 0;
+        header.putDouble(empty ? 0.0 : minX).putDouble(empty ? 0.0 : minY);
+        header.putDouble(empty ? 0.0 : maxX).putDouble(empty ? 0.0 : maxY);
+        header.clear();
+        return header;
+    }
+
+    private ByteBuffer dbfHeader() {
+        ByteBuffer header = ByteBuffer.allocate(DBF_HEADER_LENGTH);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        LocalDate today = LocalDate.now();
+        header.put((byte) 0x03);
+        header.put((byte) (today.getYear() - 1900)).put((byte) today.getMonthValue()).put((byte) today.getDayOfMonth());
+        header.putInt(records);
+        header.putShort((short) DBF_HEADER_LENGTH);
+        header.putShort((short) DBF_RECORD_LENGTH);
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            int at = 32 + 32 * i;
+            byte[] name = FIELD_NAMES[i].getBytes(StandardCharsets.ISO_8859_1);
+            header.position(at);
+            header.put(name);
+            header.put(at + 11, (byte) FIELD_TYPES[i]);
+            header.put(at + 16, (byte) FIELD_LENGTHS[i]);
+        }
+        header.put(DBF_HEADER_LENGTH - 1, (byte) 0x0D);
+        header.clear();
+        return header;
+    }
+
+    // Left-aligned, space-padded ISO-8859-1 text, cut to width.
+    private void putText(String value, int width) {
+        int n = Math.min(value.length(), width);
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            dbfBuffer.put((byte) (c < 256 ? c : '?'));
+        }
+        for (int i = n; i < width; i++) {
+            dbfBuffer.put((byte) ' ');
+        }
+    }
+
+    // Right-aligned integer, space-padded to width.
+    private void putNumber(int value, int width) {
+        int digits = 0;
+        long v = Math.abs((long) value);
+        do {
+            field[digits++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        if (value < 0) {
+            field[digits++] = '-';
+        }
+        if (digits > width) {
+            throw new IllegalArgumentException("Value " + value + " does not fit a numeric field of width " + width);
+        }
+        for (int i = digits; i < width; i++) {
+            dbfBuffer.put((byte) ' ');
+        }
+        while (digits > 0) {
+            dbfBuffer.put(field[--digits]);
+        }
+    }
+
+    // Makes room for bytes in buffer, flushing it (a record larger than the buffer is an error).
+    private static void ensure(ByteBuffer buffer, FileChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(buffer, channel);
+            if (buffer.remaining() < bytes) {
+                throw new IOException("Record of " + bytes + " bytes exceeds the write buffer");
+            }
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
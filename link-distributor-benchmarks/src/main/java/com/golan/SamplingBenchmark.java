@@ -0,0 +1,65 @@
+package com.golan;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.golan.LinkDistributorLogic.GroupSampleInfo;
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Steps 5-7: sample sizes and group statistics (calculateSampleSizes), grouping,
+ * and the per-group selection of the most central links, by centrality alone and
+ * with a 500 m minimum spacing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SamplingBenchmark {
+
+    private Map<String, GroupSampleInfo> sampleInfo;
+    private Map<String, List<Link>> grouped;
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        sampleInfo = network.logic.calculateSampleSizes(network.sampledLinks);
+        grouped = network.logic.groupLinks(network.sampledLinks, sampleInfo);
+    }
+
+    @Benchmark
+    public Map<String, GroupSampleInfo> sampleSizes(NetworkState network) {
+        return network.logic.calculateSampleSizes(network.sampledLinks);
+    }
+
+    @Benchmark
+    public Map<String, List<Link>> groupLinks(NetworkState network) {
+        return network.logic.groupLinks(network.sampledLinks, sampleInfo);
+    }
+
+    @Benchmark
+    public Map<String, List<Link>> selectTopCentrality(NetworkState network) {
+        network.logic.setSpatialSelection(LinkDistributorLogic.SampleSelection.TOP_CENTRALITY, 0.0, 0);
+        return network.logic.selectSampleLinks(grouped, sampleInfo);
+    }
+
+    @Benchmark
+    public Map<String, List<Link>> selectMinSpacing(NetworkState network) {
+        network.logic.setSpatialSelection(LinkDistributorLogic.SampleSelection.MIN_SPACING, 500.0, 0);
+        return network.logic.selectSampleLinks(grouped, sampleInfo);
+    }
+}
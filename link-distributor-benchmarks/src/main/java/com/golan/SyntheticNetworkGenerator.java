@@ -0,0 +1,462 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic road networks as shapefiles in the input schema (ID, TYPE,
+ * DATA1, isTwoSided, combinedId, PolyLine geometry in Israel TM coordinates), for
+ * benchmarks and for testing on large inputs without real network data.
+ *
+ * Topologies:
+ * <pre>
+ * GRID           square lattice of straight links, spacing apart
+ * RANDOM_PLANAR  the lattice with nodes jittered by up to a quarter spacing, one
+ *                random diagonal per cell and a fifth of the links dropped; the
+ *                jitter keeps every cell convex, so no two links cross
+ * RADIAL         rings spacing apart joined by spokes; ring links are arcs with
+ *                intermediate vertices
+ * </pre>
+ *
+ * Every road segment gets a TYPE drawn from the type mix and a DATA1 that marks a
+ * share of the links as ramps (13-15). A share of the segments is two-sided: two
+ * records with opposite directions and a shared combinedId. Optionally, link
+ * starts are moved off their node by less than the snapping tolerance
+ * (near-coincident endpoints), small loops that start and end at a node are added
+ * (self-loops), and links are written as two-part MultiLineStrings.
+ *
+ * Generation streams: node positions are computed from their lattice or ring
+ * position (the jitter is a hash of the seed and the node), so memory does not
+ * grow with the network. The same options always produce the same file.
+ *
+ * Usage: SyntheticNetworkGenerator <output.shp> [key=value ...], with keys
+ * <pre>
+ * topology=GRID          GRID, RANDOM_PLANAR or RADIAL
+ * links=1000000          number of records written
+ * seed=42
+ * spacing=100            node spacing in metres
+ * types=5,10,15,20,25,25 relative frequency of TYPE 1-6
+ * twoSided=0.2           share of segments written as two-sided pairs
+ * ramps=0.04             share of segments with a ramp DATA1 (13-15)
+ * nearCoincident=0.0     share of links whose start is moved off its node
+ * nearOffset=0.005       maximum distance of such a start from the node
+ * selfLoops=0.0          share of segments followed by a self-loop link
+ * multiPart=0.0          share of links written as two-part MultiLineStrings
+ * </pre>
+ * Exit status: 0 on success, 1 if the files could not be written, 2 for a usage
+ * error.
+ */
+public class SyntheticNetworkGenerator {
+
+    enum Topology {
+        GRID,
+        RANDOM_PLANAR,
+        RADIAL
+    }
+
+    static final String ISRAEL_TM_WKT = "PROJCS[\"Israel_TM_Grid\",GEOGCS[\"GCS_Israel\",DATUM[\"D_Israel\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Transverse_Mercator\"],PARAMETER[\"False_Easting\",219529.584],PARAMETER[\"False_Northing\",626907.39],PARAMETER[\"Central_Meridian\",35.2045169444444],PARAMETER[\"Scale_Factor\",1.0000067],PARAMETER[\"Latitude_Of_Origin\",31.7343936111111],UNIT[\"Meter\",1.0]]";
+
+    private static final double ORIGIN_X = 150000.0;
+    private static final double ORIGIN_Y = 550000.0;
+    private static final double PLANAR_KEEP_RATIO = 0.8;
+    private static final int ARC_SEGMENTS = 4;
+
+    // Generation settings; the defaults give a plain network without edge cases.
+    static final class Options {
+        Topology topology = Topology.GRID;
+        int links = 1_000_000;
+        long seed = 42L;
+        double spacing = 100.0;
+        int[] typeWeights = {5, 10, 15, 20, 25, 25};
+        double twoSidedRatio = 0.2;
+        double rampRatio = 0.04;
+        double nearCoincidentRatio = 0.0;
+        double nearOffset = 0.005;
+        double selfLoopRatio = 0.0;
+        double multiPartRatio = 0.0;
+
+        static Options from(RunConfig config) {
+            Options options = new Options();
+            options.topology = config.getEnum("topology", Topology.class, options.topology);
+            options.links = config.getInt("links", options.links);
+            options.seed = config.getLong("seed", options.seed);
+            options.spacing = config.getDouble("spacing", options.spacing);
+            String types = config.get("types", null);
+            if (types != null) {
+                String[] parts = types.split(",");
+                if (parts.length != 6) {
+                    throw new IllegalArgumentException("Setting 'types' must list six weights for TYPE 1-6: " + types);
+                }
+                for (int t = 0; t < 6; t++) {
+                    try {
+                        options.typeWeights[t] = Integer.parseInt(parts[t].trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Setting 'types' must list integer weights: " + types);
+                    }
+                }
+            }
+            options.twoSidedRatio = config.getDouble("twoSided", options.twoSidedRatio);
+            options.rampRatio = config.getDouble("ramps", options.rampRatio);
+            options.nearCoincidentRatio = config.getDouble("nearCoincident", options.nearCoincidentRatio);
+            options.nearOffset = config.getDouble("nearOffset", options.nearOffset);
+            options.selfLoopRatio = config.getDouble("selfLoops", options.selfLoopRatio);
+            options.multiPartRatio = config.getDouble("multiPart", options.multiPartRatio);
+            options.validate();
+            return options;
+        }
+
+        void validate() {
+            if (links < 1) {
+                throw new IllegalArgumentException("Setting 'links' must be positive: " + links);
+            }
+            if (!(spacing > 0.0) || Double.isInfinite(spacing)) {
+                throw new IllegalArgumentException("Setting 'spacing' must be positive: " + spacing);
+            }
+            int total = 0;
+            for (int weight : typeWeights) {
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Setting 'types' must not have negative weights");
+                }
+                total += weight;
+            }
+            if (total == 0) {
+                throw new IllegalArgumentException("Setting 'types' must have a positive weight");
+            }
+            String[] names = {"twoSided", "ramps", "nearCoincident", "selfLoops", "multiPart"};
+            double[] ratios = {twoSidedRatio, rampRatio, nearCoincidentRatio, selfLoopRatio, multiPartRatio};
+            for (int i = 0; i < ratios.length; i++) {
+                if (!(ratios[i] >= 0.0 && ratios[i] <= 1.0)) {
+                    throw new IllegalArgumentException("Setting '" + names[i] + "' must be between 0 and 1: " + ratios[i]);
+                }
+            }
+            if (!(nearOffset >= 0.0 && nearOffset < spacing / 4)) {
+                throw new IllegalArgumentException("Setting 'nearOffset' must be between 0 and a quarter of the spacing: " + nearOffset);
+            }
+        }
+
+        // Identifies the generated file: equal descriptions give identical networks.
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(topology).append(';').append(links).append(';').append(seed).append(';').append(spacing).append(';');
+            for (int weight : typeWeights) {
+                sb.append(weight).append(',');
+            }
+            sb.append(';').append(twoSidedRatio).append(';').append(rampRatio).append(';').append(nearCoincidentRatio)
+                    .append(';').append(nearOffset).append(';').append(selfLoopRatio).append(';').append(multiPartRatio);
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || !args[0].toLowerCase().endsWith(".shp")) {
+            System.err.println("Usage: SyntheticNetworkGenerator <output.shp> [key=value ...]");
+            System.exit(2);
+        }
+        Options options;
+        try {
+            Map<String, String> settings = new LinkedHashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                int eq = args[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Expected key=value but got '" + args[i] + "'");
+                }
+                settings.put(args[i].substring(0, eq).trim(), args[i].substring(eq + 1).trim());
+            }
+            options = Options.from(new RunConfig(settings));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        File shapefile = new File(args[0]);
+        File parent = shapefile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        long start = System.nanoTime();
+        try {
+            int written = write(shapefile, options);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Wrote " + written + " " + options.topology + " links to " + shapefile.getPath() + " in " + millis + " ms ("
+                    + (long) (written * 1000.0 / Math.max(1, millis)) + " links/s).");
+        } catch (IOException e) {
+            System.err.println("Error writing " + shapefile.getPath() + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The shapefile of a network in directory, generated on first use so that
+     * benchmark forks and later runs reuse it.
+     */
+    static File ensure(File directory, Options options) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        String base = options.topology.name().toLowerCase() + "_" + options.links + "_" + options.seed
+                + "_" + Integer.toHexString(options.describe().hashCode());
+        File shapefile = new File(directory, base + ".shp");
+        if (shapefile.isFile() && new File(directory, base + ".dbf").isFile()) {
+            return shapefile;
+        }
+        File tmp = new File(directory, base + ".tmp.shp");
+        write(tmp, options);
+        // The .shp last, so an interrupted rename is regenerated next time.
+        for (String extension : new String[] {".shx", ".dbf", ".prj", ".shp"}) {
+            File from = new File(directory, base + ".tmp" + extension);
+            File to = new File(directory, base + extension);
+            if (!from.renameTo(to)) {
+                throw new IOException("Cannot rename " + from + " to " + to);
+            }
+        }
+        return shapefile;
+    }
+
+    // Writes the network and returns the number of records (fewer than requested only if the layout runs out).
+    static int write(File shapefile, Options options) throws IOException {
+        options.validate();
+        try (PolylineShapefileWriter writer = new PolylineShapefileWriter(shapefile, ISRAEL_TM_WKT)) {
+            Emitter emitter = new Emitter(writer, options);
+            if (options.topology == Topology.RADIAL) {
+                writeRadial(emitter, options);
+            } else {
+                writeLattice(emitter, options);
+            }
+            return writer.size();
+        }
+    }
+
+    private static void writeLattice(Emitter emitter, Options options) throws IOException {
+        boolean planar = options.topology == Topology.RANDOM_PLANAR;
+        double segmentsPerNode = planar ? 3.0 * PLANAR_KEEP_RATIO : 2.0;
+        double recordsPerSegment = 1.0 + options.twoSidedRatio + options.selfLoopRatio;
+        int side = (int) Math.ceil(Math.sqrt(options.links / (segmentsPerNode * recordsPerSegment))) + 2;
+        double[] a = new double[2];
+        double[] b = new double[2];
+        double[] c = new double[2];
+        for (int row = 0; row < side && !emitter.done(); row++) {
+            for (int col = 0; col < side && !emitter.done(); col++) {
+                latticeNode(options, planar, row, col, a);
+                if (col + 1 < side && keep(emitter, planar)) {
+                    latticeNode(options, planar, row, col + 1, b);
+                    emitter.straight(a, b);
+                }
+                if (row + 1 < side && keep(emitter, planar)) {
+                    latticeNode(options, planar, row + 1, col, b);
+                    emitter.straight(a, b);
+                }
+                if (planar && row + 1 < side && col + 1 < side) {
+                    boolean rising = emitter.random.nextBoolean();
+                    if (keep(emitter, true)) {
+                        if (rising) {
+                            latticeNode(options, true, row + 1, col + 1, b);
+                            emitter.straight(a, b);
+                        } else {
+                            latticeNode(options, true, row, col + 1, c);
+                            latticeNode(options, true, row + 1, col, b);
+                            emitter.straight(c, b);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean keep(Emitter emitter, boolean planar) {
+        return !planar || emitter.random.nextDouble() < PLANAR_KEEP_RATIO;
+    }
+
+    // Position of a lattice node; the planar jitter is a hash of the seed and the node, so any segment can compute it.
+    private static void latticeNode(Options options, boolean planar, int row, int col, double[] point) {
+        point[0] = ORIGIN_X + col * options.spacing;
+        point[1] = ORIGIN_Y + row * options.spacing;
+        if (planar) {
+            long h = mix(options.seed ^ ((long) row << 32 | (col & 0xFFFFFFFFL)));
+            point[0] += (unit(h) - 0.5) * 0.5 * options.spacing;
+            point[1] += (unit(mix(h)) - 0.5) * 0.5 * options.spacing;
+        }
+    }
+
+    /*
+     * Ring r (1-based) has the same number of nodes as every other ring, at radius
+     * r * spacing; the spoke count is chosen so that the outer cells are about
+     * square. Ring by ring: the spokes from the previous ring (or the centre), then
+     * the arcs along the ring.
+     */
+    private static void writeRadial(Emitter emitter, Options options) throws IOException {
+        double recordsPerSegment = 1.0 + options.twoSidedRatio + options.selfLoopRatio;
+        double segments = options.links / recordsPerSegment;
+        int rings = Math.max(1, (int) Math.ceil(Math.sqrt(segments / (4 * Math.PI))));
+        int spokes = Math.max(4, (int) Math.ceil(segments / (2.0 * rings))) + 1;
+        double[] arc = new double[2 * (ARC_SEGMENTS + 1)];
+        double[] a = new double[2];
+        double[] b = new double[2];
+        double centreX = ORIGIN_X + rings * options.spacing;
+        double centreY = ORIGIN_Y + rings * options.spacing;
+        for (int ring = 1; !emitter.done(); ring++) {
+            double radius = ring * options.spacing;
+            for (int s = 0; s < spokes && !emitter.done(); s++) {
+                double angle = 2 * Math.PI * s / spokes;
+                a[0] = centreX + (radius - options.spacing) * Math.cos(angle);
+                a[1] = centreY + (radius - options.spacing) * Math.sin(angle);
+                b[0] = centreX + radius * Math.cos(angle);
+                b[1] = centreY + radius * Math.sin(angle);
+                emitter.straight(a, b);
+            }
+            for (int s = 0; s < spokes && !emitter.done(); s++) {
+                for (int k = 0; k <= ARC_SEGMENTS; k++) {
+                    double angle = 2 * Math.PI * (s + k / (double) ARC_SEGMENTS) / spokes;
+                    if (s == spokes - 1 && k == ARC_SEGMENTS) {
+                        angle = 0.0; // end exactly on the first spoke's node
+                    }
+                    arc[2 * k] = centreX + radius * Math.cos(angle);
+                    arc[2 * k + 1] = centreY + radius * Math.sin(angle);
+                }
+                emitter.polyline(arc, ARC_SEGMENTS + 1);
+            }
+        }
+    }
+
+    // Turns road segments into link records (pairs, loops, multi-part and offset variants) until the count is reached.
+    private static final class Emitter {
+        private final PolylineShapefileWriter writer;
+        private final Options options;
+        private final SplittableRandom random;
+        private final int typeTotal;
+        private double[] xy = new double[64];
+        private double[] reversed = new double[64];
+        private final int[] partStarts = new int[2];
+        private final double[] segment = new double[4];
+        private final double[] loop = new double[8];
+        private long nextId = 1;
+
+        Emitter(PolylineShapefileWriter writer, Options options) {
+            this.writer = writer;
+            this.options = options;
+            this.random = new SplittableRandom(options.seed);
+            int total = 0;
+            for (int weight : options.typeWeights) {
+                total += weight;
+            }
+            this.typeTotal = total;
+        }
+
+        boolean done() {
+            return writer.size() >= options.links;
+        }
+
+        void straight(double[] from, double[] to) throws IOException {
+            segment[0] = from[0];
+            segment[1] = from[1];
+            segment[2] = to[0];
+            segment[3] = to[1];
+            polyline(segment, 2);
+        }
+
+        // One road segment along points (x, y pairs): a record, its opposite side and a self-loop as configured.
+        void polyline(double[] points, int count) throws IOException {
+            if (done()) {
+                return;
+            }
+            int type = type();
+            int data1 = random.nextDouble() < options.rampRatio ? 13 + random.nextInt(3) : 1 + random.nextInt(12);
+            boolean twoSided = options.links - writer.size() >= 2 && random.nextDouble() < options.twoSidedRatio;
+
+            if (xy.length < 2 * count + 2) {
+                xy = new double[2 * count + 2];
+                reversed = new double[2 * count + 2];
+            }
+            System.arraycopy(points, 0, xy, 0, 2 * count);
+            if (options.nearCoincidentRatio > 0.0 && random.nextDouble() < options.nearCoincidentRatio) {
+                double angle = random.nextDouble(2 * Math.PI);
+                double distance = random.nextDouble() * options.nearOffset;
+                xy[0] += distance * Math.cos(angle);
+                xy[1] += distance * Math.sin(angle);
+            }
+
+            String id = Long.toString(nextId++);
+            emit(id, type, data1, twoSided, id, xy, count);
+            if (twoSided) {
+                for (int i = 0; i < count; i++) {
+                    reversed[2 * i] = xy[2 * (count - 1 - i)];
+                    reversed[2 * i + 1] = xy[2 * (count - 1 - i) + 1];
+                }
+                emit(Long.toString(nextId++), type, data1, true, id, reversed, count);
+            }
+            if (options.selfLoopRatio > 0.0 && !done() && random.nextDouble() < options.selfLoopRatio) {
+                // A small triangle in the cell beside the segment's start node.
+                double size = 0.25 * options.spacing;
+                loop[0] = points[0];
+                loop[1] = points[1];
+                loop[2] = points[0] + size;
+                loop[3] = points[1] + 0.5 * size;
+                loop[4] = points[0] + 0.5 * size;
+                loop[5] = points[1] + size;
+                loop[6] = points[0];
+                loop[7] = points[1];
+                String loopId = Long.toString(nextId++);
+                emit(loopId, type(), 1 + random.nextInt(12), false, loopId, loop, 4);
+            }
+        }
+
+        // Writes one record, split into two parts at the middle (sharing that point) when drawn as multi-part.
+        private void emit(String id, int type, int data1, boolean twoSided, String combinedId, double[] points, int count)
+                throws IOException {
+            if (options.multiPartRatio > 0.0 && random.nextDouble() < options.multiPartRatio) {
+                double[] split = points == xy ? reversed : xy;
+                int middle;
+                if (count == 2) {
+                    split[0] = points[0];
+                    split[1] = points[1];
+                    split[2] = 0.5 * (points[0] + points[2]);
+                    split[3] = 0.5 * (points[1] + points[3]);
+                    split[4] = split[2];
+                    split[5] = split[3];
+                    split[6] = points[2];
+                    split[7] = points[3];
+                    middle = 2;
+                    count = 4;
+                } else {
+                    int shared = count / 2;
+                    System.arraycopy(points, 0, split, 0, 2 * (shared + 1));
+                    System.arraycopy(points, 2 * shared, split, 2 * (shared + 1), 2 * (count - shared));
+                    middle = shared + 1;
+                    count = count + 1;
+                }
+                partStarts[0] = 0;
+                partStarts[1] = middle;
+                writer.write(id, type, data1, twoSided, combinedId, split, count, partStarts, 2);
+                return;
+            }
+            partStarts[0] = 0;
+            writer.write(id, type, data1, twoSided, combinedId, points, count, partStarts, 1);
+        }
+
+        private int type() {
+            int draw = random.nextInt(typeTotal);
+            for (int t = 0; t < options.typeWeights.length; t++) {
+                draw -= options.typeWeights[t];
+                if (draw < 0) {
+                    return t + 1;
+                }
+            }
+            return options.typeWeights.length;
+        }
+    }
+
+    // SplitMix64 finalizer.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Uniform double in [0, 1) from the high bits of a hash.
+    private static double unit(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+}
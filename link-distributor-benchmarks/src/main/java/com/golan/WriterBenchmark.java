@@ -0,0 +1,132 @@
+package com.golan;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.golan.LinkDistributorLogic.GroupSampleInfo;
+import com.golan.LinkDistributorLogic.Link;
+import com.golan.LinkDistributorLogic.OutputFormat;
+
+/**
+ * Steps 8-10: the output writers, either on the links a default run selects
+ * (SELECTED) or on every sampled link (ALL, a full-network export). The output
+ * file is also written as GeoPackage and FlatGeobuf (with the packed R-tree) to
+ * compare the formats. Each invocation overwrites the same files in a temporary
+ * folder. Each file is written through its own OutputFanout sink, as a run
+ * writes it but without the other files of the run sharing the pass. The
+ * representative shapefile benchmark times the write only; the representatives
+ * are picked once, on copies of the links, as picking them averages the
+ * centrality of the shared links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriterBenchmark {
+
+    @Param({"SELECTED", "ALL"})
+    public String written;
+
+    private Map<String, GroupSampleInfo> sampleInfo;
+    private List<Link> links;
+    private List<Link> representatives;
+    private String folder;
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        LinkDistributorLogic logic = network.logic;
+        sampleInfo = logic.calculateSampleSizes(network.sampledLinks);
+        Map<String, List<Link>> grouped = logic.groupLinks(network.sampledLinks, sampleInfo);
+        Map<String, List<Link>> byGroup = written.equals("ALL") ? grouped : logic.selectSampleLinks(grouped, sampleInfo);
+        links = new ArrayList<>();
+        List<Link> twoSided = new ArrayList<>();
+        for (List<Link> group : byGroup.values()) {
+            links.addAll(group);
+            for (Link link : group) {
+                if (link.isTwoSided()) {
+                    twoSided.add(copy(link));
+                }
+            }
+        }
+        representatives = logic.getRepresentativeTwoSidedLinks(twoSided);
+        folder = network.outputFolder.getPath() + File.separator + written;
+        new File(folder).mkdirs();
+    }
+
+    @Benchmark
+    public void shapefile(NetworkState network) {
+        writeSpatial(network, links, "output", OutputFormat.SHAPEFILE, false);
+    }
+
+    @Benchmark
+    public void geoPackage(NetworkState network) {
+        writeSpatial(network, links, "output", OutputFormat.GEOPACKAGE, false);
+    }
+
+    @Benchmark
+    public void flatGeobuf(NetworkState network) {
+        writeSpatial(network, links, "output", OutputFormat.FLATGEOBUF, false);
+    }
+
+    @Benchmark
+    public void representativeShapefile(NetworkState network) {
+        writeSpatial(network, representatives, "representative", OutputFormat.SHAPEFILE, true);
+    }
+
+    @Benchmark
+    public void csv(NetworkState network) {
+        write(network, links, new OutputFanout.CsvSink(folder + File.separator + "results.csv"));
+    }
+
+    @Benchmark
+    public void summaryCsv(NetworkState network) {
+        network.logic.writeSummaryCsv(network.table.size(), network.sampledLinks.size(), sampleInfo,
+                folder + File.separator + "summary.csv", "20000101_000000", 0L);
+    }
+
+    private void writeSpatial(NetworkState network, List<Link> written, String name, OutputFormat format, boolean representative) {
+        String path = LinkDistributorLogic.spatialPath(folder, name, format);
+        write(network, written, network.logic.spatialSink(format, path, representative, false, null));
+    }
+
+    // Fails the benchmark if the sink failed, rather than timing a partial write.
+    private static void write(NetworkState network, List<Link> written, OutputFanout.Sink sink) {
+        network.logic.writeOutputs(written, null, Collections.singletonList(sink));
+        if (sink.getFailure() != null) {
+            throw new IllegalStateException(sink.getFailureMessage(), sink.getFailure());
+        }
+    }
+
+    // A link with the same row and analysis state, which getRepresentativeTwoSidedLinks may change.
+    private static Link copy(Link link) {
+        Link copy = new Link(link.table, link.row);
+        copy.group = link.group;
+        copy.groupIndex = link.groupIndex;
+        copy.centrality = link.centrality;
+        copy.rmse = link.rmse;
+        copy.fromNode = link.fromNode;
+        copy.toNode = link.toNode;
+        copy.weight = link.weight;
+        copy.otherSideId = link.otherSideId;
+        return copy;
+    }
+}
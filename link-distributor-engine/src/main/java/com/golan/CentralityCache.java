@@ -0,0 +1,242 @@
+package com.golan;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.golan.LinkDistributorLogic.CentralityScores;
+
+/**
+ * On-disk cache of normalized centrality scores, so that a run on an unchanged
+ * network with the same centrality settings skips step 4.
+ *
+ * An entry is keyed by a SHA-256 over the .shp and .dbf contents and the
+ * centrality settings (LinkDistributorLogic.centralityKey()). It stores one score
+ * per link table row plus the row's link ID, which is checked on load. The layout
+ * is fixed-width after the header, so the scores are read in bulk from one heap
+ * buffer; entries are not memory-mapped, since a mapping keeps the file locked on
+ * Windows until it is garbage collected, which blocks eviction and replacement:
+ *
+ * <pre>
+ * int magic, int version, UTF settings, UTF update, int pivotsUsed, double errorBound,
+ * int rows, double[rows] scores, int[rows + 1] id offsets, byte[] UTF-8 ids
+ * </pre>
+ *
+ * The directory is bounded in size: a hit marks the entry as recently used (its
+ * modification time) and storing an entry evicts the least recently used ones
+ * until the total fits.
+ */
+final class CentralityCache {
+
+    static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    private static final int MAGIC = 0x43454E54; // "CENT"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".cent";
+
+    // Content digests of input files by path, size and modification time, so a
+    // batch hashes each input once.
+    private static final Map<String, byte[]> DIGESTS = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final long maxBytes;
+
+    CentralityCache(File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size limit must be positive: " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Cache key of a shapefile's network under the given centrality settings.
+    String key(File shapefile, String settings) throws IOException {
+        String path = shapefile.getPath();
+        File dbf = new File(path.substring(0, path.length() - 4) + ".dbf");
+        MessageDigest digest = sha256();
+        digest.update(contentDigest(shapefile));
+        digest.update(contentDigest(dbf));
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * The cached scores for key, or null on a miss. An entry that does not match
+     * the table (row count or link IDs) counts as a miss.
+     */
+    CentralityScores load(String key, LinkTable table) throws IOException {
+        File file = entryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.err.println("Warning: Ignoring oversized centrality cache entry " + file);
+                return null;
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read the whole entry
+            }
+            buffer.flip();
+        }
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            System.err.println("Warning: Ignoring unreadable centrality cache entry " + file);
+            return null;
+        }
+        readUtf(buffer); // settings, for inspection only
+        String update = readUtf(buffer);
+        int pivotsUsed = buffer.getInt();
+        double errorBound = buffer.getDouble();
+        int rows = buffer.getInt();
+        if (rows != table.size()) {
+            return null;
+        }
+        double[] byRow = new double[rows];
+        buffer.asDoubleBuffer().get(byRow);
+        buffer.position(buffer.position() + rows * Double.BYTES);
+        int[] offsets = new int[rows + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + (rows + 1) * Integer.BYTES);
+        int idBase = buffer.position();
+        for (int row = 0; row < rows; row++) {
+            String id = new String(buffer.array(), idBase + offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+            if (!table.id(row).equals(id)) {
+                return null;
+            }
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return new CentralityScores(byRow, update, pivotsUsed, errorBound);
+    }
+
+    // Stores scores under key, then evicts least recently used entries beyond the size limit.
+    void store(String key, String settings, LinkTable table, CentralityScores scores) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create centrality cache directory " + directory);
+        }
+        File file = entryFile(key);
+        File tmp = new File(file.getPath() + ".tmp");
+        int rows = table.size();
+        byte[][] ids = new byte[rows][];
+        for (int row = 0; row < rows; row++) {
+            ids[row] = table.id(row).getBytes(StandardCharsets.UTF_8);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(settings);
+            out.writeUTF(scores.update != null ? scores.update : "");
+            out.writeInt(scores.pivotsUsed);
+            out.writeDouble(scores.errorBound);
+            out.writeInt(rows);
+            for (int row = 0; row < rows; row++) {
+                out.writeDouble(scores.byRow[row]);
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (int row = 0; row < rows; row++) {
+                offset += ids[row].length;
+                out.writeInt(offset);
+            }
+            for (int row = 0; row < rows; row++) {
+                out.write(ids[row]);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        evict(file);
+    }
+
+    // Deletes the least recently used entries (never keep) until the directory fits the limit.
+    private void evict(File keep) {
+        File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (entry.equals(keep)) {
+                continue;
+            }
+            long length = entry.length();
+            if (entry.delete()) {
+                total -= length;
+                System.out.println("Evicted centrality cache entry " + entry.getName() + " (" + length + " bytes).");
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static byte[] contentDigest(File file) throws IOException {
+        String memoKey = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+        byte[] known = DIGESTS.get(memoKey);
+        if (known != null) {
+            return known;
+        }
+        MessageDigest digest = sha256();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        byte[] result = digest.digest();
+        DIGESTS.put(memoKey, result);
+        return result;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Reads a string written by DataOutputStream.writeUTF (plain UTF-8 for the keys and notes used here).
+    private static String readUtf(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,143 @@
+package com.golan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * The centrality graph of a run together with its raw (not normalized) per-arc
+ * betweenness, persisted so that the next run can update the scores incrementally
+ * (see IncrementalBetweenness) instead of recomputing them.
+ *
+ * An arc is identified by its link ID and whether it runs in the link's digitized
+ * direction; it records its vertices, its cost and the link's geometry hash. The
+ * fingerprint describes the centrality settings the scores were computed with, so
+ * a snapshot is only reused under the same settings.
+ */
+final class CentralitySnapshot {
+
+    private static final int MAGIC = 0x43534E50; // "CSNP"
+    private static final int VERSION = 1;
+
+    final String fingerprint;
+    final int vertexCount;
+    final boolean directed;
+    final boolean weighted;
+    final String[] arcLinkId;
+    final boolean[] arcForward;
+    final int[] arcSource;
+    final int[] arcTarget;
+    final double[] arcWeight; // 1.0 for hop counts
+    final long[] arcGeometryHash;
+    final double[] arcScore;
+
+    private CentralitySnapshot(String fingerprint, int vertexCount, boolean directed, boolean weighted, int arcCount) {
+        this.fingerprint = fingerprint;
+        this.vertexCount = vertexCount;
+        this.directed = directed;
+        this.weighted = weighted;
+        arcLinkId = new String[arcCount];
+        arcForward = new boolean[arcCount];
+        arcSource = new int[arcCount];
+        arcTarget = new int[arcCount];
+        arcWeight = new double[arcCount];
+        arcGeometryHash = new long[arcCount];
+        arcScore = new double[arcCount];
+    }
+
+    int arcCount() {
+        return arcSource.length;
+    }
+
+    /**
+     * Describes the arcs of a graph built by CsrGraph.fromLinks, whose links carry
+     * their vertex ids in fromNode/toNode. edgeScores may be null when only the
+     * structure is needed.
+     */
+    static CentralitySnapshot of(CsrGraph graph, double[] edgeScores, String fingerprint) {
+        CentralitySnapshot snapshot = new CentralitySnapshot(fingerprint, graph.vertexCount, graph.directed,
+                graph.isWeighted(), graph.edgeCount);
+        for (int e = 0; e < graph.edgeCount; e++) {
+            Link link = graph.links[graph.edgeLinkIndex[e]];
+            snapshot.arcLinkId[e] = link.id();
+            snapshot.arcForward[e] = graph.edgeSource[e] == link.fromNode;
+            snapshot.arcSource[e] = graph.edgeSource[e];
+            snapshot.arcTarget[e] = graph.edgeTarget[e];
+            snapshot.arcWeight[e] = graph.isWeighted() ? link.weight : 1.0;
+            snapshot.arcGeometryHash[e] = link.table.geometryHash(link.row);
+            snapshot.arcScore[e] = (edgeScores != null) ? edgeScores[e] : 0.0;
+        }
+        return snapshot;
+    }
+
+    // The persisted graph, with arc i as edge i. It has no Link objects attached.
+    CsrGraph toGraph() {
+        int[] edgeIds = new int[arcCount()];
+        for (int e = 0; e < edgeIds.length; e++) {
+            edgeIds[e] = e;
+        }
+        return new CsrGraph(vertexCount, arcSource, arcTarget, edgeIds, new Link[arcCount()],
+                weighted ? arcWeight : null, directed);
+    }
+
+    // Writes to a temporary file first, so an interrupted run never leaves a partial snapshot.
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(vertexCount);
+            out.writeBoolean(directed);
+            out.writeBoolean(weighted);
+            out.writeInt(arcCount());
+            for (int e = 0; e < arcCount(); e++) {
+                out.writeUTF(arcLinkId[e]);
+                out.writeBoolean(arcForward[e]);
+                out.writeInt(arcSource[e]);
+                out.writeInt(arcTarget[e]);
+                out.writeDouble(arcWeight[e]);
+                out.writeLong(arcGeometryHash[e]);
+                out.writeDouble(arcScore[e]);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Reads a snapshot, or returns null if the file does not exist.
+    static CentralitySnapshot read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a centrality snapshot (or an unsupported version): " + file);
+            }
+            String fingerprint = in.readUTF();
+            int vertexCount = in.readInt();
+            boolean directed = in.readBoolean();
+            boolean weighted = in.readBoolean();
+            int arcCount = in.readInt();
+            CentralitySnapshot snapshot = new CentralitySnapshot(fingerprint, vertexCount, directed, weighted, arcCount);
+            for (int e = 0; e < arcCount; e++) {
+                snapshot.arcLinkId[e] = in.readUTF();
+                snapshot.arcForward[e] = in.readBoolean();
+                snapshot.arcSource[e] = in.readInt();
+                snapshot.arcTarget[e] = in.readInt();
+                snapshot.arcWeight[e] = in.readDouble();
+                snapshot.arcGeometryHash[e] = in.readLong();
+                snapshot.arcScore[e] = in.readDouble();
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.golan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Network multigraph in compressed sparse row (CSR) form, used by the centrality
+ * stage instead of an object graph.
+ *
+ * Vertices are dense ids over the snapped link endpoints. Edge e runs from
+ * edgeSource[e] to edgeTarget[e] and belongs to links[edgeLinkIndex[e]], so scores
+ * computed per edge map straight back to their Link. Parallel edges are kept, so
+ * every link gets its own edge (a link may own two arcs in a directed graph).
+ *
+ * The out-neighbours of vertex v are targets[offsets[v] .. offsets[v + 1]), reached
+ * through edge edgeIndex[...]; the in-neighbours are inSources[inOffsets[v] ..
+ * inOffsets[v + 1]) through inEdgeIndex[...]. In an undirected graph every edge
+ * appears from both ends and the in-arrays are the out-arrays.
+ *
+ * A weighted graph also carries arcWeight / inArcWeight, aligned with targets /
+ * inSources, holding the (strictly positive) edge cost; they are null for hop counts.
+ */
+final class CsrGraph {
+
+    final int vertexCount;
+    final int edgeCount;
+    final boolean directed;
+    final int[] edgeSource;
+    final int[] edgeTarget;
+    final int[] edgeLinkIndex;
+    final Link[] links;
+    final int[] offsets;
+    final int[] targets;
+    final int[] edgeIndex;
+    final double[] arcWeight;
+    final int[] inOffsets;
+    final int[] inSources;
+    final int[] inEdgeIndex;
+    final double[] inArcWeight;
+
+    CsrGraph(int vertexCount, int[] edgeSource, int[] edgeTarget, int[] edgeLinkIndex, Link[] links, double[] edgeWeight, boolean directed) {
+        if (edgeSource.length != edgeTarget.length || edgeSource.length != edgeLinkIndex.length
+                || (edgeWeight != null && edgeWeight.length != edgeSource.length)) {
+            throw new IllegalArgumentException("Edge arrays differ in length");
+        }
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeSource.length;
+        this.directed = directed;
+        this.edgeSource = edgeSource;
+        this.edgeTarget = edgeTarget;
+        this.edgeLinkIndex = edgeLinkIndex;
+        this.links = links;
+
+        if (directed) {
+            offsets = new int[vertexCount + 1];
+            targets = new int[edgeCount];
+            edgeIndex = new int[edgeCount];
+            fillAdjacency(edgeSource, edgeTarget, offsets, targets, edgeIndex);
+            inOffsets = new int[vertexCount + 1];
+            inSources = new int[edgeCount];
+            inEdgeIndex = new int[edgeCount];
+            fillAdjacency(edgeTarget, edgeSource, inOffsets, inSources, inEdgeIndex);
+        } else {
+            offsets = new int[vertexCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                offsets[edgeSource[e] + 1]++;
+                offsets[edgeTarget[e] + 1]++;
+            }
+            for (int v = 0; v < vertexCount; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            targets = new int[2 * edgeCount];
+            edgeIndex = new int[2 * edgeCount];
+            int[] fill = Arrays.copyOf(offsets, vertexCount);
+            for (int e = 0; e < edgeCount; e++) {
+                int u = edgeSource[e];
+                int v = edgeTarget[e];
+                targets[fill[u]] = v;
+                edgeIndex[fill[u]++] = e;
+                targets[fill[v]] = u;
+                edgeIndex[fill[v]++] = e;
+            }
+            inOffsets = offsets;
+            inSources = targets;
+            inEdgeIndex = edgeIndex;
+        }
+
+        arcWeight = alignWeights(edgeWeight, edgeIndex);
+        inArcWeight = directed ? alignWeights(edgeWeight, inEdgeIndex) : arcWeight;
+    }
+
+    // Counting sort of the edges by their "from" end into CSR arrays.
+    private void fillAdjacency(int[] from, int[] to, int[] off, int[] adj, int[] adjEdge) {
+        for (int e = 0; e < edgeCount; e++) {
+            off[from[e] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            off[v + 1] += off[v];
+        }
+        int[] fill = Arrays.copyOf(off, vertexCount);
+        for (int e = 0; e < edgeCount; e++) {
+            int pos = fill[from[e]]++;
+            adj[pos] = to[e];
+            adjEdge[pos] = e;
+        }
+    }
+
+    private static double[] alignWeights(double[] edgeWeight, int[] adjEdge) {
+        if (edgeWeight == null) {
+            return null;
+        }
+        double[] aligned = new double[adjEdge.length];
+        for (int i = 0; i < aligned.length; i++) {
+            aligned[i] = edgeWeight[adjEdge[i]];
+        }
+        return aligned;
+    }
+
+    boolean isWeighted() {
+        return arcWeight != null;
+    }
+
+    // Sums per-edge scores into per-link scores, indexed like links.
+    double[] linkScores(double[] edgeScores) {
+        double[] scores = new double[links.length];
+        for (int e = 0; e < edgeCount; e++) {
+            scores[edgeLinkIndex[e]] += edgeScores[e];
+        }
+        return scores;
+    }
+
+    /**
+     * Builds the graph from links whose fromNode/toNode have already been assigned.
+     * Self-loops are skipped; links sharing both endpoints each get their own edge.
+     * When weighted is set, each edge costs its link's weight.
+     *
+     * In a directed graph a link is an arc from its first to its last vertex. A
+     * two-sided link only carries its own direction, since the opposite direction
+     * is the link sharing its combinedId; if that partner is not part of the graph
+     * the reverse arc is added as well. A one-sided link is a single feature for a
+     * road that can be driven both ways, so it gets arcs in both directions.
+     */
+    static CsrGraph fromLinks(List<Link> links, int vertexCount, boolean weighted, boolean directed) {
+        Map<String, Integer> sidesPresent = new HashMap<>();
+        if (directed) {
+            for (Link link : links) {
+                if (link.isTwoSided()) {
+                    sidesPresent.merge(link.combinedId(), 1, Integer::sum);
+                }
+            }
+        }
+        int capacity = directed ? 2 * links.size() : links.size();
+        int[] src = new int[capacity];
+        int[] tgt = new int[capacity];
+        int[] owner = new int[capacity];
+        double[] weights = weighted ? new double[capacity] : null;
+        int m = 0;
+        for (int i = 0; i < links.size(); i++) {
+            Link link = links.get(i);
+            int u = link.fromNode;
+            int v = link.toNode;
+            if (u == v) {
+                continue;
+            }
+            src[m] = u;
+            tgt[m] = v;
+            owner[m] = i;
+            if (weighted) {
+                weights[m] = link.weight;
+            }
+            m++;
+            if (directed && (!link.isTwoSided() || sidesPresent.get(link.combinedId()) == 1)) {
+                src[m] = v;
+                tgt[m] = u;
+                owner[m] = i;
+                if (weighted) {
+                    weights[m] = link.weight;
+                }
+                m++;
+            }
+        }
+        return new CsrGraph(vertexCount, Arrays.copyOf(src, m), Arrays.copyOf(tgt, m), Arrays.copyOf(owner, m),
+                links.toArray(new Link[0]), weighted ? Arrays.copyOf(weights, m) : null, directed);
+    }
+}
@@ -0,0 +1,193 @@
+package com.golan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes CSV rows into one large buffer that is flushed to a FileChannel, or
+ * through gzip when the file name ends in .gz. Fields are encoded straight into
+ * the buffer (text as UTF-8, doubles in fixed precision), and pooled strings
+ * straight from their StringPool characters, so encoding a row creates no objects
+ * (a rare tie in fixed() aside). Fields are written as given, without quoting.
+ *
+ * fixed(value, decimals) writes what String.format("%.<decimals>f", value) writes in
+ * a locale with a '.' separator. Formatter rounds the shortest decimal form of the
+ * double half-up; the scaled value is rounded the same way here, and the rare
+ * values that lie too close to a tie to tell, or are too large or not finite,
+ * are passed to String.format.
+ */
+final class CsvWriter implements Closeable {
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+    private static final double MAX_SCALED = 1e15; // scaled values stay exact in a long and a double
+
+    private final FileChannel channel; // null when gzipped
+    private final OutputStream gzip;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final byte[] digits = new byte[20];
+    private char[] chars = new char[64]; // characters of the String being encoded
+    private boolean rowStarted;
+
+    CsvWriter(File file) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            channel = null;
+            gzip = new GZIPOutputStream(new FileOutputStream(file), GZIP_BUFFER_BYTES);
+        } else {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            gzip = null;
+        }
+    }
+
+    // A text field as %s writes it ("null" for null).
+    void text(String value) throws IOException {
+        String s = value != null ? value : "null";
+        int length = s.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        s.getChars(0, length, chars, 0);
+        text(chars, 0, length);
+    }
+
+    // String ref of pool (a link table ID), encoded from the pool's characters.
+    void text(StringPool pool, int ref) throws IOException {
+        text(pool.chars(), pool.start(ref), pool.end(ref));
+    }
+
+    private void text(char[] value, int from, int to) throws IOException {
+        separate();
+        for (int i = from; i < to; i++) {
+            char c = value[i];
+            if (c < 0x80) {
+                ensure(1);
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(value[i + 1])) {
+                int codePoint = Character.toCodePoint(c, value[++i]);
+                ensure(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate, replaced as the UTF-8 encoder does.
+                ensure(1);
+                buffer.put((byte) '?');
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    void bool(boolean value) throws IOException {
+        text(value ? "true" : "false");
+    }
+
+    // value with decimals (0-9) digits after the point, like %.<decimals>f.
+    void fixed(double value, int decimals) throws IOException {
+        separate();
+        double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        if (!(scaled < MAX_SCALED)) {
+            formatted(value, decimals);
+            return;
+        }
+        long units = (long) scaled;
+        double fraction = scaled - units;
+        // Within a few ulps of .5 the decimal digits of value decide; leave it to Formatter.
+        if (Math.abs(fraction - 0.5) <= 8 * Math.ulp(scaled)) {
+            formatted(value, decimals);
+            return;
+        }
+        if (fraction > 0.5) {
+            units++;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0 || n <= decimals);
+        ensure(n + 2);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            buffer.put((byte) '-');
+        }
+        while (n > decimals) {
+            buffer.put(digits[--n]);
+        }
+        if (decimals > 0) {
+            buffer.put((byte) '.');
+            while (n > 0) {
+                buffer.put(digits[--n]);
+            }
+        }
+    }
+
+    void endRow() throws IOException {
+        ensure(1);
+        buffer.put((byte) '\n');
+        rowStarted = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (channel != null) {
+                channel.close();
+            } else {
+                gzip.close();
+            }
+        }
+    }
+
+    private void formatted(double value, int decimals) throws IOException {
+        String s = String.format(Locale.ROOT, "%." + decimals + "f", value);
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void separate() throws IOException {
+        if (rowStarted) {
+            ensure(1);
+            buffer.put((byte) ',');
+        }
+        rowStarted = true;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        if (channel != null) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else {
+            gzip.write(buffer.array(), 0, buffer.limit());
+        }
+        buffer.clear();
+    }
+}
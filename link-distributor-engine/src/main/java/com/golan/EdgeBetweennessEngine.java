@@ -0,0 +1,309 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel edge betweenness centrality (Brandes' algorithm) for a directed or
+ * undirected CsrGraph, including parallel edges. Hop counts use breadth-first
+ * search; weighted graphs use Dijkstra on a primitive indexed binary heap
+ * (weights must be strictly positive).
+ *
+ * Source vertices are striped across the tasks of a ForkJoinPool. Each task keeps
+ * its own primitive work arrays and its own per-edge score array, so the search
+ * itself is lock-free; the per-task scores are summed in task order at the end,
+ * which keeps the result deterministic for a given parallelism.
+ *
+ * Raw scores follow the JGraphT EdgeBetweennessCentrality convention: in an
+ * undirected graph every pair of endpoints is counted once, in a directed graph
+ * every ordered pair. For simple undirected graphs they are identical to what
+ * getScores() returned before, up to floating point rounding.
+ *
+ * For large networks the search can be restricted to a random sample of pivot
+ * sources (see {@link #samplePivots}); the accumulated dependencies are then
+ * scaled by n / k, which is an unbiased estimate of the exact scores.
+ */
+final class EdgeBetweennessEngine {
+
+    private final int vertexCount;
+    private final int edgeCount;
+    private final int parallelism;
+    private final int[] adjOffset;
+    private final int[] adjTarget;
+    private final int[] adjEdge;
+    private final double[] adjWeight; // null for hop counts
+    private final boolean directed;
+    private final int[] inOffset;
+    private final int[] inSource;
+    private final int[] inEdge;
+    private final double[] inWeight;
+
+    EdgeBetweennessEngine(CsrGraph graph, int parallelism) {
+        this.vertexCount = graph.vertexCount;
+        this.edgeCount = graph.edgeCount;
+        this.parallelism = Math.max(1, parallelism);
+        this.adjOffset = graph.offsets;
+        this.adjTarget = graph.targets;
+        this.adjEdge = graph.edgeIndex;
+        this.adjWeight = graph.arcWeight;
+        this.directed = graph.directed;
+        this.inOffset = graph.inOffsets;
+        this.inSource = graph.inSources;
+        this.inEdge = graph.inEdgeIndex;
+        this.inWeight = graph.inArcWeight;
+    }
+
+    /**
+     * Runs the computation and returns the raw betweenness of every edge, indexed
+     * by the graph's edge ids.
+     */
+    double[] computeScores() throws InterruptedException, ExecutionException {
+        return computeScores(null);
+    }
+
+    /**
+     * Runs the computation from the given pivot sources only and extrapolates the
+     * result to the whole vertex set. A null array means every vertex is a source.
+     */
+    double[] computeScores(int[] pivots) throws InterruptedException, ExecutionException {
+        double[] scores = accumulate(pivots);
+        // Undirected graph: each pair was accumulated once from either endpoint.
+        double scale = directed ? 1.0 : 0.5;
+        int sourceCount = (pivots == null) ? vertexCount : pivots.length;
+        if (pivots != null && sourceCount > 0) {
+            scale *= (double) vertexCount / sourceCount;
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            scores[e] *= scale;
+        }
+        return scores;
+    }
+
+    /**
+     * The part of the exact scores contributed by the given sources alone, with no
+     * extrapolation: summed over every vertex as source this is computeScores().
+     * Used to replace individual sources' dependencies incrementally.
+     */
+    double[] computeContributions(int[] sources) throws InterruptedException, ExecutionException {
+        double[] scores = accumulate(sources);
+        if (!directed) {
+            for (int e = 0; e < edgeCount; e++) {
+                scores[e] *= 0.5;
+            }
+        }
+        return scores;
+    }
+
+    // Sums the unscaled dependencies of the given sources (all vertices when null).
+    private double[] accumulate(int[] pivots) throws InterruptedException, ExecutionException {
+        int sourceCount = (pivots == null) ? vertexCount : pivots.length;
+        int tasks = Math.min(parallelism, Math.max(1, sourceCount));
+        double[] scores;
+        if (tasks == 1) {
+            scores = new SourceStripe(pivots, 0, 1).call();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(tasks);
+            try {
+                List<Callable<double[]>> stripes = new ArrayList<>(tasks);
+                for (int t = 0; t < tasks; t++) {
+                    stripes.add(new SourceStripe(pivots, t, tasks));
+                }
+                List<Future<double[]>> partials = pool.invokeAll(stripes);
+                scores = partials.get(0).get();
+                for (int t = 1; t < tasks; t++) {
+                    double[] partial = partials.get(t).get();
+                    for (int e = 0; e < edgeCount; e++) {
+                        scores[e] += partial[e];
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Number of pivots needed so that every edge's betweenness, as a fraction of all
+     * vertex pairs, is within {@code epsilon} of the exact value with probability
+     * {@code confidence}. Hoeffding's bound with a union bound over all edges.
+     */
+    static int pivotsForError(double epsilon, double confidence, int edgeCount) {
+        double failure = 1.0 - confidence;
+        double k = Math.log(2.0 * Math.max(1, edgeCount) / failure) / (2.0 * epsilon * epsilon);
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(k));
+    }
+
+    /**
+     * The error bound (see {@link #pivotsForError}) achieved by k pivots.
+     */
+    static double errorForPivots(int k, double confidence, int edgeCount) {
+        double failure = 1.0 - confidence;
+        return Math.sqrt(Math.log(2.0 * Math.max(1, edgeCount) / failure) / (2.0 * Math.max(1, k)));
+    }
+
+    /**
+     * Draws k distinct vertices uniformly at random (partial Fisher-Yates shuffle).
+     * The same seed always yields the same pivots for the same vertex count.
+     */
+    static int[] samplePivots(int vertexCount, int k, long seed) {
+        int[] perm = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            perm[i] = i;
+        }
+        Random rnd = new Random(seed);
+        int count = Math.min(k, vertexCount);
+        for (int i = 0; i < count; i++) {
+            int j = i + rnd.nextInt(vertexCount - i);
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+        }
+        int[] pivots = Arrays.copyOf(perm, count);
+        Arrays.sort(pivots);
+        return pivots;
+    }
+
+    // Processes sources first, first + stride, first + 2 * stride, ... of the
+    // pivot list (or of all vertices when there is no pivot list).
+    private final class SourceStripe implements Callable<double[]> {
+        private final int[] pivots;
+        private final int first;
+        private final int stride;
+
+        SourceStripe(int[] pivots, int first, int stride) {
+            this.pivots = pivots;
+            this.first = first;
+            this.stride = stride;
+        }
+
+        @Override
+        public double[] call() {
+            double[] scores = new double[edgeCount];
+            double[] sigma = new double[vertexCount];
+            double[] delta = new double[vertexCount];
+            int[] order = new int[vertexCount];
+            int sourceCount = (pivots == null) ? vertexCount : pivots.length;
+
+            if (adjWeight == null) {
+                int[] dist = new int[vertexCount];
+                Arrays.fill(dist, -1);
+                for (int p = first; p < sourceCount; p += stride) {
+                    int s = (pivots == null) ? p : pivots[p];
+                    accumulateHops(s, scores, dist, sigma, delta, order);
+                }
+            } else {
+                double[] dist = new double[vertexCount];
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                IndexedMinHeap heap = new IndexedMinHeap(vertexCount);
+                for (int p = first; p < sourceCount; p += stride) {
+                    int s = (pivots == null) ? p : pivots[p];
+                    accumulateWeighted(s, scores, dist, sigma, delta, order, heap);
+                }
+            }
+            return scores;
+        }
+
+        // Single-source pass for hop counts: breadth-first search, where the queue
+        // doubles as the visit order.
+        private void accumulateHops(int s, double[] scores, int[] dist, double[] sigma, double[] delta, int[] order) {
+            int head = 0;
+            int tail = 0;
+            dist[s] = 0;
+            sigma[s] = 1.0;
+            order[tail++] = s;
+            while (head < tail) {
+                int v = order[head++];
+                int nextDist = dist[v] + 1;
+                for (int i = adjOffset[v], end = adjOffset[v + 1]; i < end; i++) {
+                    int w = adjTarget[i];
+                    if (dist[w] < 0) {
+                        dist[w] = nextDist;
+                        order[tail++] = w;
+                    }
+                    if (dist[w] == nextDist) {
+                        sigma[w] += sigma[v];
+                    }
+                }
+            }
+
+            // Dependency accumulation in reverse visit order. Predecessors are
+            // found by scanning the incoming edges instead of storing lists.
+            for (int k = tail - 1; k > 0; k--) {
+                int w = order[k];
+                double coeff = (1.0 + delta[w]) / sigma[w];
+                int prevDist = dist[w] - 1;
+                for (int i = inOffset[w], end = inOffset[w + 1]; i < end; i++) {
+                    int v = inSource[i];
+                    if (dist[v] == prevDist) {
+                        double c = sigma[v] * coeff;
+                        scores[inEdge[i]] += c;
+                        delta[v] += c;
+                    }
+                }
+            }
+
+            for (int k = 0; k < tail; k++) {
+                int v = order[k];
+                dist[v] = -1;
+                sigma[v] = 0.0;
+                delta[v] = 0.0;
+            }
+        }
+
+        // Single-source pass for weighted edges: Dijkstra on the indexed heap,
+        // recording vertices in the order they are settled.
+        private void accumulateWeighted(int s, double[] scores, double[] dist, double[] sigma, double[] delta,
+                                        int[] order, IndexedMinHeap heap) {
+            int settled = 0;
+            dist[s] = 0.0;
+            sigma[s] = 1.0;
+            heap.insertOrDecrease(s, 0.0);
+            while (!heap.isEmpty()) {
+                int v = heap.poll();
+                order[settled++] = v;
+                double dv = dist[v];
+                for (int i = adjOffset[v], end = adjOffset[v + 1]; i < end; i++) {
+                    int w = adjTarget[i];
+                    double nd = dv + adjWeight[i];
+                    if (nd < dist[w]) {
+                        dist[w] = nd;
+                        sigma[w] = sigma[v];
+                        heap.insertOrDecrease(w, nd);
+                    } else if (nd == dist[w]) {
+                        sigma[w] += sigma[v];
+                    }
+                }
+            }
+
+            // v precedes w on a shortest path exactly when dist[v] + weight == dist[w];
+            // the sum is evaluated the same way as in the forward pass.
+            for (int k = settled - 1; k > 0; k--) {
+                int w = order[k];
+                double coeff = (1.0 + delta[w]) / sigma[w];
+                double dw = dist[w];
+                for (int i = inOffset[w], end = inOffset[w + 1]; i < end; i++) {
+                    int v = inSource[i];
+                    if (dist[v] + inWeight[i] == dw) {
+                        double c = sigma[v] * coeff;
+                        scores[inEdge[i]] += c;
+                        delta[v] += c;
+                    }
+                }
+            }
+
+            for (int k = 0; k < settled; k++) {
+                int v = order[k];
+                dist[v] = Double.POSITIVE_INFINITY;
+                sigma[v] = 0.0;
+                delta[v] = 0.0;
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package com.golan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams line features into a FlatGeobuf file: the magic bytes, a FlatBuffers
+ * header, an optional packed Hilbert R-tree and the size-prefixed FlatBuffers
+ * features. The layer is a MultiLineString layer; each feature holds its x, y
+ * pairs, its part ends and its properties (String or Double columns, nulls left
+ * out).
+ *
+ * Without an index, features go straight to the file through one fixed-size
+ * buffer, and the feature count and extent are patched into the header on close.
+ * With an index, features must be stored in the order of the tree's leaves, which
+ * is known only once all bounds are: they are spooled to a temporary file next to
+ * the output, with their bounds and spool offsets kept in memory (40 bytes per
+ * feature), and on close copied after the header and the tree in Hilbert order of
+ * their bounds' centres, as the reference writers do.
+ */
+final class FlatGeobufWriter implements Closeable {
+
+    static final byte COLUMN_DOUBLE = 10;
+    static final byte COLUMN_STRING = 11;
+
+    private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+    private static final byte GEOMETRY_MULTILINESTRING = 5;
+    private static final int NODE_SIZE = 16;
+    private static final int NODE_BYTES = 40; // minX, minY, maxX, maxY, offset
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final File file;
+    private final String layerName;
+    private final String[] columnNames;
+    private final byte[] columnTypes;
+    private final int epsg;
+    private final boolean indexed;
+    private final File spoolFile;     // indexed only
+    private final FileChannel channel; // the output, or the spool when indexed
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer feature = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer properties = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+    private int count;
+    private long written; // feature bytes so far
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    // Streamed: file positions of the header's feature count and envelope.
+    private long countPosition;
+    private long envelopePosition;
+
+    // Indexed: bounds (4 per feature) and spool offsets of the features in arrival order.
+    private double[] bounds = new double[0];
+    private long[] offsets = new long[0];
+
+    /**
+     * @param columnNames Property columns; values are passed to write in this order.
+     * @param columnTypes COLUMN_STRING or COLUMN_DOUBLE per column.
+     * @param epsg EPSG code of the coordinates, or 0 if unknown.
+     * @param indexed Whether to write a packed Hilbert R-tree.
+     */
+    FlatGeobufWriter(File file, String layerName, String[] columnNames, byte[] columnTypes, int epsg, boolean indexed)
+            throws IOException {
+        this.file = file;
+        this.layerName = layerName;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.epsg = epsg;
+        this.indexed = indexed;
+        if (indexed) {
+            spoolFile = new File(file.getPath() + ".features.tmp");
+            channel = open(spoolFile);
+        } else {
+            spoolFile = null;
+            channel = open(file);
+            Header header = header(0, 0);
+            countPosition = MAGIC.length + 4 + header.countPosition;
+            envelopePosition = MAGIC.length + 4 + header.envelopePosition;
+            buffer.put(MAGIC);
+            buffer.putInt(header.bytes.remaining());
+            buffer.put(header.bytes);
+        }
+    }
+
+    /**
+     * Appends one feature.
+     *
+     * @param xy Interleaved coordinates (x0, y0, x1, y1, ...); the feature's start at index from.
+     * @param points Number of points, 0 for a feature without geometry.
+     * @param ends End (exclusive point index) of each part; not read for a single part.
+     * @param parts Number of parts.
+     * @param values Property per column: a String, a Number or null.
+     */
+    void write(double[] xy, int from, int points, int[] ends, int parts, Object[] values) throws IOException {
+        encodeProperties(values);
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < from + 2 * points; i += 2) {
+            x0 = Math.min(x0, xy[i]);
+            x1 = Math.max(x1, xy[i]);
+            y0 = Math.min(y0, xy[i + 1]);
+            y1 = Math.max(y1, xy[i + 1]);
+        }
+        minX = Math.min(minX, x0);
+        minY = Math.min(minY, y0);
+        maxX = Math.max(maxX, x1);
+        maxY = Math.max(maxY, y1);
+
+        ByteBuffer f = encodeFeature(xy, from, points, ends, parts);
+        if (indexed) {
+            if (count == offsets.length) {
+                int capacity = Math.max(1024, count + (count >> 1));
+                offsets = Arrays.copyOf(offsets, capacity);
+                bounds = Arrays.copyOf(bounds, 4 * capacity);
+            }
+            offsets[count] = written;
+            bounds[4 * count] = x0;
+            bounds[4 * count + 1] = y0;
+            bounds[4 * count + 2] = x1;
+            bounds[4 * count + 3] = y1;
+        }
+        if (count == Integer.MAX_VALUE) {
+            throw new IOException("Too many features for one FlatGeobuf file");
+        }
+        count++;
+        written += f.remaining();
+        put(f);
+    }
+
+    int size() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(channel);
+            if (indexed) {
+                writeIndexed();
+            } else {
+                ByteBuffer patch = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+                patch.putLong(0, count);
+                patch.limit(8);
+                channel.write(patch, countPosition);
+                patch.clear();
+                putEnvelope(patch);
+                patch.flip();
+                channel.write(patch, envelopePosition);
+            }
+        } finally {
+            channel.close();
+            if (spoolFile != null) {
+                Files.deleteIfExists(spoolFile.toPath());
+            }
+        }
+    }
+
+    // Header, tree and the spooled features in leaf order.
+    private void writeIndexed() throws IOException {
+        int n = count;
+        long[] keys = new long[n];
+        double width = maxX - minX;
+        double height = maxY - minY;
+        for (int i = 0; i < n; i++) {
+            long h = hilbert(bounds, i, width, height) & 0xFFFFFFFFL;
+            keys[i] = (h << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int[][] levels = n > 0 ? levelBounds(n) : new int[0][];
+        int nodes = n > 0 ? levels[0][1] : 0;
+        double[] nodeBounds = new double[4 * nodes];
+        long[] nodeOffsets = new long[nodes];
+        int[] order = new int[n];
+        long offset = 0;
+        for (int k = 0; k < n; k++) {
+            // Descending Hilbert value, as in the reference implementation.
+            int i = (int) keys[n - 1 - k];
+            order[k] = i;
+            int node = levels[0][0] + k;
+            System.arraycopy(bounds, 4 * i, nodeBounds, 4 * node, 4);
+            nodeOffsets[node] = offset;
+            offset += featureEnd(i) - offsets[i];
+        }
+        for (int level = 0; level < levels.length - 1; level++) {
+            int pos = levels[level][0];
+            int end = levels[level][1];
+            int parent = levels[level + 1][0];
+            while (pos < end) {
+                int node = parent++;
+                nodeOffsets[node] = pos;
+                double[] b = nodeBounds;
+                b[4 * node] = Double.POSITIVE_INFINITY;
+                b[4 * node + 1] = Double.POSITIVE_INFINITY;
+                b[4 * node + 2] = Double.NEGATIVE_INFINITY;
+                b[4 * node + 3] = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < NODE_SIZE && pos < end; j++, pos++) {
+                    b[4 * node] = Math.min(b[4 * node], b[4 * pos]);
+                    b[4 * node + 1] = Math.min(b[4 * node + 1], b[4 * pos + 1]);
+                    b[4 * node + 2] = Math.max(b[4 * node + 2], b[4 * pos + 2]);
+                    b[4 * node + 3] = Math.max(b[4 * node + 3], b[4 * pos + 3]);
+                }
+            }
+        }
+
+        try (FileChannel out = open(file); FileChannel spool = FileChannel.open(spoolFile.toPath(), StandardOpenOption.READ)) {
+            Header header = header(n, n > 0 ? NODE_SIZE : 0);
+            header.bytes.putLong(header.countPosition, n);
+            ByteBuffer envelope = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+            putEnvelope(envelope);
+            for (int i = 0; i < 4; i++) {
+                header.bytes.putDouble(header.envelopePosition + 8 * i, envelope.getDouble(8 * i));
+            }
+            buffer.put(MAGIC);
+            buffer.putInt(header.bytes.remaining());
+            buffer.put(header.bytes);
+            for (int node = 0; node < nodes; node++) {
+                ensure(out, NODE_BYTES);
+                buffer.putDouble(nodeBounds[4 * node]).putDouble(nodeBounds[4 * node + 1]);
+                buffer.putDouble(nodeBounds[4 * node + 2]).putDouble(nodeBounds[4 * node + 3]);
+                buffer.putLong(nodeOffsets[node]);
+            }
+            for (int i : order) {
+                int bytes = (int) (featureEnd(i) - offsets[i]);
+                ensure(out, bytes);
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + bytes);
+                long at = offsets[i];
+                while (buffer.hasRemaining()) {
+                    int read = spool.read(buffer, at);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of " + spoolFile);
+                    }
+                    at += read;
+                }
+                buffer.limit(limit);
+            }
+            flush(out);
+        }
+    }
+
+    private long featureEnd(int i) {
+        return i + 1 < count ? offsets[i + 1] : written;
+    }
+
+    private void putEnvelope(ByteBuffer b) {
+        boolean empty = !(minX <= maxX);
+        b.putDouble(empty ? 0.0 : minX).putDouble(empty ? 0.0 : minY);
+        b.putDouble(empty ? 0.0 : maxX).putDouble(empty ? 0.0 : maxY);
+    }
+
+    // Property bytes: per non-null value, the column index and the value.
+    private void encodeProperties(Object[] values) {
+        properties.clear();
+        for (int c = 0; c < columnNames.length; c++) {
+            Object value = values[c];
+            if (value == null) {
+                continue;
+            }
+            if (columnTypes[c] == COLUMN_STRING) {
+                byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+                properties = room(properties, 6 + text.length);
+                properties.putShort((short) c);
+                properties.putInt(text.length);
+                properties.put(text);
+            } else {
+                properties = room(properties, 10);
+                properties.putShort((short) c);
+                properties.putDouble(((Number) value).doubleValue());
+            }
+        }
+        properties.flip();
+    }
+
+    /*
+     * One size-prefixed Feature buffer, laid out front to back (offsets relative to
+     * the buffer after the size prefix, every uoffset pointing forward):
+     *
+     *   0  root offset to the Feature table
+     *   4  Feature vtable (geometry, properties)
+     *  12  Feature table
+     *  24  Geometry vtable (ends, xy)        - only with geometry
+     *  32  Geometry table
+     *  44  ends vector                       - only for several parts
+     *      xy vector, doubles 8-aligned
+     *      properties vector
+     */
+    private ByteBuffer encodeFeature(double[] xy, int from, int points, int[] ends, int parts) {
+        boolean geometry = points > 0;
+        boolean multi = geometry && parts > 1;
+        int p = 24;
+        int xyAt = 0;
+        if (geometry) {
+            p = multi ? 48 + 4 * parts : 44;
+            if (p % 8 == 0) {
+                p += 4;
+            }
+            xyAt = p;
+            p += 4 + 16 * points;
+        }
+        int propertiesAt = p;
+        int size = propertiesAt + 4 + properties.remaining();
+
+        feature = room(feature.clear(), 4 + size);
+        ByteBuffer f = feature;
+        f.putInt(size);
+        f.putInt(12);
+        f.putShort((short) 8).putShort((short) 12).putShort((short) (geometry ? 4 : 0)).putShort((short) 8);
+        f.putInt(8);
+        f.putInt(geometry ? 32 - 16 : 0);
+        f.putInt(propertiesAt - 20);
+        if (geometry) {
+            f.putShort((short) 8).putShort((short) 12).putShort((short) (multi ? 4 : 0)).putShort((short) 8);
+            f.putInt(8);
+            f.putInt(multi ? 44 - 36 : 0);
+            f.putInt(xyAt - 40);
+            if (multi) {
+                f.putInt(parts);
+                for (int i = 0; i < parts; i++) {
+                    f.putInt(ends[i]);
+                }
+            }
+            if (f.position() - 4 < xyAt) {
+                f.putInt(0);
+            }
+            f.putInt(2 * points);
+            for (int i = from; i < from + 2 * points; i++) {
+                f.putDouble(xy[i]);
+            }
+        }
+        f.putInt(properties.remaining());
+        f.put(properties);
+        f.flip();
+        return f;
+    }
+
+    // Where header() put the fields that are only known at the end.
+    private static final class Header {
+        final ByteBuffer bytes;
+        final int countPosition;
+        final int envelopePosition;
+
+        Header(ByteBuffer bytes, int countPosition, int envelopePosition) {
+            this.bytes = bytes;
+            this.countPosition = countPosition;
+            this.envelopePosition = envelopePosition;
+        }
+    }
+
+    /*
+     * The Header table: name, envelope, geometry type, columns, feature count, index
+     * node size (written even when 0, since its default is 16) and the CRS code. The
+     * feature count and the envelope are written as zeros and filled in later.
+     */
+    private Header header(long features, int nodeSize) {
+        int capacity = 512 + 64 * columnNames.length + 3 * layerName.length();
+        for (String name : columnNames) {
+            capacity += 3 * name.length();
+        }
+        FlatBuffer b = new FlatBuffer(capacity);
+        b.bytes.putInt(0);
+        int header = b.table(32, 8, 4, 16, 30, 0, 0, 0, 0, 20, 8, 28, epsg != 0 ? 24 : 0);
+        b.bytes.putInt(0, header);
+        b.bytes.putLong(header + 8, features);
+        b.bytes.putShort(header + 28, (short) nodeSize);
+        b.bytes.put(header + 30, GEOMETRY_MULTILINESTRING);
+        b.string(header + 4, layerName);
+
+        b.align(4);
+        if ((b.bytes.position() + 4) % 8 != 0) {
+            b.bytes.putInt(0);
+        }
+        b.link(header + 16, b.bytes.position());
+        b.bytes.putInt(4);
+        int envelope = b.bytes.position();
+        b.bytes.put(new byte[32]);
+
+        b.link(header + 20, b.bytes.position());
+        b.bytes.putInt(columnNames.length);
+        int slots = b.bytes.position();
+        b.bytes.put(new byte[4 * columnNames.length]);
+        for (int c = 0; c < columnNames.length; c++) {
+            int column = b.table(9, 4, 4, 8);
+            b.link(slots + 4 * c, column);
+            b.bytes.put(column + 8, columnTypes[c]);
+            b.string(column + 4, columnNames[c]);
+        }
+        if (epsg != 0) {
+            int crs = b.table(8, 4, 0, 4);
+            b.link(header + 24, crs);
+            b.bytes.putInt(crs + 4, epsg);
+        }
+        b.bytes.flip();
+        return new Header(b.bytes, header + 8, envelope);
+    }
+
+    // Writes a FlatBuffer front to back: each table after its vtable, and children after their parent.
+    private static final class FlatBuffer {
+        final ByteBuffer bytes;
+
+        FlatBuffer(int capacity) {
+            bytes = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void align(int alignment) {
+            while (bytes.position() % alignment != 0) {
+                bytes.put((byte) 0);
+            }
+        }
+
+        /**
+         * A vtable for the inline field offsets (0 = absent) followed by a zeroed
+         * table of inlineSize bytes, aligned to alignment.
+         *
+         * @return The position of the table.
+         */
+        int table(int inlineSize, int alignment, int... fieldOffsets) {
+            align(2);
+            int vtable = bytes.position();
+            bytes.putShort((short) (4 + 2 * fieldOffsets.length));
+            bytes.putShort((short) inlineSize);
+            for (int offset : fieldOffsets) {
+                bytes.putShort((short) offset);
+            }
+            align(alignment);
+            int table = bytes.position();
+            bytes.putInt(table - vtable);
+            bytes.put(new byte[inlineSize - 4]);
+            return table;
+        }
+
+        // Points the offset field at fieldPosition to target.
+        void link(int fieldPosition, int target) {
+            bytes.putInt(fieldPosition, target - fieldPosition);
+        }
+
+        void string(int fieldPosition, String value) {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            align(4);
+            link(fieldPosition, bytes.position());
+            bytes.putInt(text.length);
+            bytes.put(text);
+            bytes.put((byte) 0);
+        }
+    }
+
+    // The [start, end) node range of each level of a packed R-tree with items leaves, leaves first.
+    private static int[][] levelBounds(int items) {
+        int[] levelNodes = new int[64];
+        int levels = 0;
+        long n = items;
+        long nodes = n;
+        levelNodes[levels++] = items;
+        do {
+            n = (n + NODE_SIZE - 1) / NODE_SIZE;
+            nodes += n;
+            levelNodes[levels++] = (int) n;
+        } while (n != 1);
+        if (nodes > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Too many features for the index: " + items);
+        }
+        int[][] bounds = new int[levels][];
+        int end = (int) nodes;
+        for (int level = 0; level < levels; level++) {
+            bounds[level] = new int[] {end - levelNodes[level], end};
+            end -= levelNodes[level];
+        }
+        return bounds;
+    }
+
+    // Hilbert value of the centre of feature i's bounds on a 2^16 grid over the extent.
+    private int hilbert(double[] b, int i, double width, double height) {
+        int x = 0;
+        int y = 0;
+        if (width != 0.0) {
+            x = (int) (long) Math.floor(HILBERT_MAX * ((b[4 * i] + b[4 * i + 2]) / 2 - minX) / width);
+        }
+        if (height != 0.0) {
+            y = (int) (long) Math.floor(HILBERT_MAX * ((b[4 * i + 1] + b[4 * i + 3]) / 2 - minY) / height);
+        }
+        return hilbert(x, y);
+    }
+
+    // Hilbert curve index of (x, y) for 16-bit coordinates.
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+        return (interleave(i1) << 1) | interleave(i0);
+    }
+
+    // Spreads the low 16 bits of v to the even bits.
+    private static int interleave(int v) {
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        return (v | (v << 1)) & 0x55555555;
+    }
+
+    // A buffer with room for bytes more, keeping its contents.
+    private static ByteBuffer room(ByteBuffer b, int bytes) {
+        if (b.remaining() >= bytes) {
+            return b;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * b.capacity(), b.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+        b.flip();
+        larger.put(b);
+        return larger;
+    }
+
+    private void put(ByteBuffer bytes) throws IOException {
+        ensure(channel, bytes.remaining());
+        buffer.put(bytes);
+    }
+
+    // Makes room for bytes in the write buffer, flushing it and growing it for a larger feature.
+    private void ensure(FileChannel out, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(out);
+            if (buffer.remaining() < bytes) {
+                buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    private void flush(FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,237 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Per-group centrality statistics gathered in one sweep over a link list: count,
+ * sum, mean, min, max, variance and, optionally, percentiles. Groups are the dense
+ * indices of LinkDistributorLogic.GROUP_NAMES held in Link.groupIndex.
+ *
+ * Large lists are split into contiguous chunks accumulated on a ForkJoinPool.
+ * Chunks are merged in list order (variance via the pairwise update of Chan et al.),
+ * so the result does not depend on the number of threads beyond rounding of the
+ * sums. Percentile values are collected per group during the same sweep and sorted
+ * as primitive arrays afterwards.
+ */
+final class GroupStatistics {
+
+    // Lists shorter than this are accumulated on the calling thread.
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private final long[] count;
+    private final double[] sum;
+    private final double[] mean;
+    private final double[] m2; // sum of squared deviations from the mean
+    private final double[] min;
+    private final double[] max;
+    private final double[][] sortedValues; // null unless percentiles were requested
+
+    private GroupStatistics(Partial total, boolean percentiles) {
+        int groups = total.count.length;
+        count = total.count;
+        sum = total.sum;
+        mean = total.mean;
+        m2 = total.m2;
+        min = total.min;
+        max = total.max;
+        if (percentiles) {
+            sortedValues = new double[groups][];
+            for (int g = 0; g < groups; g++) {
+                sortedValues[g] = Arrays.copyOf(total.values[g], (int) count[g]);
+                Arrays.sort(sortedValues[g]);
+            }
+        } else {
+            sortedValues = null;
+        }
+    }
+
+    /**
+     * @param links Links with their group index (and centrality, if meaningful) set.
+     * @param groupCount Number of dense group indices.
+     * @param parallelism Maximum number of threads.
+     * @param percentiles Whether to keep the values needed by percentile().
+     */
+    static GroupStatistics of(List<Link> links, int groupCount, int parallelism, boolean percentiles) {
+        int n = links.size();
+        int tasks = (int) Math.max(1, Math.min(parallelism, n / (long) MIN_CHUNK));
+        Partial total;
+        if (tasks == 1) {
+            total = new Chunk(links, 0, n, groupCount, percentiles).call();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(tasks);
+            try {
+                List<Callable<Partial>> chunks = new ArrayList<>(tasks);
+                for (int t = 0; t < tasks; t++) {
+                    chunks.add(new Chunk(links, (int) ((long) n * t / tasks), (int) ((long) n * (t + 1) / tasks),
+                            groupCount, percentiles));
+                }
+                List<Future<Partial>> partials = pool.invokeAll(chunks);
+                total = partials.get(0).get();
+                for (int t = 1; t < tasks; t++) {
+                    total.merge(partials.get(t).get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Group statistics interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Group statistics failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new GroupStatistics(total, percentiles);
+    }
+
+    int groupCount() {
+        return count.length;
+    }
+
+    long count(int group) {
+        return count[group];
+    }
+
+    double sum(int group) {
+        return sum[group];
+    }
+
+    // The statistics below are 0 for an empty group, as the summary reports them.
+    double mean(int group) {
+        return count[group] > 0 ? mean[group] : 0.0;
+    }
+
+    double min(int group) {
+        return count[group] > 0 ? min[group] : 0.0;
+    }
+
+    double max(int group) {
+        return count[group] > 0 ? max[group] : 0.0;
+    }
+
+    // Population variance.
+    double variance(int group) {
+        return count[group] > 0 ? m2[group] / count[group] : 0.0;
+    }
+
+    double stdDev(int group) {
+        return Math.sqrt(variance(group));
+    }
+
+    /**
+     * Percentile p (0-100) with linear interpolation between the closest ranks.
+     * Requires the statistics to have been computed with percentiles.
+     */
+    double percentile(int group, double p) {
+        if (sortedValues == null) {
+            throw new IllegalStateException("Percentiles were not collected");
+        }
+        double[] values = sortedValues[group];
+        if (values.length == 0) {
+            return 0.0;
+        }
+        double rank = Math.max(0.0, Math.min(100.0, p)) / 100.0 * (values.length - 1);
+        int lower = (int) Math.floor(rank);
+        int upper = Math.min(lower + 1, values.length - 1);
+        return values[lower] + (rank - lower) * (values[upper] - values[lower]);
+    }
+
+    // Accumulators of one chunk; merge() folds a later chunk into this one.
+    private static final class Partial {
+        final long[] count;
+        final double[] sum;
+        final double[] mean;
+        final double[] m2;
+        final double[] min;
+        final double[] max;
+        final double[][] values;
+
+        Partial(int groups, boolean keepValues) {
+            count = new long[groups];
+            sum = new double[groups];
+            mean = new double[groups];
+            m2 = new double[groups];
+            min = new double[groups];
+            max = new double[groups];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            values = keepValues ? new double[groups][16] : null;
+        }
+
+        void add(int g, double x) {
+            long n = ++count[g];
+            sum[g] += x;
+            double delta = x - mean[g];
+            mean[g] += delta / n;
+            m2[g] += delta * (x - mean[g]);
+            if (x < min[g]) {
+                min[g] = x;
+            }
+            if (x > max[g]) {
+                max[g] = x;
+            }
+            if (values != null) {
+                if (n > values[g].length) {
+                    values[g] = Arrays.copyOf(values[g], values[g].length * 2);
+                }
+                values[g][(int) n - 1] = x;
+            }
+        }
+
+        void merge(Partial other) {
+            for (int g = 0; g < count.length; g++) {
+                long nb = other.count[g];
+                if (nb == 0) {
+                    continue;
+                }
+                long na = count[g];
+                long n = na + nb;
+                double delta = other.mean[g] - mean[g];
+                mean[g] += delta * nb / n;
+                m2[g] += other.m2[g] + delta * delta * ((double) na * nb / n);
+                sum[g] += other.sum[g];
+                min[g] = Math.min(min[g], other.min[g]);
+                max[g] = Math.max(max[g], other.max[g]);
+                if (values != null) {
+                    if (n > values[g].length) {
+                        values[g] = Arrays.copyOf(values[g], (int) Math.max(n, values[g].length * 2L));
+                    }
+                    System.arraycopy(other.values[g], 0, values[g], (int) na, (int) nb);
+                }
+                count[g] = n;
+            }
+        }
+    }
+
+    private static final class Chunk implements Callable<Partial> {
+        private final List<Link> links;
+        private final int from;
+        private final int to;
+        private final int groups;
+        private final boolean keepValues;
+
+        Chunk(List<Link> links, int from, int to, int groups, boolean keepValues) {
+            this.links = links;
+            this.from = from;
+            this.to = to;
+            this.groups = groups;
+            this.keepValues = keepValues;
+        }
+
+        @Override
+        public Partial call() {
+            Partial partial = new Partial(groups, keepValues);
+            for (int i = from; i < to; i++) {
+                Link link = links.get(i);
+                partial.add(link.groupIndex, link.centrality);
+            }
+            return partial;
+        }
+    }
+}
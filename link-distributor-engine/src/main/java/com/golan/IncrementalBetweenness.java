@@ -0,0 +1,326 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Updates the exact edge betweenness of a previous run (a CentralitySnapshot) to
+ * the current graph, recomputing only the sources whose shortest-path DAG can have
+ * changed.
+ *
+ * Betweenness is a sum of per-source dependencies. Arcs are matched between the
+ * two graphs by link ID, direction, cost and geometry hash; matched arcs also map
+ * the old vertices onto the new ones. Every other arc is a change. A source s is
+ * unaffected when, with its distances d in the old graph, every changed arc a->b
+ * of cost w has d(s,a) + w > d(s,b): a removed arc was then on no shortest path
+ * from s, and an added arc neither shortens nor ties one. The DAG of s, and so
+ * its dependencies, are then identical in both graphs. The distances d(., a) come
+ * from one reverse search per changed arc endpoint, and the comparison allows a
+ * small tolerance so that rounding can only mark extra sources as affected.
+ *
+ * The new score of an arc is its old score, minus the old dependencies of the
+ * affected sources, plus their new dependencies. Sources that only exist in one of
+ * the graphs count as affected. When too many arcs changed, or too many sources
+ * are affected for the update to be cheaper than a full pass, update() returns
+ * null and the caller recomputes from scratch.
+ */
+final class IncrementalBetweenness {
+
+    // Limits beyond which the update is not worth it: each affected source costs
+    // two single-source passes instead of one.
+    static final double MAX_CHANGED_ARC_FRACTION = 0.05;
+    static final double MAX_AFFECTED_SOURCE_FRACTION = 0.5;
+
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    private final CentralitySnapshot previous;
+    private final CsrGraph graph;
+    private final CentralitySnapshot current;
+    private final int parallelism;
+
+    private String fallbackReason;
+    private int changedArcs;
+    private int affectedSources;
+
+    IncrementalBetweenness(CentralitySnapshot previous, CsrGraph graph, int parallelism) {
+        this.previous = previous;
+        this.graph = graph;
+        this.current = CentralitySnapshot.of(graph, null, previous.fingerprint);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Why the last update() returned null.
+    String getFallbackReason() {
+        return fallbackReason;
+    }
+
+    int getChangedArcs() {
+        return changedArcs;
+    }
+
+    // Sources recomputed in the new graph by the last update().
+    int getAffectedSources() {
+        return affectedSources;
+    }
+
+    /**
+     * Returns the raw betweenness of every edge of the current graph, or null if
+     * a full recomputation is needed (see getFallbackReason()).
+     */
+    double[] update() throws InterruptedException, ExecutionException {
+        if (previous.directed != graph.directed || previous.weighted != graph.isWeighted()) {
+            fallbackReason = "graph type changed";
+            return null;
+        }
+
+        // Match arcs and, through them, vertices.
+        int oldArcs = previous.arcCount();
+        int newArcs = current.arcCount();
+        Map<String, Integer> oldArcByKey = new HashMap<>(oldArcs * 2);
+        for (int e = 0; e < oldArcs; e++) {
+            oldArcByKey.put(arcKey(previous, e), e);
+        }
+        int[] oldToNew = new int[previous.vertexCount];
+        int[] newToOld = new int[graph.vertexCount];
+        Arrays.fill(oldToNew, -1);
+        Arrays.fill(newToOld, -1);
+        int[] matchOfNew = new int[newArcs];
+        boolean[] oldMatched = new boolean[oldArcs];
+        for (int e = 0; e < newArcs; e++) {
+            Integer old = oldArcByKey.get(arcKey(current, e));
+            matchOfNew[e] = -1;
+            if (old == null || previous.arcWeight[old] != current.arcWeight[e]
+                    || previous.arcGeometryHash[old] != current.arcGeometryHash[e]) {
+                continue;
+            }
+            if (!mapVertex(previous.arcSource[old], current.arcSource[e], oldToNew, newToOld)
+                    || !mapVertex(previous.arcTarget[old], current.arcTarget[e], oldToNew, newToOld)) {
+                fallbackReason = "endpoints of unchanged links snapped to different nodes";
+                return null;
+            }
+            matchOfNew[e] = old;
+            oldMatched[old] = true;
+        }
+
+        // Changed arcs as probes a->b of cost w, in old vertex ids (-1 for a vertex
+        // that is not in the old graph).
+        int[] probeFrom = new int[oldArcs + newArcs];
+        int[] probeTo = new int[oldArcs + newArcs];
+        double[] probeWeight = new double[oldArcs + newArcs];
+        int probes = 0;
+        for (int e = 0; e < oldArcs; e++) {
+            if (!oldMatched[e]) {
+                probeFrom[probes] = previous.arcSource[e];
+                probeTo[probes] = previous.arcTarget[e];
+                probeWeight[probes++] = previous.arcWeight[e];
+            }
+        }
+        for (int e = 0; e < newArcs; e++) {
+            if (matchOfNew[e] < 0) {
+                probeFrom[probes] = newToOld[current.arcSource[e]];
+                probeTo[probes] = newToOld[current.arcTarget[e]];
+                probeWeight[probes++] = current.arcWeight[e];
+            }
+        }
+        changedArcs = probes;
+        if (changedArcs > MAX_CHANGED_ARC_FRACTION * Math.max(oldArcs, newArcs)) {
+            fallbackReason = changedArcs + " of " + Math.max(oldArcs, newArcs) + " arcs changed";
+            return null;
+        }
+
+        // Affected sources: every vertex without a counterpart, plus every mapped
+        // source that could route over a changed arc.
+        CsrGraph oldGraph = previous.toGraph();
+        boolean[] oldAffected = findAffected(oldGraph, probeFrom, probeTo, probeWeight, probes);
+        boolean[] newAffected = new boolean[graph.vertexCount];
+        for (int s = 0; s < previous.vertexCount; s++) {
+            if (oldToNew[s] < 0) {
+                oldAffected[s] = true;
+            } else if (oldAffected[s]) {
+                newAffected[oldToNew[s]] = true;
+            }
+        }
+        for (int v = 0; v < graph.vertexCount; v++) {
+            if (newToOld[v] < 0) {
+                newAffected[v] = true;
+            }
+        }
+        int[] oldSources = indicesOf(oldAffected);
+        int[] newSources = indicesOf(newAffected);
+        affectedSources = newSources.length;
+        if (oldSources.length + newSources.length > 2 * MAX_AFFECTED_SOURCE_FRACTION * Math.max(1, graph.vertexCount)) {
+            fallbackReason = newSources.length + " of " + graph.vertexCount + " sources affected";
+            return null;
+        }
+
+        double[] oldContribution = new EdgeBetweennessEngine(oldGraph, parallelism).computeContributions(oldSources);
+        double[] newContribution = new EdgeBetweennessEngine(graph, parallelism).computeContributions(newSources);
+        double[] scores = new double[newArcs];
+        for (int e = 0; e < newArcs; e++) {
+            int old = matchOfNew[e];
+            double score = newContribution[e];
+            if (old >= 0) {
+                score += previous.arcScore[old] - oldContribution[old];
+            }
+            // Cancellation can leave a tiny negative residue where the score is zero.
+            scores[e] = Math.max(0.0, score);
+        }
+        return scores;
+    }
+
+    private static String arcKey(CentralitySnapshot snapshot, int arc) {
+        return snapshot.arcLinkId[arc] + (snapshot.arcForward[arc] ? "\u0000>" : "\u0000<");
+    }
+
+    private static boolean mapVertex(int oldVertex, int newVertex, int[] oldToNew, int[] newToOld) {
+        if (oldToNew[oldVertex] < 0 && newToOld[newVertex] < 0) {
+            oldToNew[oldVertex] = newVertex;
+            newToOld[newVertex] = oldVertex;
+            return true;
+        }
+        return oldToNew[oldVertex] == newVertex && newToOld[newVertex] == oldVertex;
+    }
+
+    private static int[] indicesOf(boolean[] flags) {
+        int count = 0;
+        for (boolean f : flags) {
+            if (f) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        for (int i = 0, k = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                indices[k++] = i;
+            }
+        }
+        return indices;
+    }
+
+    // Old sources that could route over one of the probed arcs, searched on parallel stripes.
+    private boolean[] findAffected(CsrGraph oldGraph, int[] probeFrom, int[] probeTo, double[] probeWeight, int probes)
+            throws InterruptedException, ExecutionException {
+        int tasks = Math.min(parallelism, Math.max(1, probes));
+        boolean[] affected = new boolean[oldGraph.vertexCount];
+        if (tasks == 1) {
+            merge(affected, new ProbeStripe(oldGraph, probeFrom, probeTo, probeWeight, probes, 0, 1).call());
+            return affected;
+        }
+        ForkJoinPool pool = new ForkJoinPool(tasks);
+        try {
+            List<Callable<boolean[]>> stripes = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                stripes.add(new ProbeStripe(oldGraph, probeFrom, probeTo, probeWeight, probes, t, tasks));
+            }
+            for (Future<boolean[]> partial : pool.invokeAll(stripes)) {
+                merge(affected, partial.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return affected;
+    }
+
+    private static void merge(boolean[] into, boolean[] flags) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] |= flags[i];
+        }
+    }
+
+    // Handles probes first, first + stride, ...; each probe searches backwards from
+    // its endpoints to get d(s, a) and d(s, b) for every old source s.
+    private static final class ProbeStripe implements Callable<boolean[]> {
+        private final CsrGraph g;
+        private final int[] probeFrom;
+        private final int[] probeTo;
+        private final double[] probeWeight;
+        private final int probes;
+        private final int first;
+        private final int stride;
+
+        ProbeStripe(CsrGraph g, int[] probeFrom, int[] probeTo, double[] probeWeight, int probes, int first, int stride) {
+            this.g = g;
+            this.probeFrom = probeFrom;
+            this.probeTo = probeTo;
+            this.probeWeight = probeWeight;
+            this.probes = probes;
+            this.first = first;
+            this.stride = stride;
+        }
+
+        @Override
+        public boolean[] call() {
+            int n = g.vertexCount;
+            boolean[] affected = new boolean[n];
+            double[] toA = new double[n];
+            double[] toB = new double[n];
+            int[] queue = new int[n];
+            IndexedMinHeap heap = g.isWeighted() ? new IndexedMinHeap(n) : null;
+            for (int p = first; p < probes; p += stride) {
+                double w = probeWeight[p];
+                distancesTo(probeFrom[p], toA, queue, heap);
+                distancesTo(probeTo[p], toB, queue, heap);
+                for (int s = 0; s < n; s++) {
+                    if (mayUse(toA[s], toB[s], w) || (!g.directed && mayUse(toB[s], toA[s], w))) {
+                        affected[s] = true;
+                    }
+                }
+            }
+            return affected;
+        }
+
+        // Whether an arc x->y of cost w can be on (or tie) a shortest path from a
+        // source at distances dx, dy in the old graph.
+        private static boolean mayUse(double dx, double dy, double w) {
+            if (dx == Double.POSITIVE_INFINITY) {
+                return false;
+            }
+            return dx + w <= dy + RELATIVE_TOLERANCE * Math.max(1.0, dy);
+        }
+
+        // dist[s] = d(s, target) in the old graph; all infinite for a vertex that is
+        // not in the old graph (target < 0).
+        private void distancesTo(int target, double[] dist, int[] queue, IndexedMinHeap heap) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            if (target < 0) {
+                return;
+            }
+            dist[target] = 0.0;
+            if (heap == null) {
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = target;
+                while (head < tail) {
+                    int v = queue[head++];
+                    for (int i = g.inOffsets[v], end = g.inOffsets[v + 1]; i < end; i++) {
+                        int u = g.inSources[i];
+                        if (dist[u] == Double.POSITIVE_INFINITY) {
+                            dist[u] = dist[v] + 1.0;
+                            queue[tail++] = u;
+                        }
+                    }
+                }
+                return;
+            }
+            heap.insertOrDecrease(target, 0.0);
+            while (!heap.isEmpty()) {
+                int v = heap.poll();
+                for (int i = g.inOffsets[v], end = g.inOffsets[v + 1]; i < end; i++) {
+                    int u = g.inSources[i];
+                    double nd = dist[v] + g.inArcWeight[i];
+                    if (nd < dist[u]) {
+                        dist[u] = nd;
+                        heap.insertOrDecrease(u, nd);
+                    }
+                }
+            }
+        }
+    }
+}
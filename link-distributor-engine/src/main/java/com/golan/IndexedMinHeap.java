@@ -0,0 +1,96 @@
+package com.golan;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of vertex ids 0..n-1 keyed by double priorities, with
+ * decrease-key. Everything lives in three primitive arrays allocated once, so
+ * a Dijkstra search does not allocate per visited vertex.
+ */
+final class IndexedMinHeap {
+
+    private final int[] heap;     // heap position -> vertex
+    private final double[] keys;  // heap position -> key
+    private final int[] position; // vertex -> heap position, -1 if not queued
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Inserts v with the given key, or lowers its key if v is already queued.
+    void insertOrDecrease(int v, double key) {
+        int i = position[v];
+        if (i < 0) {
+            i = size++;
+            heap[i] = v;
+            position[v] = i;
+        } else if (key >= keys[i]) {
+            return;
+        }
+        keys[i] = key;
+        siftUp(i);
+    }
+
+    // Removes and returns the vertex with the smallest key.
+    int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            keys[i] = keys[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            heap[i] = heap[child];
+            keys[i] = keys[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+}
@@ -0,0 +1,105 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Headless entry point: runs LinkDistributorLogic from a configuration file
+ * without starting the UI. Only the engine classes are loaded, never JavaFX or
+ * Swing, so it suits servers and schedulers.
+ *
+ * The configuration is a properties or JSON file with the settings described in
+ * RunConfig. A configuration that lists "scenarios" runs as a batch (see
+ * ScenarioBatchRunner). Settings given as key=value arguments after the file
+ * replace the file's, e.g.
+ *
+ * <pre>
+ * java -cp link-distributor.jar com.golan.LinkDistributorCli run.json output=/data/out/nightly threads=16
+ * </pre>
+ *
+ * Exit status:
+ * <pre>
+ * 0  the run completed and all outputs were written
+ * 1  the run failed: no links were loaded, an output could not be written, a
+ *    scenario failed or an unexpected error occurred
+ * 2  usage or configuration error (nothing was run)
+ * 3  the input shapefile does not exist
+ * </pre>
+ */
+public class LinkDistributorCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_INPUT = 3;
+
+    public static void main(String[] args) {
+        // GeoTools may touch AWT; make sure it never looks for a display.
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    // Runs the configuration in args and returns the exit status.
+    static int run(String[] args) {
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.err.println("Usage: LinkDistributorCli <config.properties|config.json> [key=value ...]");
+            return EXIT_USAGE;
+        }
+
+        RunConfig config;
+        try {
+            Map<String, String> overrides = new LinkedHashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                int eq = args[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Expected key=value but got '" + args[i] + "'");
+                }
+                overrides.put(args[i].substring(0, eq).trim(), args[i].substring(eq + 1).trim());
+            }
+            File file = new File(args[0]);
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("Configuration file not found: " + file);
+            }
+            config = RunConfig.load(file).with(overrides);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading configuration: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        if (config.get("scenarios", null) != null) {
+            return ScenarioBatchRunner.runBatch(config);
+        }
+
+        LinkDistributorLogic logic;
+        try {
+            logic = config.createLogic(null);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error reading configuration: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        String input = config.require("input");
+        if (!new File(input).isFile()) {
+            System.err.println("Error: Input shapefile not found: " + input);
+            return EXIT_INPUT;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean ok;
+        try {
+            ok = logic.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error: Run failed: " + e);
+            e.printStackTrace();
+            return EXIT_FAILED;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (!ok) {
+            System.err.println("Run failed after " + elapsed + " ms (" + logic.getErrorCount() + " output error(s)).");
+            return EXIT_FAILED;
+        }
+        System.out.println("Run completed in " + elapsed + " ms.");
+        return EXIT_OK;
+    }
+}
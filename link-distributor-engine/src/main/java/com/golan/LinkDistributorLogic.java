@@ -0,0 +1,1634 @@
+package com.golan;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+// GeoTools imports
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import org.locationtech.jts.geom.MultiLineString;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+
+/**
+ * This class is a refactored version of LinkDistributorEdge13225working.java
+ * to be used as a library for the UI.
+ *
+ * Original Description:
+ * This Java application processes spatial link data from a shapefile to perform
+ * network analysis, specifically calculating edge betweenness centrality,
+ * and then selecting a representative sample of links based on various criteria.
+ * It's designed for transportation network analysis and sampling.
+ *
+ * Key functionalities include:
+ * 1. Shapefile Loading:
+ *    - Reads link data from an input shapefile, extracting attributes like ID, TYPE, DATA1,
+ *      and geometry.
+ *    - Handles two-sided links by combining them based on a 'combinedId' attribute.
+ *
+ * 2. Group Assignment:
+ *    - Assigns links to predefined groups based on their 'TYPE' attribute.
+ *
+ * 3. Centrality Calculation:
+ *    - Constructs a graph using link endpoints as nodes.
+ *    - Calculates edge betweenness centrality with a parallel Brandes implementation.
+ *    - Normalizes the centrality scores.
+ *
+ * 4. Ramp Filtering:
+ *    - Optionally filters out ramp links (identified by DATA1 attribute values 13, 14, or 15)
+ *      after centrality calculation.
+ *
+ * 5. Sample Size Determination:
+ *    - Computes sample sizes for each group based on RMSE values and group weights.
+ *    - Calculates additional statistics (average, max, min, standard deviation and
+ *      percentiles of the centrality) per group in a single pass over the links.
+ *
+ * 6. Link Selection:
+ *    - Selects the most central links from each group according to the computed
+ *      sample sizes with a bounded heap per group (ties broken by link ID).
+ *
+ * 7. Output Generation:
+ *    - Writes the selected links to an output shapefile and CSV file.
+ *    - Creates a centrality shapefile with detailed link attributes.
+ *    - The spatial files can also (or instead) be written as GeoPackage or FlatGeobuf.
+ *    - Generates a summary CSV containing run metadata, processing duration, and grouping robust spatial data handling, proper sampling, and clear output for GIS applications.
+ *
+ * Author: [Your Name or Company]
+ * Date: [Current Date]
+ */
+public class LinkDistributorLogic {
+
+    // Sampling groups; a link's groupIndex points into this array.
+    static final String[] GROUP_NAMES = {"Group1", "Group2", "Group3", "Group4", "Group5", "Group6", "Other"};
+
+    // Input/output paths and parameters
+    private String inputShapeFile;
+    private String baseOutputFolder;
+    private String epsgCode;
+    private boolean filterRamps;
+    private Set<Integer> rampData1Values;
+    private Set<String> centralityRoadTypes;
+    private boolean combineTwoSided;
+    private CentralityWeighting centralityWeighting;
+    private String weightAttribute;
+    private Map<String, Double> groupRmseMap;
+    private boolean debugMode;
+    private int debugPrintLimit;
+    private int centralityParallelism = Runtime.getRuntime().availableProcessors();
+    private int loadParallelism = Runtime.getRuntime().availableProcessors();
+    private double snapTolerance = NodeManager.DEFAULT_TOLERANCE;
+    private boolean directedCentrality = false;
+
+    // Exact Brandes or pivot-sampled approximation of the betweenness.
+    private CentralityMode centralityMode = CentralityMode.EXACT;
+    private int requestedPivots = 0; // 0 = derive the pivot count from the error target
+    private double targetError = 0.05;
+    private double targetConfidence = 0.95;
+    private long samplingSeed = 42L;
+    private int pivotsUsed = -1; // resolved during step 4, -1 for exact runs
+    private double errorBound = 0.0;
+
+    // Exact runs can update the previous run's scores instead of recomputing them.
+    private boolean incrementalCentrality = false;
+    private String centralityUpdate; // how step 4 obtained the scores, for parameters.txt
+
+    // Normalized scores of earlier runs on the same input and settings are reused from disk.
+    private boolean useCentralityCache = true;
+    private File centralityCacheDir; // null = <base output folder>/centrality_cache
+    private long centralityCacheMaxBytes = CentralityCache.DEFAULT_MAX_BYTES;
+
+    // Step 7 takes the top n_g links per group, optionally spread out in space.
+    private SampleSelection sampleSelection = SampleSelection.TOP_CENTRALITY;
+    private double selectionSpacing = 0.0; // CRS units: minimum spacing or cell width
+    private int cellQuota = 0;
+
+    // Formats of the output, representative and centrality files. The spatial index
+    // is the .qix of a shapefile and the packed R-tree of a FlatGeobuf file.
+    private Set<OutputFormat> outputFormats = EnumSet.of(OutputFormat.SHAPEFILE);
+    private boolean spatialIndex = true;
+    private boolean gzipCsv = false; // results.csv.gz instead of results.csv
+    private boolean writeScoreIndex = true; // network_scores.bin with every link's score
+
+    // Per-stage time and memory of the current run, written to metrics.json.
+    private RunMetrics metrics = new RunMetrics();
+    private File prometheusFile; // null = no Prometheus text file
+    private long centralityEdges; // edges (or arcs) of the last centrality graph
+
+    private PrintStream printStream;
+    // Errors that left an output missing or incomplete, so headless runs can report failure.
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private CoordinateReferenceSystem sourceCRS; // To hold the CRS of the input shapefile
+
+    public LinkDistributorLogic(String inputShapeFile, String baseOutputFolder, String epsgCode, boolean filterRamps, Set<Integer> rampData1Values, Set<String> centralityRoadTypes, boolean combineTwoSided, Map<String, Double> groupRmseMap, boolean debugMode, int debugPrintLimit) {
+        this(inputShapeFile, baseOutputFolder, epsgCode, filterRamps, rampData1Values, centralityRoadTypes, combineTwoSided, CentralityWeighting.HOPS, null, groupRmseMap, debugMode, debugPrintLimit);
+    }
+
+    /**
+     * @param centralityWeighting How edges are weighted for the betweenness shortest paths.
+     * @param weightAttribute Numeric shapefile attribute used by the ATTRIBUTE and TRAVEL_TIME weightings.
+     */
+    public LinkDistributorLogic(String inputShapeFile, String baseOutputFolder, String epsgCode, boolean filterRamps, Set<Integer> rampData1Values, Set<String> centralityRoadTypes, boolean combineTwoSided, CentralityWeighting centralityWeighting, String weightAttribute, Map<String, Double> groupRmseMap, boolean debugMode, int debugPrintLimit) {
+        if (centralityWeighting == null) {
+            centralityWeighting = CentralityWeighting.HOPS;
+        }
+        if (centralityWeighting.usesAttribute() && (weightAttribute == null || weightAttribute.trim().isEmpty())) {
+            throw new IllegalArgumentException("Centrality weighting " + centralityWeighting + " requires a weight attribute name");
+        }
+        this.inputShapeFile = inputShapeFile;
+        this.baseOutputFolder = baseOutputFolder;
+        this.epsgCode = "EPSG:" + epsgCode;
+        this.filterRamps = filterRamps;
+        this.rampData1Values = rampData1Values;
+        this.centralityRoadTypes = centralityRoadTypes;
+        this.combineTwoSided = combineTwoSided;
+        this.centralityWeighting = centralityWeighting;
+        this.weightAttribute = centralityWeighting.usesAttribute() ? weightAttribute.trim() : null;
+        this.debugMode = debugMode;
+        this.debugPrintLimit = debugPrintLimit;
+
+        // Initialize groupRmseMap with defaults if provided map is null or empty/invalid
+        this.groupRmseMap = (groupRmseMap == null || groupRmseMap.isEmpty() || groupRmseMap.values().stream().allMatch(rmse -> rmse <= 0.0)) ?
+                createDefaultRmseMap() : new HashMap<>(groupRmseMap);
+    }
+
+    private Map<String, Double> createDefaultRmseMap() {
+        Map<String, Double> defaultRmseMap = new HashMap<>();
+        defaultRmseMap.put("Group1", 0.1);
+        defaultRmseMap.put("Group2", 0.1);
+        defaultRmseMap.put("Group3", 0.1);
+        defaultRmseMap.put("Group4", 0.1);
+        defaultRmseMap.put("Group5", 0.1);
+        defaultRmseMap.put("Group6", 0.1);
+        defaultRmseMap.put("Other", 0.1);
+        return defaultRmseMap;
+    }
+
+    public void setPrintStream(PrintStream printStream) {
+        this.printStream = printStream;
+    }
+
+    // Number of worker threads used for the betweenness computation and the group statistics (defaults to all cores).
+    public void setCentralityParallelism(int centralityParallelism) {
+        this.centralityParallelism = Math.max(1, centralityParallelism);
+    }
+
+    // Number of threads decoding shapefile records in step 1 (defaults to all cores).
+    public void setLoadParallelism(int loadParallelism) {
+        this.loadParallelism = Math.max(1, loadParallelism);
+    }
+
+    /**
+     * Link endpoints closer than this distance (in the units of the input CRS) are
+     * joined into one network node. Defaults to 0.01.
+     */
+    public void setSnapTolerance(double snapTolerance) {
+        if (!(snapTolerance > 0.0) || Double.isInfinite(snapTolerance)) {
+            throw new IllegalArgumentException("Snapping tolerance must be positive: " + snapTolerance);
+        }
+        this.snapTolerance = snapTolerance;
+    }
+
+    /**
+     * Spreads the step 7 sample in space while still preferring central links.
+     *
+     * @param mode TOP_CENTRALITY (pure top n_g), MIN_SPACING or CELL_QUOTA.
+     * @param spacing Minimum distance between selected link midpoints (MIN_SPACING) or
+     *                grid cell width (CELL_QUOTA), in the units of the input CRS.
+     * @param cellQuota Maximum number of selected links per grid cell (CELL_QUOTA only).
+     */
+    public void setSpatialSelection(SampleSelection mode, double spacing, int cellQuota) {
+        if (mode == null) {
+            mode = SampleSelection.TOP_CENTRALITY;
+        }
+        if (mode != SampleSelection.TOP_CENTRALITY && (!(spacing > 0.0) || Double.isInfinite(spacing))) {
+            throw new IllegalArgumentException("Selection " + mode + " requires a positive spacing: " + spacing);
+        }
+        if (mode == SampleSelection.CELL_QUOTA && cellQuota < 1) {
+            throw new IllegalArgumentException("Cell quota must be at least 1: " + cellQuota);
+        }
+        this.sampleSelection = mode;
+        this.selectionSpacing = mode == SampleSelection.TOP_CENTRALITY ? 0.0 : spacing;
+        this.cellQuota = mode == SampleSelection.CELL_QUOTA ? cellQuota : 0;
+    }
+
+    /**
+     * Configures the on-disk centrality cache (enabled by default).
+     *
+     * @param enabled Whether step 4 reuses and stores cached scores.
+     * @param directory Cache directory, or null for centrality_cache in the base output folder.
+     * @param maxBytes Size limit of the directory; least recently used entries are evicted beyond it.
+     */
+    public void setCentralityCache(boolean enabled, File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size limit must be positive: " + maxBytes);
+        }
+        this.useCentralityCache = enabled;
+        this.centralityCacheDir = directory;
+        this.centralityCacheMaxBytes = maxBytes;
+    }
+
+    /**
+     * Also writes the stage metrics of each run in the Prometheus text format to
+     * file, e.g. for the node exporter's textfile collector. Null disables it.
+     */
+    public void setMetricsPrometheusFile(File prometheusFile) {
+        this.prometheusFile = prometheusFile;
+    }
+
+    /**
+     * Selects the formats the output, representative and centrality files are
+     * written in (a shapefile only by default). All formats share one pass over the
+     * links and hold the same LinkSchema fields.
+     *
+     * @param spatialIndex Write a .qix for shapefiles and a packed Hilbert R-tree for
+     *                     FlatGeobuf files; GeoPackage tables always get their R-tree.
+     */
+    public void setOutputFormats(Set<OutputFormat> formats, boolean spatialIndex) {
+        if (formats == null || formats.isEmpty()) {
+            throw new IllegalArgumentException("At least one output format is required");
+        }
+        this.outputFormats = EnumSet.copyOf(formats);
+        this.spatialIndex = spatialIndex;
+    }
+
+    // Writes the results CSV gzipped, as results.csv.gz.
+    public void setGzipCsv(boolean gzipCsv) {
+        this.gzipCsv = gzipCsv;
+    }
+
+    // Writes network_scores.bin, the memory-mapped score index of all links (see ScoreIndex).
+    public void setWriteScoreIndex(boolean writeScoreIndex) {
+        this.writeScoreIndex = writeScoreIndex;
+    }
+
+    /**
+     * Reuses the centrality snapshot of the previous run in the same base output
+     * folder: only the sources whose shortest paths are touched by changed, added or
+     * removed links are recomputed. Falls back to a full computation when there is
+     * no usable snapshot or the change set is too large. Exact mode only.
+     */
+    public void setIncrementalCentrality(boolean incrementalCentrality) {
+        this.incrementalCentrality = incrementalCentrality;
+    }
+
+    /**
+     * Computes betweenness on a directed multigraph: each link is an arc in its digitized
+     * direction, the opposite side of a two-sided link is its combinedId partner, and
+     * one-sided links can be driven both ways. The default is an undirected multigraph.
+     */
+    public void setDirectedCentrality(boolean directedCentrality) {
+        this.directedCentrality = directedCentrality;
+    }
+
+    /**
+     * Switches step 4 to the approximate (pivot-sampled) betweenness.
+     *
+     * @param pivots Fixed number of pivot sources, or 0 to derive it from the error target.
+     * @param targetError Maximum error of each score as a fraction of all node pairs.
+     * @param confidence Probability with which the error target holds (e.g. 0.95).
+     * @param seed Random seed for the pivot selection, so runs are reproducible.
+     */
+    public void setApproximateCentrality(int pivots, double targetError, double confidence, long seed) {
+        if (pivots < 0) {
+            throw new IllegalArgumentException("Pivot count must not be negative: " + pivots);
+        }
+        if (pivots == 0 && (targetError <= 0.0 || confidence <= 0.0 || confidence >= 1.0)) {
+            throw new IllegalArgumentException("Error target must be > 0 and confidence in (0, 1)");
+        }
+        this.centralityMode = CentralityMode.APPROXIMATE;
+        this.requestedPivots = pivots;
+        this.targetError = targetError;
+        this.targetConfidence = confidence;
+        this.samplingSeed = seed;
+    }
+
+    /**
+     * Runs steps 1-10.
+     *
+     * @return false if the run was aborted or an output could not be written.
+     */
+    public boolean run() {
+        errorCount.set(0);
+        metrics = new RunMetrics();
+        if (printStream != null) {
+            System.setOut(printStream);
+            System.setErr(printStream);
+        }
+
+        long startTime = System.currentTimeMillis();
+        String runDateTime = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String fullOutputFolder = this.baseOutputFolder + File.separator + runDateTime;
+        prepareOutputFolder(fullOutputFolder, runDateTime);
+
+        System.out.println("=== LinkDistributorEdge Processing Started ====");
+        System.out.println();
+
+        // Step 1: Load links from shapefile.
+        LinkTable linkTable = loadNetwork();
+        List<Link> allLinks = linkTable.toLinks();
+        if (allLinks.isEmpty()) {
+            System.err.println("Error: No links found in shapefile. Aborting.");
+            writeMetrics(fullOutputFolder, runDateTime);
+            return false;
+        }
+
+        // Steps 2-3: Assign groups and filter out ramps.
+        List<Link> sampledLinks = assignAndFilter(allLinks);
+
+        // Step 4: Calculate edge betweenness centrality for specified road types.
+        CentralityScores scores = centralityScoresFor(linkTable, sampledLinks);
+        for (Link link : sampledLinks) {
+            link.centrality = scores.byRow[link.row];
+        }
+        appendCentralityParameters(fullOutputFolder);
+        writeScoreIndex(linkTable, allLinks, scores, fullOutputFolder);
+
+        // Steps 5-10: Sample and write the outputs.
+        sampleAndWrite(allLinks.size(), sampledLinks, fullOutputFolder, runDateTime, startTime);
+        return errorCount.get() == 0;
+    }
+
+    // Number of errors reported since the last run() that left an output missing or incomplete.
+    int getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Step 1 on its own, so that several scenarios can share one loaded network
+     * (see ScenarioBatchRunner). The source CRS is available from getSourceCRS() afterwards.
+     */
+    LinkTable loadNetwork() {
+        System.out.println("Step 1: Loading links from shapefile...");
+        metrics.begin("1", "load");
+        LinkTable linkTable = loadLinkTable(inputShapeFile);
+        metrics.end(linkTable.size(), "links");
+        if (debugMode) {
+            System.out.println("Total links loaded: " + linkTable.size() + " (" + linkTable.nodeCount() + " nodes at snapping tolerance " + snapTolerance + ")");
+            for (int row = 0; row < linkTable.size(); row++) {
+                if (row < debugPrintLimit) {
+                    System.out.println(" - ID: " + linkTable.id(row) + ", Type: " + linkTable.type(row) + ", Data1: " + linkTable.data1(row));
+                } else {
+                    System.out.println(" - ... (" + (linkTable.size() - debugPrintLimit) + " more links)");
+                    break;
+                }
+            }
+        }
+        return linkTable;
+    }
+
+    // Stages measured since run(), runScenario() or computeCentralityScores() last started a new set; loadNetwork() adds to the current set.
+    RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    CoordinateReferenceSystem getSourceCRS() {
+        return sourceCRS;
+    }
+
+    // Whether step 1 loads the weight attribute column (attribute-based weightings only).
+    boolean readsWeightAttribute() {
+        return weightAttribute != null;
+    }
+
+    /**
+     * Steps 2-4 on a loaded network: the normalized centrality of every table row
+     * (0 for rows outside the centrality links), with how it was obtained.
+     */
+    CentralityScores computeCentralityScores(LinkTable linkTable) {
+        metrics = new RunMetrics();
+        return centralityScoresFor(linkTable, assignAndFilter(linkTable.toLinks()));
+    }
+
+    // Step 4 through the centrality cache: loads the scores on a hit, otherwise computes and stores them.
+    private CentralityScores centralityScoresFor(LinkTable linkTable, List<Link> sampledLinks) {
+        metrics.begin("4", "centrality");
+        CentralityCache cache = useCentralityCache ? new CentralityCache(
+                centralityCacheDir != null ? centralityCacheDir : new File(baseOutputFolder, "centrality_cache"),
+                centralityCacheMaxBytes) : null;
+        String cacheKey = null;
+        if (cache != null) {
+            try {
+                cacheKey = cache.key(new File(inputShapeFile), centralityKey());
+                CentralityScores cached = cache.load(cacheKey, linkTable);
+                if (cached != null) {
+                    System.out.println("\nStep 4: Centrality loaded from cache " + cache.getDirectory() + " (entry " + cacheKey.substring(0, 12) + ").");
+                    centralityUpdate = "cached" + (cached.update.isEmpty() ? "" : " (" + cached.update + ")");
+                    pivotsUsed = cached.pivotsUsed;
+                    errorBound = cached.errorBound;
+                    metrics.end(linkTable.size(), "links");
+                    return cached;
+                }
+            } catch (IOException e) {
+                System.err.println("Warning: Centrality cache unavailable: " + e.getMessage());
+                cacheKey = null;
+            }
+        }
+
+        List<Link> centralityLinks = calculateCentralityStep(sampledLinks);
+        double[] byRow = new double[linkTable.size()];
+        for (Link link : centralityLinks) {
+            byRow[link.row] = link.centrality;
+        }
+        CentralityScores scores = new CentralityScores(byRow, centralityUpdate, pivotsUsed, errorBound);
+        if (cacheKey != null) {
+            try {
+                cache.store(cacheKey, centralityKey(), linkTable, scores);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not store centrality in the cache: " + e.getMessage());
+            }
+        }
+        metrics.end(centralityEdges, directedCentrality ? "arcs" : "edges");
+        return scores;
+    }
+
+    /**
+     * Runs steps 2-3 and 5-10 of this scenario on a network loaded by another
+     * instance, taking the centrality from scores computed under the same
+     * centralityKey(). Writes into its own output folder.
+     */
+    RunSummary runScenario(LinkTable linkTable, CoordinateReferenceSystem crs, CentralityScores scores, String fullOutputFolder) {
+        long startTime = System.currentTimeMillis();
+        String runDateTime = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        metrics = new RunMetrics();
+        this.sourceCRS = crs;
+        this.centralityUpdate = scores.update;
+        this.pivotsUsed = scores.pivotsUsed;
+        this.errorBound = scores.errorBound;
+        prepareOutputFolder(fullOutputFolder, runDateTime);
+        appendCentralityParameters(fullOutputFolder);
+
+        List<Link> allLinks = linkTable.toLinks();
+        List<Link> sampledLinks = assignAndFilter(allLinks);
+        System.out.println("\nStep 4: Using shared centrality for road types " + centralityRoadTypes + ".");
+        for (Link link : sampledLinks) {
+            link.centrality = scores.byRow[link.row];
+        }
+        writeScoreIndex(linkTable, allLinks, scores, fullOutputFolder);
+        return sampleAndWrite(allLinks.size(), sampledLinks, fullOutputFolder, runDateTime, startTime);
+    }
+
+    // Scenarios with equal keys compute identical centrality scores.
+    String centralityKey() {
+        String key = centralityFingerprint() + ";mode=" + centralityMode;
+        if (centralityMode == CentralityMode.APPROXIMATE) {
+            key += ";pivots=" + requestedPivots + ";error=" + targetError + ";confidence=" + targetConfidence + ";seed=" + samplingSeed;
+        }
+        return key;
+    }
+
+    private void prepareOutputFolder(String fullOutputFolder, String runDateTime) {
+        // Ensure output folder exists
+        File outputDir = new File(fullOutputFolder);
+        if (!outputDir.exists()) {
+            boolean created = outputDir.mkdirs();
+            if (debugMode) {
+                System.out.println("Output directory created: " + outputDir.getAbsolutePath() + " (Success: " + created + ")");
+            }
+        } else {
+            if (debugMode) {
+                System.out.println("Output directory already exists: " + outputDir.getAbsolutePath());
+            }
+        }
+
+        writeParameters(fullOutputFolder, runDateTime);
+    }
+
+    private void appendCentralityParameters(String fullOutputFolder) {
+        if (centralityUpdate != null) {
+            appendParameter(fullOutputFolder, "Centrality Update: " + centralityUpdate);
+        }
+        if (centralityMode == CentralityMode.APPROXIMATE) {
+            appendParameter(fullOutputFolder, "Pivots Used: " + pivotsUsed + " (error bound " + String.format("%.5f", errorBound) + ")");
+        }
+    }
+
+    // Step 4.5: the score, group, nodes and length of every link, not just the selected ones.
+    private void writeScoreIndex(LinkTable linkTable, List<Link> allLinks, CentralityScores scores, String fullOutputFolder) {
+        if (!writeScoreIndex) {
+            return;
+        }
+        System.out.println("\nStep 4.5: Writing network score index...");
+        metrics.begin("4.5", "scoreIndex");
+        byte[] groupByRow = new byte[linkTable.size()];
+        for (Link link : allLinks) {
+            groupByRow[link.row] = (byte) link.groupIndex;
+        }
+        File indexFile = new File(fullOutputFolder, ScoreIndex.FILE_NAME);
+        try {
+            ScoreIndex.write(indexFile, linkTable, scores.byRow, groupByRow, GROUP_NAMES);
+            System.out.println("Score index of " + linkTable.size() + " links written to: " + indexFile.getPath());
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error writing score index: " + e.getMessage());
+        }
+        metrics.end(linkTable.size(), "links");
+    }
+
+    // Steps 2 and 3: assigns every link its group and returns the links left for sampling.
+    List<Link> assignAndFilter(List<Link> allLinks) {
+        // Step 2: Assign groups.
+        System.out.println("\nStep 2: Assigning groups to links...");
+        metrics.begin("2", "assignGroups");
+        assignGroups(allLinks);
+        if (debugMode) {
+            System.out.println("Links per group:");
+            printGroupCounts(GroupStatistics.of(allLinks, GROUP_NAMES.length, centralityParallelism, false));
+        }
+
+        metrics.end(allLinks.size(), "links");
+
+        // Step 3: Filter out ramps if enabled.
+        metrics.begin("3", "filterRamps");
+        List<Link> sampledLinks = new ArrayList<>(allLinks);
+        if (filterRamps) {
+            System.out.println("\nStep 3: Filtering out ramp links...");
+            sampledLinks = allLinks.stream()
+                    .filter(link -> !rampData1Values.contains((int) link.data1()))
+                    .collect(Collectors.toList());
+            System.out.println("Links after ramp filtering: " + sampledLinks.size());
+        } else {
+            System.out.println("\nStep 3: Ramp filtering skipped.");
+        }
+        metrics.end(allLinks.size(), "links");
+        return sampledLinks;
+    }
+
+    // Step 4: computes the centrality of the sampled links of the centrality road types and returns those links.
+    private List<Link> calculateCentralityStep(List<Link> sampledLinks) {
+        System.out.println("\nStep 4: Calculating edge betweenness centrality...");
+        List<Link> centralityLinks = sampledLinks.stream()
+                .filter(link -> centralityRoadTypes.contains(link.type()))
+                .collect(Collectors.toList());
+        System.out.println("Including only road types " + centralityRoadTypes + " in centrality calculation. Links: " + centralityLinks.size());
+        calculateCentrality(centralityLinks);
+        return centralityLinks;
+    }
+
+    // Steps 5-10 on links whose group and centrality are set.
+    private RunSummary sampleAndWrite(long totalLinks, List<Link> sampledLinks, String fullOutputFolder, String runDateTime, long startTime) {
+        // Step 5: Determine sample sizes by group.
+        System.out.println("\nStep 5: Determining sample sizes by group...");
+        metrics.begin("5", "sampleSizes");
+        Map<String, GroupSampleInfo> sampleInfoMap = calculateSampleSizes(sampledLinks);
+        metrics.end(sampledLinks.size(), "links");
+        if (debugMode) {
+            int infoCount = 0;
+            for (Map.Entry<String, GroupSampleInfo> entry : sampleInfoMap.entrySet()) {
+                if (infoCount < debugPrintLimit) {
+                    System.out.println(" - " + entry.getKey() + ": n_g = " + entry.getValue().n_g);
+                    infoCount++;
+                } else {
+                    System.out.println(" - ... (" + (sampleInfoMap.size() - debugPrintLimit) + " more sample infos)");
+                    break;
+                }
+            }
+        }
+
+        // Step 6: Split the links into their groups.
+        System.out.println("\nStep 6: Grouping links for selection by centrality...");
+        metrics.begin("6", "groupLinks");
+        Map<String, List<Link>> groupedLinks = groupLinks(sampledLinks, sampleInfoMap);
+        metrics.end(sampledLinks.size(), "links");
+
+        // Step 7: Select the most central links of each group based on group sample sizes.
+        System.out.println("\nStep 7: Selecting final sample links...");
+        metrics.begin("7", "selectLinks");
+        Map<String, List<Link>> selectedLinks = selectSampleLinks(groupedLinks, sampleInfoMap);
+        metrics.end(sampledLinks.size(), "links");
+        System.out.println("Total selected links: " + selectedLinks.values().stream().mapToInt(List::size).sum());
+        for (Map.Entry<String, List<Link>> entry : selectedLinks.entrySet()) {
+            GroupSampleInfo info = sampleInfoMap.get(entry.getKey());
+            if (info != null) {
+                info.selected = entry.getValue().size();
+            }
+        }
+
+        String csvOutputPath = fullOutputFolder + File.separator + (gzipCsv ? "results.csv.gz" : "results.csv");
+        String summaryCsvPath = fullOutputFolder + File.separator + "summary.csv";
+
+        // Steps 8, 8.5 and 10 write their files in one pass over the selected links:
+        // each geometry is read and reprojected once and the files are written on
+        // their own threads (see OutputFanout). The output shapefile and CSV keep the
+        // scores from selection; the centrality and representative shapefiles get
+        // them after step 8.5 has averaged the two sides of each representative link.
+        List<Link> selected = flatten(selectedLinks);
+        double[] selectionCentrality = new double[selected.size()];
+        for (int i = 0; i < selectionCentrality.length; i++) {
+            selectionCentrality[i] = selected.get(i).centrality;
+        }
+        List<OutputFanout.Sink> sinks = new ArrayList<>();
+        System.out.println("\nStep 8: Writing results to shapefile and CSV...");
+        addSpatialSinks(sinks, fullOutputFolder, "output", selected, false, true, null);
+        sinks.add(new OutputFanout.CsvSink(csvOutputPath));
+
+        // Step 8.5: Process two-sided links (if enabled).
+        boolean representativeWritten = false;
+        if (combineTwoSided) {
+            System.out.println("\nStep 8.5: Processing two-sided link combination...");
+            metrics.begin("8.5", "twoSided");
+            List<Link> allSelectedTwoSidedLinks = selected.stream()
+                    .filter(Link::isTwoSided)
+                    .collect(Collectors.toList());
+            List<Link> representativeLinks = getRepresentativeTwoSidedLinks(allSelectedTwoSidedLinks);
+            metrics.end(allSelectedTwoSidedLinks.size(), "links");
+            addSpatialSinks(sinks, fullOutputFolder, "representative", representativeLinks, true, false, representativeLinks);
+            representativeWritten = true;
+        } else {
+            System.out.println("\nStep 8.5: Two-sided link combination skipped.");
+        }
+
+        // Step 10: Write centrality calculation shapefile.
+        System.out.println("\nStep 10: Writing centrality calculation shapefile...");
+        addSpatialSinks(sinks, fullOutputFolder, "centrality", selected, false, false, null);
+        metrics.begin("8-10", "writeOutputs");
+        writeOutputs(selected, selectionCentrality, sinks);
+        metrics.end(selected.size(), "links");
+        if (representativeWritten) {
+            for (OutputFormat format : outputFormats) {
+                System.out.println("Representative two-sided links written to: " + spatialPath(fullOutputFolder, "representative", format));
+            }
+        }
+        if (debugMode) {
+            System.out.println("Results, representative and centrality shapefiles written.");
+        }
+
+        // Step 9: Write summary CSV.
+        System.out.println("\nStep 9: Writing summary CSV...");
+        metrics.begin("9", "writeSummary");
+        writeSummaryCsv(totalLinks, sampledLinks.size(), sampleInfoMap, summaryCsvPath, runDateTime, System.currentTimeMillis() - startTime);
+        metrics.end(sampleInfoMap.size(), "groups");
+        if (debugMode) {
+            System.out.println("Summary CSV written successfully.");
+        }
+
+        System.out.println("\n=== LinkDistributorEdge Processing Completed ====");
+        for (OutputFormat format : outputFormats) {
+            System.out.println("Output " + format.label + ": " + spatialPath(fullOutputFolder, "output", format));
+        }
+        System.out.println("Output CSV:       " + csvOutputPath);
+        System.out.println("Summary CSV:      " + summaryCsvPath);
+        if (writeScoreIndex) {
+            System.out.println("Score index:      " + fullOutputFolder + File.separator + ScoreIndex.FILE_NAME);
+        }
+        for (OutputFormat format : outputFormats) {
+            System.out.println("Centrality " + format.label + ": " + spatialPath(fullOutputFolder, "centrality", format));
+        }
+        writeMetrics(fullOutputFolder, runDateTime);
+        return new RunSummary(totalLinks, sampledLinks.size(), sampleInfoMap, System.currentTimeMillis() - startTime);
+    }
+
+    // Writes metrics.json into the run folder and the Prometheus file if one is set.
+    private void writeMetrics(String outputFolder, String runDateTime) {
+        metrics.finish();
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("runDateTime", runDateTime);
+        run.put("input", inputShapeFile);
+        run.put("outputFolder", outputFolder);
+        run.put("centralityMode", centralityMode);
+        if (centralityUpdate != null) {
+            run.put("centralityUpdate", centralityUpdate);
+        }
+        run.put("errors", errorCount.get());
+        File metricsFile = new File(outputFolder, "metrics.json");
+        try {
+            metrics.writeJson(metricsFile, run);
+            System.out.println("Stage metrics:    " + metricsFile.getPath());
+        } catch (IOException e) {
+            System.err.println("Error writing stage metrics: " + e.getMessage());
+        }
+        if (prometheusFile != null) {
+            Map<String, String> labels = new LinkedHashMap<>();
+            labels.put("input", new File(inputShapeFile).getName());
+            try {
+                metrics.writePrometheus(prometheusFile, labels);
+            } catch (IOException e) {
+                System.err.println("Error writing Prometheus metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    // Write parameters to a file.
+    private void writeParameters(String outputFolder, String runDateTime) {
+        File paramFile = new File(outputFolder, "parameters.txt");
+        try (FileWriter fw = new FileWriter(paramFile)) {
+            fw.write("Run Date/Time: " + runDateTime + "\n");
+            fw.write("EPSG Code: " + epsgCode + "\n");
+            fw.write("Filter Ramps: " + filterRamps + "\n");
+            fw.write("Ramp DATA1 Values: " + rampData1Values + "\n");
+            fw.write("Centrality Road Types: " + centralityRoadTypes + "\n");
+            fw.write("Combine Two-Sided: " + combineTwoSided + "\n");
+            fw.write("Centrality Weighting: " + centralityWeighting + (weightAttribute != null ? " (" + weightAttribute + ")" : "") + "\n");
+            fw.write("Group RMSE Map: " + groupRmseMap + "\n");
+            fw.write("Debug Mode: " + debugMode + "\n");
+            fw.write("Debug Print Limit: " + debugPrintLimit + "\n");
+            fw.write("Node Snap Tolerance: " + snapTolerance + "\n");
+            fw.write("Load Parallelism: " + loadParallelism + "\n");
+            fw.write("Centrality Parallelism: " + centralityParallelism + "\n");
+            fw.write("Directed Centrality Graph: " + directedCentrality + "\n");
+            fw.write("Centrality Mode: " + centralityMode + "\n");
+            if (centralityMode == CentralityMode.APPROXIMATE) {
+                fw.write("Requested Pivots: " + (requestedPivots > 0 ? String.valueOf(requestedPivots) : "auto") + "\n");
+                fw.write("Target Error: " + targetError + "\n");
+                fw.write("Target Confidence: " + targetConfidence + "\n");
+                fw.write("Sampling Seed: " + samplingSeed + "\n");
+            }
+            fw.write("Incremental Centrality: " + incrementalCentrality + "\n");
+            fw.write("Centrality Cache: " + (useCentralityCache
+                    ? (centralityCacheDir != null ? centralityCacheDir.getPath() : new File(baseOutputFolder, "centrality_cache").getPath())
+                        + " (max " + (centralityCacheMaxBytes >> 20) + " MB)"
+                    : "disabled") + "\n");
+            fw.write("Output Formats: " + outputFormats + (spatialIndex ? " with spatial index" : "") + "\n");
+            fw.write("Gzip Results CSV: " + gzipCsv + "\n");
+            fw.write("Score Index: " + writeScoreIndex + "\n");
+            fw.write("Sample Selection: " + sampleSelection + "\n");
+            if (sampleSelection == SampleSelection.MIN_SPACING) {
+                fw.write("Selection Spacing: " + selectionSpacing + "\n");
+            } else if (sampleSelection == SampleSelection.CELL_QUOTA) {
+                fw.write("Selection Cell Size: " + selectionSpacing + "\n");
+                fw.write("Selection Cell Quota: " + cellQuota + "\n");
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error writing parameters: " + e.getMessage());
+        }
+    }
+
+    // Append a parameter that is only known once processing has started.
+    private void appendParameter(String outputFolder, String line) {
+        File paramFile = new File(outputFolder, "parameters.txt");
+        try (FileWriter fw = new FileWriter(paramFile, true)) {
+            fw.write(line + "\n");
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error writing parameters: " + e.getMessage());
+        }
+    }
+
+    private LinkTable loadLinkTable(String shapefile) {
+        ShapefileLinkLoader loader = new ShapefileLinkLoader(debugMode, debugPrintLimit, weightAttribute);
+        loader.setParallelism(loadParallelism);
+        loader.setSnapTolerance(snapTolerance);
+        try {
+            LinkTable table = loader.load(new File(shapefile));
+            this.sourceCRS = loader.getSourceCRS(); // Capture the source CRS
+            return table;
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error loading shapefile: " + e.getMessage());
+            e.printStackTrace();
+            return new LinkTable(0);
+        }
+    }
+
+    // Edge cost for the betweenness shortest paths; NaN when the attribute is missing or unusable.
+    private double computeLinkWeight(Link link) {
+        switch (centralityWeighting) {
+            case LENGTH:
+                return link.length();
+            case ATTRIBUTE:
+            case TRAVEL_TIME:
+                double value = link.table.weightAttribute(link.row);
+                if (!(value > 0.0) || Double.isInfinite(value)) {
+                    return Double.NaN;
+                }
+                // TRAVEL_TIME treats the attribute as a speed.
+                return centralityWeighting == CentralityWeighting.TRAVEL_TIME ? link.length() / value : value;
+            default:
+                return 1.0;
+        }
+    }
+
+    // Assign groups based on link type.
+    private static void assignGroups(List<Link> links) {
+        for (Link link : links) {
+            switch (link.type()) {
+                case "1": link.groupIndex = 0; break;
+                case "2": link.groupIndex = 1; break;
+                case "3": link.groupIndex = 2; break;
+                case "4": link.groupIndex = 3; break;
+                case "5": link.groupIndex = 4; break;
+                case "6": link.groupIndex = 5; break;
+                default: link.groupIndex = 6; break;
+            }
+            link.group = GROUP_NAMES[link.groupIndex];
+        }
+    }
+
+    // Prints the link count of every non-empty group, up to the debug print limit.
+    private void printGroupCounts(GroupStatistics stats) {
+        int printed = 0;
+        int nonEmpty = 0;
+        for (int g = 0; g < stats.groupCount(); g++) {
+            if (stats.count(g) == 0) {
+                continue;
+            }
+            nonEmpty++;
+            if (printed < debugPrintLimit) {
+                System.out.println(" - " + GROUP_NAMES[g] + ": " + stats.count(g) + " links");
+                printed++;
+            }
+        }
+        if (nonEmpty > printed) {
+            System.out.println(" - ... (" + (nonEmpty - printed) + " more groups)");
+        }
+    }
+
+    /**
+     * Sets fromNode and toNode of each link to graph vertices: the nodes snapped at
+     * load time over the whole network, renumbered densely in order of first use by
+     * these links. Returns the vertex count.
+     */
+    static int assignGraphNodes(List<Link> links) {
+        int[] vertexOf = new int[links.isEmpty() ? 0 : links.get(0).table.nodeCount()];
+        Arrays.fill(vertexOf, -1);
+        int vertexCount = 0;
+
+        for (Link link : links) {
+            int fromNode = link.table.startNode(link.row);
+            int toNode = link.table.endNode(link.row);
+            if (vertexOf[fromNode] < 0) {
+                vertexOf[fromNode] = vertexCount++;
+            }
+            if (vertexOf[toNode] < 0) {
+                vertexOf[toNode] = vertexCount++;
+            }
+            int fromId = vertexOf[fromNode];
+            int toId = vertexOf[toNode];
+            if (fromId == toId) {
+                System.err.println("Warning: Link ID " + link.id() + " forms a self-loop. Skipping.");
+                continue;
+            }
+            link.fromNode = fromId;
+            link.toNode = toId;
+        }
+        return vertexCount;
+    }
+
+    private void calculateCentrality(List<Link> links) {
+        int vertexCount = assignGraphNodes(links);
+        boolean weighted = centralityWeighting != CentralityWeighting.HOPS;
+        if (weighted) {
+            for (Link link : links) {
+                link.weight = computeLinkWeight(link);
+            }
+            sanitizeWeights(links);
+        }
+        CsrGraph graph = CsrGraph.fromLinks(links, vertexCount, weighted, directedCentrality);
+
+        centralityEdges = graph.edgeCount;
+        if (debugMode) {
+            System.out.println((directedCentrality ? "Directed" : "Undirected") + " graph created with " + graph.vertexCount + " vertices and " + graph.edgeCount + (directedCentrality ? " arcs." : " edges."));
+        }
+        try {
+            long ebcStart = System.currentTimeMillis();
+            EdgeBetweennessEngine ebc = new EdgeBetweennessEngine(graph, centralityParallelism);
+            boolean useSnapshot = incrementalCentrality && centralityMode == CentralityMode.EXACT;
+            if (incrementalCentrality && !useSnapshot) {
+                System.out.println("Incremental centrality applies to exact mode only; computing approximate centrality.");
+            }
+            double[] raw = useSnapshot ? updateFromSnapshot(graph) : null;
+            if (raw == null && centralityMode == CentralityMode.APPROXIMATE) {
+                int k = requestedPivots > 0 ? requestedPivots
+                        : EdgeBetweennessEngine.pivotsForError(targetError, targetConfidence, graph.edgeCount);
+                if (k >= graph.vertexCount) {
+                    System.out.println("Pivot count " + k + " covers all " + graph.vertexCount + " nodes; computing exact centrality.");
+                    pivotsUsed = graph.vertexCount;
+                    errorBound = 0.0;
+                    raw = ebc.computeScores();
+                } else {
+                    pivotsUsed = k;
+                    errorBound = EdgeBetweennessEngine.errorForPivots(k, targetConfidence, graph.edgeCount);
+                    System.out.println("Approximate centrality from " + k + " of " + graph.vertexCount + " nodes (seed " + samplingSeed
+                            + ", error bound " + String.format("%.5f", errorBound) + " at " + targetConfidence + " confidence).");
+                    raw = ebc.computeScores(EdgeBetweennessEngine.samplePivots(graph.vertexCount, k, samplingSeed));
+                }
+            } else if (raw == null) {
+                raw = ebc.computeScores();
+            }
+            if (debugMode) {
+                System.out.println("Betweenness computed on " + centralityParallelism + " thread(s) in " + (System.currentTimeMillis() - ebcStart) + " ms.");
+            }
+            if (useSnapshot) {
+                saveSnapshot(graph, raw);
+            }
+            double[] linkScores = graph.linkScores(raw);
+            double maxVal = Arrays.stream(linkScores).max().orElse(1.0);
+            if (debugMode) {
+                System.out.println("Computing and normalizing centrality scores...");
+            }
+            for (int i = 0; i < linkScores.length; i++) {
+                Link link = graph.links[i];
+                double norm = (maxVal == 0.0) ? 0.0 : linkScores[i] / maxVal;
+                link.centrality = norm;
+                if (debugMode && link.centrality > 0) {
+                    System.out.println("Link ID: " + link.id() + ", Centrality: " + link.centrality);
+                }
+            }
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error calculating centrality: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private File snapshotFile() {
+        return new File(baseOutputFolder, "centrality_snapshot.bin");
+    }
+
+    // The settings that determine the centrality graph and its costs; a snapshot
+    // computed under different settings is not reused.
+    private String centralityFingerprint() {
+        return "weighting=" + centralityWeighting + ";attribute=" + weightAttribute + ";directed=" + directedCentrality
+                + ";snapTolerance=" + snapTolerance + ";roadTypes=" + new TreeSet<>(centralityRoadTypes)
+                + ";filterRamps=" + filterRamps + (filterRamps ? ";rampValues=" + new TreeSet<>(rampData1Values) : "");
+    }
+
+    // Raw edge scores updated from the previous snapshot, or null when a full pass is needed.
+    private double[] updateFromSnapshot(CsrGraph graph) {
+        File file = snapshotFile();
+        try {
+            CentralitySnapshot previous = CentralitySnapshot.read(file);
+            if (previous == null) {
+                centralityUpdate = "full (no previous snapshot)";
+            } else if (!previous.fingerprint.equals(centralityFingerprint())) {
+                centralityUpdate = "full (centrality settings changed since the snapshot)";
+            } else {
+                IncrementalBetweenness incremental = new IncrementalBetweenness(previous, graph, centralityParallelism);
+                double[] raw = incremental.update();
+                if (raw != null) {
+                    centralityUpdate = "incremental (" + incremental.getChangedArcs() + " changed arcs, "
+                            + incremental.getAffectedSources() + " of " + graph.vertexCount + " sources recomputed)";
+                    System.out.println("Centrality updated from " + file.getName() + ": " + centralityUpdate + ".");
+                    return raw;
+                }
+                centralityUpdate = "full (" + incremental.getFallbackReason() + ")";
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading centrality snapshot: " + e.getMessage());
+            centralityUpdate = "full (snapshot unreadable)";
+        }
+        System.out.println("Computing full centrality: " + centralityUpdate.substring("full (".length(), centralityUpdate.length() - 1) + ".");
+        return null;
+    }
+
+    private void saveSnapshot(CsrGraph graph, double[] raw) {
+        try {
+            CentralitySnapshot.of(graph, raw, centralityFingerprint()).write(snapshotFile());
+            if (debugMode) {
+                System.out.println("Centrality snapshot written to " + snapshotFile().getAbsolutePath());
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing centrality snapshot: " + e.getMessage());
+        }
+    }
+
+    // Dijkstra needs strictly positive costs: links without a usable weight get the
+    // mean of the valid ones, and zero-length links get a tiny positive cost.
+    private void sanitizeWeights(List<Link> links) {
+        double sum = 0.0;
+        int valid = 0;
+        double minPositive = Double.POSITIVE_INFINITY;
+        for (Link link : links) {
+            if (link.weight > 0.0 && !Double.isInfinite(link.weight)) {
+                sum += link.weight;
+                valid++;
+                minPositive = Math.min(minPositive, link.weight);
+            }
+        }
+        double fallback = valid > 0 ? sum / valid : 1.0;
+        double floor = valid > 0 ? minPositive * 1e-6 : 1e-6;
+        int replaced = 0;
+        for (Link link : links) {
+            if (Double.isNaN(link.weight) || Double.isInfinite(link.weight)) {
+                link.weight = fallback;
+                replaced++;
+            } else if (link.weight <= 0.0) {
+                link.weight = floor;
+            }
+        }
+        if (replaced > 0) {
+            System.err.println("Warning: " + replaced + " link(s) have no valid '" + weightAttribute + "' value; using the mean weight " + String.format("%.4f", fallback) + ".");
+        }
+        if (debugMode) {
+            System.out.println("Centrality weighting " + centralityWeighting + ": " + valid + " of " + links.size() + " links have a valid weight.");
+        }
+    }
+
+    Map<String, GroupSampleInfo> calculateSampleSizes(List<Link> links) {
+        // Counts and centrality statistics of every group in one sweep over the links.
+        GroupStatistics stats = GroupStatistics.of(links, GROUP_NAMES.length, centralityParallelism, true);
+        if (debugMode) {
+            System.out.println("Group counts for sample size calculation:");
+            printGroupCounts(stats);
+        }
+
+        Map<String, Double> groupWeights = new HashMap<>();
+        double totalWeight = 0.0;
+        for (Map.Entry<String, Double> entry : groupRmseMap.entrySet()) {
+            String group = entry.getKey();
+            double rmse = entry.getValue();
+            if (rmse <= 0.0) {
+                System.err.println("Warning: Invalid RMSE value '" + rmse + "' for group " + group + ". Skipping this group for weight calculation.");
+                continue;
+            }
+            double weight = 1.0 / (rmse * rmse);
+            groupWeights.put(group, weight);
+            totalWeight += weight;
+        }
+
+        Map<String, GroupSampleInfo> sampleInfoMap = new HashMap<>();
+        for (int g = 0; g < stats.groupCount(); g++) {
+            long N_g = stats.count(g);
+            if (N_g == 0) {
+                continue;
+            }
+            String group = GROUP_NAMES[g];
+            double w_g = groupWeights.getOrDefault(group, 0.0);
+            GroupSampleInfo info = new GroupSampleInfo(group, N_g, groupRmseMap.getOrDefault(group, 0.0), w_g, 0);
+            if (w_g != 0.0 && totalWeight != 0.0) {
+                double n_g_double = (N_g * w_g) / totalWeight;
+                info.n_g = (int) Math.round(n_g_double);
+                if (debugMode) {
+                    System.out.println("Group: " + group + ", N_g: " + N_g + ", w_g: " + String.format("%.5f", w_g) + ", totalWeight: " + String.format("%.5f", totalWeight) + ", n_g_double: " + String.format("%.5f", n_g_double) + ", n_g: " + info.n_g);
+                }
+            }
+            info.avgCentrality = stats.mean(g);
+            info.maxCentrality = stats.max(g);
+            info.minCentrality = stats.min(g);
+            info.stdDevCentrality = stats.stdDev(g);
+            info.p50Centrality = stats.percentile(g, 50.0);
+            info.p90Centrality = stats.percentile(g, 90.0);
+            info.percentage = (N_g * 100.0) / links.size();
+            sampleInfoMap.put(group, info);
+            if (debugMode) {
+                System.out.println("Group: " + group + ", N_g: " + N_g + ", w_g: " + String.format("%.5f", w_g) + ", n_g: " + info.n_g);
+            }
+        }
+        return sampleInfoMap;
+    }
+
+    // Buckets the links by group index, in input order, into lists sized from the step 5 counts.
+    Map<String, List<Link>> groupLinks(List<Link> links, Map<String, GroupSampleInfo> sampleInfoMap) {
+        List<List<Link>> buckets = new ArrayList<>(GROUP_NAMES.length);
+        for (String group : GROUP_NAMES) {
+            GroupSampleInfo info = sampleInfoMap.get(group);
+            buckets.add(new ArrayList<>(info != null ? (int) info.N_g : 0));
+        }
+        for (Link link : links) {
+            buckets.get(link.groupIndex).add(link);
+        }
+        Map<String, List<Link>> grouped = new HashMap<>();
+        for (int g = 0; g < GROUP_NAMES.length; g++) {
+            if (!buckets.get(g).isEmpty()) {
+                grouped.put(GROUP_NAMES[g], buckets.get(g));
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * Select the top n_g links from each group, most central first. Ties in centrality
+     * go to the smaller link ID, so the sample does not depend on the input order.
+     * With a spatial selection mode, links too close to (or in a full cell with) an
+     * already selected link of the same group are passed over for the next best one.
+     */
+    Map<String, List<Link>> selectSampleLinks(Map<String, List<Link>> grouped, Map<String, GroupSampleInfo> sampleInfoMap) {
+        if (debugMode) {
+            System.out.println("Selecting top N links from each group based on sample sizes...");
+        }
+        List<String> groups = new ArrayList<>(grouped.keySet());
+        List<List<Link>> groupLinks = new ArrayList<>(groups.size());
+        int[] sizes = new int[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            String grp = groups.get(i);
+            groupLinks.add(grouped.get(grp));
+            sizes[i] = sampleInfoMap.getOrDefault(grp, new GroupSampleInfo(grp, 0, 0.0, 0.0, 0)).n_g;
+        }
+        List<List<Link>> topN;
+        if (sampleSelection == SampleSelection.TOP_CENTRALITY) {
+            topN = TopKSelection.select(groupLinks, sizes, centralityParallelism);
+        } else {
+            SpatialSelection spatial = new SpatialSelection(selectionSpacing, cellQuota);
+            topN = TopKSelection.select(groupLinks, sizes, centralityParallelism, spatial::select);
+        }
+
+        Map<String, List<Link>> selected = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            String grp = groups.get(i);
+            selected.put(grp, topN.get(i));
+            int available = Math.min(sizes[i], grouped.get(grp).size());
+            if (topN.get(i).size() < available) {
+                System.err.println("Warning: Group " + grp + ": only " + topN.get(i).size() + " of " + sizes[i]
+                        + " links satisfy the " + sampleSelection + " selection constraint.");
+            }
+            if (debugMode) {
+                if (topN.get(i).isEmpty()) {
+                    System.out.println("Group: " + grp + " has no links or sample size 0. Selected 0 links.");
+                } else {
+                    System.out.println("Group: " + grp + ", Sample Size: " + sizes[i] + ", Selected: " + topN.get(i).size() + " links.");
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Adds a sink per output format for the spatial file called name (output,
+     * representative or centrality), or warns that there is nothing to write.
+     *
+     * @param order The links of the file in output order, or null for arrival order.
+     */
+    private void addSpatialSinks(List<OutputFanout.Sink> sinks, String folder, String name, List<Link> links,
+                                 boolean representative, boolean selectionCentrality, List<Link> order) {
+        for (OutputFormat format : outputFormats) {
+            String path = spatialPath(folder, name, format);
+            if (links.isEmpty()) {
+                System.err.println("Warning: No links to write to " + format.label.toLowerCase() + ": " + path);
+                continue;
+            }
+            sinks.add(spatialSink(format, path, representative, selectionCentrality, order));
+        }
+    }
+
+    // A sink for one format of a spatial file, with the representative schema if representative is set.
+    OutputFanout.Sink spatialSink(OutputFormat format, String path, boolean representative, boolean selectionCentrality,
+                                  List<Link> order) {
+        SimpleFeatureType featureType = representative ? createRepresentativeFeatureType() : createFeatureType();
+        switch (format) {
+            case GEOPACKAGE:
+                return new OutputFanout.GeoPackageSink(path, featureType, epsgCode, representative, selectionCentrality, order);
+            case FLATGEOBUF:
+                return new OutputFanout.FlatGeobufSink(path, featureType.getTypeName(), epsgCode, representative,
+                        selectionCentrality, order, spatialIndex);
+            default:
+                return new OutputFanout.ShapefileSink(path, featureType, representative, selectionCentrality, order, spatialIndex);
+        }
+    }
+
+    // <name>_shapefile.shp for shapefiles, as always, and <name>.<extension> for the other formats.
+    static String spatialPath(String folder, String name, OutputFormat format) {
+        return folder + File.separator + (format == OutputFormat.SHAPEFILE ? name + "_shapefile.shp" : name + "." + format.extension);
+    }
+
+    // Writes the sinks in one pass over links (see OutputFanout) and reports every sink that failed.
+    void writeOutputs(List<Link> links, double[] selectionCentrality, List<OutputFanout.Sink> sinks) {
+        if (debugMode) {
+            for (OutputFanout.Sink sink : sinks) {
+                System.out.println("Attempting to write links to: " + sink.path);
+            }
+        }
+        new OutputFanout(new File(inputShapeFile), sourceCRS, epsgCode, centralityParallelism).write(links, selectionCentrality, sinks);
+        for (OutputFanout.Sink sink : sinks) {
+            Throwable failure = sink.getFailure();
+            if (failure != null) {
+                errorCount.incrementAndGet();
+                System.err.println(sink.getFailureMessage() + ": " + failure.getMessage());
+                failure.printStackTrace();
+            } else if (debugMode) {
+                System.out.println("Written successfully to " + sink.path);
+            }
+        }
+    }
+
+    // The links of all groups, in map order.
+    private static List<Link> flatten(Map<String, List<Link>> selLinks) {
+        List<Link> links = new ArrayList<>(selLinks.values().stream().mapToInt(List::size).sum());
+        for (List<Link> groupLinks : selLinks.values()) {
+            links.addAll(groupLinks);
+        }
+        return links;
+    }
+
+    // Write summary CSV with metadata and group statistics.
+    /**
+     * Writes aggregate summary to a CSV file.
+     *
+     * The summary includes:
+     * - Run metadata: date/time, processing duration, EPSG code and centrality mode
+     *   (with pivot count and seed for approximate runs).
+     * - Total network links and first-stage sampled links.
+     * - For each group: total links (N_g), RMSE, weight (w_g), sample size (n_g),
+     *   as well as average, maximum, minimum, standard deviation, median and 90th
+     *   percentile of the centrality.
+     *
+     * @param totalLinks Total number of links in the network before sampling.
+     * @param sampledLinks Total number of links sampled in the first-stage.
+     * @param sampleInfoMap Map of group names to their respective GroupSampleInfo objects.
+     * @param summaryCsvPath Path to the summary CSV file.
+     * @param runDateTime The run date/time string.
+     * @param durationMillis The processing duration in milliseconds.
+     */
+    void writeSummaryCsv(long totalLinks, long sampledLinks, Map<String, GroupSampleInfo> sampleInfoMap, String summaryCsvPath, String runDateTime, long durationMillis) {
+        File f = new File(summaryCsvPath);
+        File parentDir = f.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+
+        try (FileWriter fw = new FileWriter(f)) {
+            // Write run metadata
+            fw.write("Run Date/Time:," + runDateTime + "\n");
+            fw.write("Processing Duration (ms):," + durationMillis + "\n");
+            fw.write("EPSG Code:," + epsgCode + "\n");
+            fw.write("Centrality Mode:," + centralityMode + "\n");
+            if (centralityMode == CentralityMode.APPROXIMATE) {
+                fw.write("Centrality Pivots:," + pivotsUsed + "\n");
+                fw.write("Sampling Seed:," + samplingSeed + "\n");
+                fw.write("Error Bound:," + String.format("%.5f", errorBound) + "\n");
+            }
+            fw.write("\n");
+
+            // Write overall network information
+            fw.write("Total Links in Network,First-Stage Sampleed Links\n");
+            fw.write(totalLinks + "," + sampledLinks + "\n\n");
+
+            // Write per-group summary statistics
+            fw.write("Group,N_g,RMSE,w_g,n_g,AvgCentrality,MaxCentrality,MinCentrality,StdDevCentrality,P50Centrality,P90Centrality\n");
+            List<String> orderedGroups = new ArrayList<>(sampleInfoMap.keySet());
+            Collections.sort(orderedGroups); // Sort groups for consistent output
+
+            int groupPrintCount = 0;
+            for (String group : orderedGroups) {
+                GroupSampleInfo info = sampleInfoMap.get(group);
+                if (info != null) {
+                    fw.write(String.format("%s,%d,%.2f,%.5f,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f\n",                        info.group, info.N_g, info.rmse, info.w_g, info.n_g,                        info.avgCentrality, info.maxCentrality, info.minCentrality,
+                            info.stdDevCentrality, info.p50Centrality, info.p90Centrality));
+                } else {
+                    fw.write(String.format("%s,0,%.2f,%.5f,0,0,0,0,0,0,0\n", group, 0.0, 0.0));
+                }
+                if (debugMode && groupPrintCount < debugPrintLimit) {
+                    System.out.println("Summary for Group " + group + ": N_g=" + info.N_g + ", n_g=" + info.n_g);
+                    groupPrintCount++;
+                } else if (debugMode && groupPrintCount == debugPrintLimit) {
+                    System.out.println("... (" + (orderedGroups.size() - debugPrintLimit) + " more group summaries)");
+                    groupPrintCount++;
+                }
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            System.err.println("Error writing summary CSV: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Create a feature type for the output shapefile.
+    private SimpleFeatureType createFeatureType() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("LinkSchema");
+        try {
+            builder.setCRS(CRS.parseWKT("PROJCS[\"Israel_TM_Grid\",GEOGCS[\"GCS_Israel\",DATUM[\"D_Israel\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Transverse_Mercator\"],PARAMETER[\"False_Easting\",219529.584],PARAMETER[\"False_Northing\",626907.39],PARAMETER[\"Central_Meridian\",35.2045169444444],PARAMETER[\"Scale_Factor\",1.0000067],PARAMETER[\"Latitude_Of_Origin\",31.7343936111111],UNIT[\"Meter\",1.0]]"));
+        } catch (FactoryException e) {
+            System.err.println("Error decoding CRS (" + epsgCode + "): " + e.getMessage() + " -- falling back to WGS84.");
+            builder.setCRS(DefaultGeographicCRS.WGS84);
+        }
+        builder.add("the_geom", MultiLineString.class);
+        builder.add("ID", String.class);
+        builder.add("TYPE", String.class);
+        builder.add("GROUP", String.class);
+        builder.add("CENTRALITY", Double.class);
+        builder.add("RMSE", Double.class);
+        return builder.buildFeatureType();
+    }
+
+    // Create a feature type for the representative shapefile (with "OTHERSIDE" field).
+    private SimpleFeatureType createRepresentativeFeatureType() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("RepresentativeLinkSchema");
+        try {
+            builder.setCRS(CRS.parseWKT("PROJCS[\"Israel_TM_Grid\",GEOGCS[\"GCS_Israel\",DATUM[\"D_Israel\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Transverse_Mercator\"],PARAMETER[\"False_Easting\",219529.584],PARAMETER[\"False_Northing\",626907.39],PARAMETER[\"Central_Meridian\",35.2045169444444],PARAMETER[\"Scale_Factor\",1.0000067],PARAMETER[\"Latitude_Of_Origin\",31.7343936111111],UNIT[\"Meter\",1.0]]"));
+        } catch (FactoryException e) {
+            System.err.println("Error decoding CRS (" + epsgCode + "): " + e.getMessage() + " -- falling back to WGS84.");
+            builder.setCRS(DefaultGeographicCRS.WGS84);
+        }
+        builder.add("the_geom", MultiLineString.class);
+        builder.add("ID", String.class);
+        builder.add("TYPE", String.class);
+        builder.add("GROUP", String.class);
+        builder.add("CENTRALITY", Double.class);
+        builder.add("RMSE", Double.class);
+        builder.add("OTHERSIDE", String.class); // Added for representative links
+        return builder.buildFeatureType();
+    }
+
+    // Process two-sided links to get representative links.
+    List<Link> getRepresentativeTwoSidedLinks(List<Link> links) {
+        // Group two-sided links by combinedId.
+        Map<String, List<Link>> grouped = links.stream()
+                .filter(Link::isTwoSided)
+                .collect(Collectors.groupingBy(Link::combinedId));
+        List<Link> representatives = new ArrayList<>();
+        // For each group of two-sided links:
+        for (Map.Entry<String, List<Link>> entry : grouped.entrySet()) {
+            List<Link> group = entry.getValue();
+            if (group.isEmpty()) {
+                continue;
+            }
+            if (group.size() == 1) {
+                representatives.add(group.get(0));
+            } else {
+                double avg = group.stream().mapToDouble(l -> l.centrality).average().orElse(0.0);
+                Link rep = group.get(0); // Take the first one as representative
+                rep.centrality = avg;
+                String otherIds = group.stream().skip(1).map(Link::id).collect(Collectors.joining(";"));
+                rep.otherSideId = otherIds; // Store IDs of other side links
+                representatives.add(rep);
+            }
+        }
+        return representatives;
+    }
+
+    // How step 4 computes betweenness.
+    public enum CentralityMode {
+        EXACT,
+        APPROXIMATE
+    }
+
+    // How step 7 picks the n_g links of a group.
+    public enum SampleSelection {
+        TOP_CENTRALITY, // the n_g most central links
+        MIN_SPACING,    // most central links at least the spacing apart
+        CELL_QUOTA      // most central links, at most the quota per grid cell
+    }
+
+    // File formats of the output, representative and centrality files.
+    public enum OutputFormat {
+        SHAPEFILE("Shapefile", "shp"),   // <name>_shapefile.shp with .shx, .dbf, .prj (and .qix)
+        GEOPACKAGE("GeoPackage", "gpkg"),
+        FLATGEOBUF("FlatGeobuf", "fgb");
+
+        final String label;
+        final String extension;
+
+        OutputFormat(String label, String extension) {
+            this.label = label;
+            this.extension = extension;
+        }
+    }
+
+    // How edges are weighted for the shortest paths behind the betweenness.
+    public enum CentralityWeighting {
+        HOPS,        // every link counts as one step (unweighted)
+        LENGTH,      // geometry length
+        ATTRIBUTE,   // a numeric shapefile attribute used directly as cost (e.g. a time field)
+        TRAVEL_TIME; // geometry length divided by a numeric speed attribute
+
+        boolean usesAttribute() {
+            return this == ATTRIBUTE || this == TRAVEL_TIME;
+        }
+    }
+
+    // A link of the loaded network: a view on one LinkTable row plus the per-run
+    // analysis state (group, centrality, graph nodes).
+    static class Link {
+        final LinkTable table;
+        final int row;
+        String group;
+        int groupIndex; // index into GROUP_NAMES
+        double centrality;
+        double rmse;
+        int fromNode;
+        int toNode;
+        double weight = 1.0; // edge cost for weighted centrality
+        String otherSideId;
+
+        Link(LinkTable table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        String id() {
+            return table.id(row);
+        }
+
+        String type() {
+            return table.type(row);
+        }
+
+        double data1() {
+            return table.data1(row);
+        }
+
+        boolean isTwoSided() {
+            return table.isTwoSided(row);
+        }
+
+        String combinedId() {
+            return table.combinedId(row);
+        }
+
+        double length() {
+            return table.length(row);
+        }
+    }
+
+    static class GroupSampleInfo {
+        String group;
+        long N_g;
+        double rmse;
+        double w_g;
+        int n_g;
+        int selected; // links actually selected in step 7 (below n_g if a spatial constraint binds)
+        double avgCentrality;
+        double maxCentrality;
+        double minCentrality;
+        double stdDevCentrality;
+        double p50Centrality;
+        double p90Centrality;
+        double percentage;
+
+        public GroupSampleInfo(String group, long N_g, double rmse, double w_g, int n_g) {
+            this.group = group;
+            this.N_g = N_g;
+            this.rmse = rmse;
+            this.w_g = w_g;
+            this.n_g = n_g;
+        }
+    }
+
+    // Normalized centrality per link table row, shared by the scenarios of a batch.
+    static class CentralityScores {
+        final double[] byRow;
+        final String update;
+        final int pivotsUsed;
+        final double errorBound;
+
+        CentralityScores(double[] byRow, String update, int pivotsUsed, double errorBound) {
+            this.byRow = byRow;
+            this.update = update;
+            this.pivotsUsed = pivotsUsed;
+            this.errorBound = errorBound;
+        }
+    }
+
+    // What a run produced, for comparing scenarios.
+    static class RunSummary {
+        final long totalLinks;
+        final long sampledLinks;
+        final Map<String, GroupSampleInfo> groups;
+        final long durationMillis;
+
+        RunSummary(long totalLinks, long sampledLinks, Map<String, GroupSampleInfo> groups, long durationMillis) {
+            this.totalLinks = totalLinks;
+            this.sampledLinks = sampledLinks;
+            this.groups = groups;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * Snaps link endpoints to network nodes: a point joins the nearest existing node
+     * within the snapping tolerance (ties go to the older node), otherwise it starts
+     * a new one. Ids are dense and assigned in order of first appearance.
+     *
+     * Nodes are bucketed in a grid whose cells are one tolerance wide, keyed by the
+     * packed cell coordinates in a LongIntHashMap that points at a per-cell chain of
+     * node ids. Any node within tolerance lies in the point's cell or one of its
+     * eight neighbours, so a lookup probes nine cells and allocates nothing.
+     */
+    static class NodeManager {
+        static final double DEFAULT_TOLERANCE = 0.01;
+
+        private final double tolerance;
+        private final double toleranceSq;
+        private final LongIntHashMap cellHead = new LongIntHashMap(1024);
+        private double[] nodeX = new double[1024];
+        private double[] nodeY = new double[1024];
+        private int[] nextInCell = new int[1024];
+        private int nextId = 0;
+
+        NodeManager() {
+            this(DEFAULT_TOLERANCE);
+        }
+
+        // tolerance: snapping distance in the units of the input CRS.
+        NodeManager(double tolerance) {
+            if (!(tolerance > 0.0) || Double.isInfinite(tolerance)) {
+                throw new IllegalArgumentException("Snapping tolerance must be positive: " + tolerance);
+            }
+            this.tolerance = tolerance;
+            this.toleranceSq = tolerance * tolerance;
+        }
+
+        public int getOrCreateNodeId(double x, double y) {
+            long cellX = cell(x);
+            long cellY = cell(y);
+            int best = -1;
+            double bestSq = toleranceSq;
+            for (long cx = cellX - 1; cx <= cellX + 1; cx++) {
+                for (long cy = cellY - 1; cy <= cellY + 1; cy++) {
+                    for (int id = cellHead.get(cellKey(cx, cy)); id >= 0; id = nextInCell[id]) {
+                        double dx = nodeX[id] - x;
+                        double dy = nodeY[id] - y;
+                        double distSq = dx * dx + dy * dy;
+                        if (distSq < bestSq || (distSq == bestSq && (best < 0 || id < best))) {
+                            best = id;
+                            bestSq = distSq;
+                        }
+                    }
+                }
+            }
+            if (best >= 0) {
+                return best;
+            }
+
+            int id = nextId++;
+            if (id == nodeX.length) {
+                nodeX = Arrays.copyOf(nodeX, id * 2);
+                nodeY = Arrays.copyOf(nodeY, id * 2);
+                nextInCell = Arrays.copyOf(nextInCell, id * 2);
+            }
+            nodeX[id] = x;
+            nodeY[id] = y;
+            long key = cellKey(cellX, cellY);
+            nextInCell[id] = cellHead.get(key);
+            cellHead.put(key, id);
+            return id;
+        }
+
+        public int size() {
+            return nextId;
+        }
+
+        double getTolerance() {
+            return tolerance;
+        }
+
+        private long cell(double v) {
+            double c = Math.floor(v / tolerance);
+            if (Math.abs(c) >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Coordinate " + v + " is out of range for snapping tolerance " + tolerance);
+            }
+            return (long) c;
+        }
+
+        // Both cell coordinates fit in 32 bits (see cell), so packing them is exact.
+        private static long cellKey(long cx, long cy) {
+            return (cx << 32) | (cy & 0xFFFFFFFFL);
+        }
+    }
+
+    // TeeOutputStream class (from original file)
+    static class TeeOutputStream extends OutputStream {
+        private final OutputStream out1;
+        private final OutputStream out2;
+
+        public TeeOutputStream(OutputStream out1, OutputStream out2) {
+            this.out1 = out1;
+            this.out2 = out2;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out1.write(b);
+            out2.write(b);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            out1.write(b);
+            out2.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out1.write(b, off, len);
+            out2.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out1.flush();
+            out2.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out1.close();
+            }
+            finally {
+                out2.close();
+            }
+        }
+    }
+}
\ No newline at end of file
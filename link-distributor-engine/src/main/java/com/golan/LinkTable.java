@@ -0,0 +1,238 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.golan.LinkDistributorLogic.Link;
+import com.golan.LinkDistributorLogic.NodeManager;
+
+/**
+ * Columnar, primitive-array storage of the loaded network: one row per link.
+ *
+ * Only what the analysis needs is kept on the heap: the endpoint coordinates,
+ * length, DATA1, a byte type code, the two-sided flag, string-pool refs for ID and
+ * combinedId, and the optional weight attribute. The full geometry stays in the
+ * input .shp and is re-read at write time from the record's byte offset
+ * (see ShapefileGeometrySource).
+ *
+ * Endpoints are snapped to network nodes as rows are added, so every row also
+ * carries the NodeManager ids of its start and end node.
+ */
+final class LinkTable {
+
+    private static final int MAX_TYPES = 256;
+
+    private int size;
+    private double[] startX;
+    private double[] startY;
+    private double[] endX;
+    private double[] endY;
+    private double[] length;
+    private double[] data1;
+    private double[] weightAttr; // NaN when the weight attribute is missing or unusable
+    private byte[] typeCode;     // index into typeNames
+    private boolean[] twoSided;
+    private int[] idRef;
+    private int[] combinedRef;
+    private int[] shpOffset;
+    private long[] geometryHash;
+    private int[] startNode;
+    private int[] endNode;
+
+    private final List<String> typeNames = new ArrayList<>();
+    private final StringPool strings;
+    private final NodeManager nodes;
+
+    LinkTable(int expectedRows) {
+        this(expectedRows, new NodeManager());
+    }
+
+    LinkTable(int expectedRows, NodeManager nodes) {
+        int capacity = Math.max(16, expectedRows);
+        startX = new double[capacity];
+        startY = new double[capacity];
+        endX = new double[capacity];
+        endY = new double[capacity];
+        length = new double[capacity];
+        data1 = new double[capacity];
+        weightAttr = new double[capacity];
+        typeCode = new byte[capacity];
+        twoSided = new boolean[capacity];
+        idRef = new int[capacity];
+        combinedRef = new int[capacity];
+        shpOffset = new int[capacity];
+        geometryHash = new long[capacity];
+        startNode = new int[capacity];
+        endNode = new int[capacity];
+        strings = new StringPool(capacity);
+        this.nodes = nodes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a link and returns its row. combinedId may be the same string as id,
+     * in which case both columns share one pool entry.
+     */
+    int add(String id, String type, String combinedId, double data1Value, boolean isTwoSided,
+            double x0, double y0, double x1, double y1, double len, double weightValue, int recordOffset, long geomHash) {
+        if (size == startX.length) {
+            grow();
+        }
+        int row = size++;
+        startX[row] = x0;
+        startY[row] = y0;
+        endX[row] = x1;
+        endY[row] = y1;
+        length[row] = len;
+        data1[row] = data1Value;
+        weightAttr[row] = weightValue;
+        typeCode[row] = typeCodeOf(type);
+        twoSided[row] = isTwoSided;
+        idRef[row] = strings.add(id);
+        combinedRef[row] = (combinedId == null || combinedId.equals(id)) ? idRef[row] : strings.add(combinedId);
+        shpOffset[row] = recordOffset;
+        geometryHash[row] = geomHash;
+        startNode[row] = nodes.getOrCreateNodeId(x0, y0);
+        endNode[row] = nodes.getOrCreateNodeId(x1, y1);
+        return row;
+    }
+
+    private byte typeCodeOf(String type) {
+        int code = typeNames.indexOf(type);
+        if (code < 0) {
+            if (typeNames.size() == MAX_TYPES) {
+                throw new IllegalStateException("More than " + MAX_TYPES + " distinct TYPE values in the input");
+            }
+            typeNames.add(type);
+            code = typeNames.size() - 1;
+        }
+        return (byte) code;
+    }
+
+    private void grow() {
+        int capacity = startX.length * 2;
+        startX = Arrays.copyOf(startX, capacity);
+        startY = Arrays.copyOf(startY, capacity);
+        endX = Arrays.copyOf(endX, capacity);
+        endY = Arrays.copyOf(endY, capacity);
+        length = Arrays.copyOf(length, capacity);
+        data1 = Arrays.copyOf(data1, capacity);
+        weightAttr = Arrays.copyOf(weightAttr, capacity);
+        typeCode = Arrays.copyOf(typeCode, capacity);
+        twoSided = Arrays.copyOf(twoSided, capacity);
+        idRef = Arrays.copyOf(idRef, capacity);
+        combinedRef = Arrays.copyOf(combinedRef, capacity);
+        shpOffset = Arrays.copyOf(shpOffset, capacity);
+        geometryHash = Arrays.copyOf(geometryHash, capacity);
+        startNode = Arrays.copyOf(startNode, capacity);
+        endNode = Arrays.copyOf(endNode, capacity);
+    }
+
+    String id(int row) {
+        return strings.get(idRef[row]);
+    }
+
+    String combinedId(int row) {
+        return strings.get(combinedRef[row]);
+    }
+
+    // The pool holding the ID and combined ID strings (see idRef and combinedRef).
+    StringPool strings() {
+        return strings;
+    }
+
+    int idRef(int row) {
+        return idRef[row];
+    }
+
+    int combinedRef(int row) {
+        return combinedRef[row];
+    }
+
+    // Compares the IDs of two rows without creating Strings.
+    int compareIds(int rowA, int rowB) {
+        return strings.compare(idRef[rowA], idRef[rowB]);
+    }
+
+    String type(int row) {
+        return typeNames.get(typeCode[row] & 0xFF);
+    }
+
+    double data1(int row) {
+        return data1[row];
+    }
+
+    boolean isTwoSided(int row) {
+        return twoSided[row];
+    }
+
+    double startX(int row) {
+        return startX[row];
+    }
+
+    double startY(int row) {
+        return startY[row];
+    }
+
+    double endX(int row) {
+        return endX[row];
+    }
+
+    double endY(int row) {
+        return endY[row];
+    }
+
+    double length(int row) {
+        return length[row];
+    }
+
+    double weightAttribute(int row) {
+        return weightAttr[row];
+    }
+
+    int shpOffset(int row) {
+        return shpOffset[row];
+    }
+
+    // Hash over all vertices of the link's geometry (see hashPoint).
+    long geometryHash(int row) {
+        return geometryHash[row];
+    }
+
+    int startNode(int row) {
+        return startNode[row];
+    }
+
+    int endNode(int row) {
+        return endNode[row];
+    }
+
+    // Number of distinct nodes over all rows; node ids are 0 .. nodeCount() - 1.
+    int nodeCount() {
+        return nodes.size();
+    }
+
+    static final long GEOMETRY_HASH_SEED = 0x9E3779B97F4A7C15L;
+
+    // Folds one geometry vertex into a running geometry hash; both loaders hash
+    // every vertex in file order, starting from GEOMETRY_HASH_SEED.
+    static long hashPoint(long hash, double x, double y) {
+        long h = hash;
+        h = (h ^ Double.doubleToLongBits(x)) * 0x100000001B3L;
+        h = (h ^ Double.doubleToLongBits(y)) * 0x100000001B3L;
+        return h ^ (h >>> 29);
+    }
+
+    // One Link view per row, in row order.
+    List<Link> toLinks() {
+        List<Link> links = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            links.add(new Link(this, row));
+        }
+        return links;
+    }
+}
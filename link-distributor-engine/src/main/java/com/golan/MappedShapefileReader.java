@@ -0,0 +1,692 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.golan.LinkDistributorLogic.NodeManager;
+
+/**
+ * Direct reader for the load step: memory-maps the .shp and .dbf and decodes
+ * PolyLine records and the fixed-width DBF columns straight out of the mapped
+ * buffers into a LinkTable. No Geometry, SimpleFeature or per-record attribute
+ * array is created; only the endpoints, the 2D length and the columns the
+ * analysis uses are read.
+ *
+ * Values decode as the GeoTools DbaseFileReader would decode them (so a numeric
+ * ID still reads as "123", not "123.000"), and records are validated with the
+ * same rules and warnings as ShapefileLinkLoader; records flagged deleted in the
+ * .dbf are skipped. load() returns null for files it does not handle
+ * (non-PolyLine shapes, unsupported column types, files the mapping cannot
+ * cover); the caller then uses the GeoTools path.
+ *
+ * Records are decoded in batches on a pool of parallelism threads (see
+ * readRecords); the resulting table is the same for any thread count.
+ */
+final class MappedShapefileReader {
+
+    private static final int SHP_FILE_CODE = 9994;
+    private static final int SHP_HEADER_LENGTH = 100;
+    private static final int SHAPE_NULL = 0;
+    private static final int SHAPE_POLYLINE = 3;
+    private static final int SHAPE_POLYLINE_Z = 13;
+    private static final int SHAPE_POLYLINE_M = 23;
+    private static final int BATCH_RECORDS = 4096;
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final boolean debugMode;
+    private final int debugPrintLimit;
+    private final String weightAttribute;
+    private final NodeManager nodes;
+    private final int parallelism;
+
+    MappedShapefileReader(boolean debugMode, int debugPrintLimit, String weightAttribute, NodeManager nodes, int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.debugMode = debugMode;
+        this.debugPrintLimit = debugPrintLimit;
+        this.weightAttribute = weightAttribute;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Loads the shapefile, or returns null if it uses a variant this reader does not
+     * decode. typeName is the feature type name, used for the fallback feature IDs.
+     */
+    LinkTable load(File shapefile, String typeName) throws IOException {
+        File dbfFile = sibling(shapefile, ".dbf");
+        if (dbfFile == null) {
+            return null;
+        }
+        try (FileChannel shpChannel = FileChannel.open(shapefile.toPath(), StandardOpenOption.READ);
+             FileChannel dbfChannel = FileChannel.open(dbfFile.toPath(), StandardOpenOption.READ)) {
+            if (shpChannel.size() > Integer.MAX_VALUE || dbfChannel.size() > Integer.MAX_VALUE
+                    || shpChannel.size() < SHP_HEADER_LENGTH) {
+                return null;
+            }
+            ByteBuffer shp = shpChannel.map(FileChannel.MapMode.READ_ONLY, 0, shpChannel.size());
+            ByteBuffer dbf = dbfChannel.map(FileChannel.MapMode.READ_ONLY, 0, dbfChannel.size());
+            shp.order(ByteOrder.LITTLE_ENDIAN);
+            dbf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (Integer.reverseBytes(shp.getInt(0)) != SHP_FILE_CODE || !isPolyLine(shp.getInt(32))) {
+                if (debugMode) {
+                    System.out.println("Direct reader: " + shapefile.getName() + " is not a PolyLine shapefile.");
+                }
+                return null;
+            }
+            DbfLayout layout = DbfLayout.read(dbf);
+            if (layout == null) {
+                return null;
+            }
+            DbfColumn idCol = layout.column("ID");
+            DbfColumn typeCol = layout.column("TYPE");
+            DbfColumn data1Col = layout.column("DATA1");
+            DbfColumn twoSidedCol = layout.column("isTwoSided");
+            DbfColumn combinedCol = layout.column("combinedId");
+            DbfColumn weightCol = weightAttribute != null ? layout.column(weightAttribute) : null;
+            for (DbfColumn col : new DbfColumn[] {idCol, typeCol, data1Col, twoSidedCol, combinedCol, weightCol}) {
+                if (col != null && !col.isSupported()) {
+                    if (debugMode) {
+                        System.out.println("Direct reader: column " + col.name + " has unsupported DBF type '" + col.type + "'.");
+                    }
+                    return null;
+                }
+            }
+            if (weightAttribute != null && weightCol == null) {
+                System.err.println("Warning: Weight attribute '" + weightAttribute + "' not found in " + shapefile.getName() + ".");
+            }
+
+            // The header length is in 16-bit words; trust the real size if they disagree.
+            long declaredLength = 2L * Integer.reverseBytes(shp.getInt(24));
+            int shpEnd = (int) Math.min(declaredLength, shp.capacity());
+            Columns columns = new Columns(idCol, typeCol, data1Col, twoSidedCol, combinedCol, weightCol);
+            return readRecords(shapefile, typeName, shp, dbf, shpEnd, layout, columns);
+        }
+    }
+
+    /*
+     * The calling thread scans the .shp record headers and cuts them into batches.
+     * Each batch is decoded and validated as a pool task; finished batches are then
+     * appended to the table strictly in file order, which is also where endpoints
+     * are snapped, so node ids and log output do not depend on the thread count.
+     * At most a few batches per thread are in flight at any time.
+     */
+    private LinkTable readRecords(File shapefile, String typeName, ByteBuffer shp, ByteBuffer dbf,
+                                  int shpEnd, DbfLayout layout, Columns columns) throws IOException {
+        LinkTable table = new LinkTable(layout.recordCount, nodes);
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        Deque<Future<DecodedBatch>> inFlight = new ArrayDeque<>();
+        try {
+            int pos = SHP_HEADER_LENGTH;
+            int recordNumber = 0;
+            boolean truncated = false;
+            int[] offsets = new int[BATCH_RECORDS];
+            int batchSize = 0;
+            int batchFirstRecord = 1;
+            while (pos + 12 <= shpEnd && recordNumber < layout.recordCount) {
+                int next = pos + 8 + 2 * Integer.reverseBytes(shp.getInt(pos + 4));
+                if (next > shpEnd || layout.headerLength + (long) (recordNumber + 1) * layout.recordLength > dbf.capacity()) {
+                    truncated = true;
+                    break;
+                }
+                offsets[batchSize++] = pos;
+                recordNumber++;
+                pos = next;
+                if (batchSize == BATCH_RECORDS) {
+                    BatchDecoder decoder = new BatchDecoder(shp, dbf, layout, columns, typeName, offsets, batchSize, batchFirstRecord);
+                    if (!submit(pool, decoder, inFlight, table)) {
+                        return null;
+                    }
+                    offsets = new int[BATCH_RECORDS];
+                    batchSize = 0;
+                    batchFirstRecord = recordNumber + 1;
+                }
+            }
+            if (batchSize > 0) {
+                BatchDecoder decoder = new BatchDecoder(shp, dbf, layout, columns, typeName, offsets, batchSize, batchFirstRecord);
+                if (!submit(pool, decoder, inFlight, table)) {
+                    return null;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                if (!append(inFlight.poll().get(), table)) {
+                    return null;
+                }
+            }
+            if (truncated) {
+                System.err.println("Warning: Truncated shapefile record " + (recordNumber + 1) + " in " + shapefile.getName() + ".");
+            }
+            return table;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + shapefile.getName(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error decoding " + shapefile.getName() + ": " + e.getCause(), e.getCause());
+        } finally {
+            for (Future<DecodedBatch> pending : inFlight) {
+                pending.cancel(true);
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Queues a batch (or decodes it right away without a pool), appending finished
+    // batches once enough are in flight. Returns false if the file has to fall back.
+    private boolean submit(ForkJoinPool pool, BatchDecoder decoder, Deque<Future<DecodedBatch>> inFlight, LinkTable table)
+            throws InterruptedException, ExecutionException {
+        if (pool == null) {
+            return append(decoder.call(), table);
+        }
+        inFlight.add(pool.submit(decoder));
+        while (inFlight.size() > IN_FLIGHT_PER_THREAD * parallelism) {
+            if (!append(inFlight.poll().get(), table)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Adds a decoded batch to the table, replaying its messages in record order.
+    private boolean append(DecodedBatch batch, LinkTable table) {
+        if (batch.unsupported) {
+            if (debugMode) {
+                System.out.println("Direct reader: unexpected shape in record " + batch.unsupportedRecord + "; using GeoTools reader.");
+            }
+            return false;
+        }
+        int message = 0;
+        for (int i = 0; i < batch.rows; i++) {
+            message = batch.printMessages(message, i);
+            int row = table.add(batch.id[i], batch.type[i], batch.combinedId[i], batch.data1[i], batch.twoSided[i],
+                    batch.x0[i], batch.y0[i], batch.x1[i], batch.y1[i], batch.length[i], batch.weight[i], batch.offset[i],
+                    batch.geometryHash[i]);
+            if (debugMode) {
+                if (table.size() <= debugPrintLimit) {
+                    System.out.println("Loaded Link ID: " + batch.id[i] + ", Type: " + batch.type[i] + ", CombinedID: " + table.combinedId(row) + ", DATA1: " + batch.data1[i]);
+                } else if (table.size() == debugPrintLimit + 1) {
+                    System.out.println("... (" + (table.size() - debugPrintLimit) + " more links loaded)");
+                }
+            }
+        }
+        batch.printMessages(message, batch.rows);
+        return true;
+    }
+
+    // The DBF columns the loader reads; any of them may be absent (null).
+    private static final class Columns {
+        final DbfColumn id;
+        final DbfColumn type;
+        final DbfColumn data1;
+        final DbfColumn twoSided;
+        final DbfColumn combinedId;
+        final DbfColumn weight;
+
+        Columns(DbfColumn id, DbfColumn type, DbfColumn data1, DbfColumn twoSided, DbfColumn combinedId, DbfColumn weight) {
+            this.id = id;
+            this.type = type;
+            this.data1 = data1;
+            this.twoSided = twoSided;
+            this.combinedId = combinedId;
+            this.weight = weight;
+        }
+    }
+
+    // Decodes and validates one batch of records, collecting the accepted rows.
+    private final class BatchDecoder implements Callable<DecodedBatch> {
+        private final ByteBuffer shp;
+        private final ByteBuffer dbf;
+        private final DbfLayout layout;
+        private final Columns columns;
+        private final String typeName;
+        private final int[] offsets;
+        private final int count;
+        private final int firstRecord;
+
+        BatchDecoder(ByteBuffer shp, ByteBuffer dbf, DbfLayout layout, Columns columns, String typeName,
+                     int[] offsets, int count, int firstRecord) {
+            // Private views, so no buffer state is shared between threads.
+            this.shp = shp.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.dbf = dbf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.layout = layout;
+            this.columns = columns;
+            this.typeName = typeName;
+            this.offsets = offsets;
+            this.count = count;
+            this.firstRecord = firstRecord;
+        }
+
+        @Override
+        public DecodedBatch call() {
+            DecodedBatch batch = new DecodedBatch(count);
+            for (int r = 0; r < count; r++) {
+                int recordNumber = firstRecord + r;
+                int recordOffset = offsets[r];
+                int contentLength = 2 * Integer.reverseBytes(shp.getInt(recordOffset + 4));
+                int content = recordOffset + 8;
+                int dbfRecord = layout.headerLength + (recordNumber - 1) * layout.recordLength;
+                String featureId = typeName + "." + recordNumber;
+                if (dbf.get(dbfRecord) == '*') {
+                    if (debugMode) {
+                        batch.message(false, "Skipping deleted record. Feature ID: " + featureId);
+                    }
+                    continue;
+                }
+
+                int shapeType = shp.getInt(content);
+                int numParts = shapeType == SHAPE_NULL ? 0 : shp.getInt(content + 36);
+                int numPoints = shapeType == SHAPE_NULL ? 0 : shp.getInt(content + 40);
+                // As in the GeoTools path, a line needs two coordinates.
+                if (numParts < 1 || numPoints < 2) {
+                    if (debugMode) {
+                        batch.message(false, "Skipping feature with insufficient geometry. Feature ID: " + featureId);
+                    }
+                    continue;
+                }
+                if (!isPolyLine(shapeType) || 44 + 4L * numParts + 16L * numPoints > contentLength) {
+                    batch.unsupported = true;
+                    batch.unsupportedRecord = recordNumber;
+                    return batch;
+                }
+
+                double data1Value = -1;
+                if (columns.data1 != null && !columns.data1.isNull(dbf, dbfRecord)) {
+                    data1Value = columns.data1.number(dbf, dbfRecord);
+                    if (Double.isNaN(data1Value)) {
+                        batch.message(true, "Warning: Invalid DATA1 value '" + columns.data1.text(dbf, dbfRecord) + "' for feature ID: " + featureId);
+                        data1Value = -1;
+                    }
+                }
+
+                if (columns.type == null || columns.type.isNull(dbf, dbfRecord)) {
+                    batch.message(true, "Warning: TYPE attribute is null for feature ID: " + featureId);
+                    continue;
+                }
+                String typeStr = columns.type.text(dbf, dbfRecord);
+                try {
+                    Integer.parseInt(typeStr);
+                } catch (NumberFormatException e) {
+                    batch.message(true, "Warning: Invalid TYPE value '" + typeStr + "' for feature ID: " + featureId);
+                    continue;
+                }
+
+                String fid = (columns.id != null && !columns.id.isNull(dbf, dbfRecord)) ? columns.id.text(dbf, dbfRecord) : featureId;
+                boolean isTwoSided = false;
+                if (columns.twoSided != null && !columns.twoSided.isNull(dbf, dbfRecord)) {
+                    isTwoSided = columns.twoSided.isTrue(dbf, dbfRecord);
+                }
+                String combined = fid;
+                if (columns.combinedId != null && !columns.combinedId.isNull(dbf, dbfRecord)) {
+                    combined = columns.combinedId.text(dbf, dbfRecord);
+                }
+                double weightValue = Double.NaN;
+                if (columns.weight != null && !columns.weight.isNull(dbf, dbfRecord)) {
+                    weightValue = columns.weight.number(dbf, dbfRecord);
+                }
+
+                // Endpoints are the first and last point; the length sums each part
+                // separately, like a JTS MultiLineString.
+                int points = content + 44 + 4 * numParts;
+                long geomHash = LinkTable.GEOMETRY_HASH_SEED;
+                for (int p = 0; p < numPoints; p++) {
+                    geomHash = LinkTable.hashPoint(geomHash, shp.getDouble(points + 16 * p), shp.getDouble(points + 16 * p + 8));
+                }
+                double length = 0.0;
+                for (int part = 0; part < numParts; part++) {
+                    int first = shp.getInt(content + 44 + 4 * part);
+                    int last = (part + 1 < numParts ? shp.getInt(content + 48 + 4 * part) : numPoints) - 1;
+                    for (int p = first; p < last; p++) {
+                        int at = points + 16 * p;
+                        double dx = shp.getDouble(at + 16) - shp.getDouble(at);
+                        double dy = shp.getDouble(at + 24) - shp.getDouble(at + 8);
+                        length += Math.sqrt(dx * dx + dy * dy);
+                    }
+                }
+                int lastPoint = points + 16 * (numPoints - 1);
+                batch.add(fid, typeStr, combined, data1Value, isTwoSided,
+                        shp.getDouble(points), shp.getDouble(points + 8), shp.getDouble(lastPoint), shp.getDouble(lastPoint + 8),
+                        length, weightValue, recordOffset, geomHash);
+            }
+            return batch;
+        }
+    }
+
+    // Rows accepted from one batch, plus the messages raised while decoding it.
+    private static final class DecodedBatch {
+        int rows;
+        final String[] id;
+        final String[] type;
+        final String[] combinedId;
+        final double[] data1;
+        final boolean[] twoSided;
+        final double[] x0;
+        final double[] y0;
+        final double[] x1;
+        final double[] y1;
+        final double[] length;
+        final double[] weight;
+        final int[] offset;
+        final long[] geometryHash;
+        boolean unsupported;
+        int unsupportedRecord;
+
+        // Message i was raised before row messageRow[i] of the batch was accepted.
+        private final List<String> messages = new ArrayList<>();
+        private final List<Integer> messageRow = new ArrayList<>();
+        private final List<Boolean> messageIsError = new ArrayList<>();
+
+        DecodedBatch(int capacity) {
+            id = new String[capacity];
+            type = new String[capacity];
+            combinedId = new String[capacity];
+            data1 = new double[capacity];
+            twoSided = new boolean[capacity];
+            x0 = new double[capacity];
+            y0 = new double[capacity];
+            x1 = new double[capacity];
+            y1 = new double[capacity];
+            length = new double[capacity];
+            weight = new double[capacity];
+            offset = new int[capacity];
+            geometryHash = new long[capacity];
+        }
+
+        void add(String fid, String typeStr, String combined, double data1Value, boolean isTwoSided,
+                 double sx, double sy, double ex, double ey, double len, double weightValue, int recordOffset, long geomHash) {
+            int i = rows++;
+            id[i] = fid;
+            type[i] = typeStr;
+            combinedId[i] = combined;
+            data1[i] = data1Value;
+            twoSided[i] = isTwoSided;
+            x0[i] = sx;
+            y0[i] = sy;
+            x1[i] = ex;
+            y1[i] = ey;
+            length[i] = len;
+            weight[i] = weightValue;
+            offset[i] = recordOffset;
+            geometryHash[i] = geomHash;
+        }
+
+        void message(boolean isError, String text) {
+            messages.add(text);
+            messageRow.add(rows);
+            messageIsError.add(isError);
+        }
+
+        // Prints the messages from index from that precede the given row; returns the next index.
+        int printMessages(int from, int row) {
+            int i = from;
+            while (i < messages.size() && messageRow.get(i) <= row) {
+                (messageIsError.get(i) ? System.err : System.out).println(messages.get(i));
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private static boolean isPolyLine(int shapeType) {
+        return shapeType == SHAPE_POLYLINE || shapeType == SHAPE_POLYLINE_Z || shapeType == SHAPE_POLYLINE_M;
+    }
+
+    // The .dbf next to the .shp, matching the extension's case like ShpFiles does.
+    private static File sibling(File shapefile, String extension) {
+        String name = shapefile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot >= 0 ? name.substring(0, dot) : name;
+        File lower = new File(shapefile.getParentFile(), base + extension);
+        if (lower.exists()) {
+            return lower;
+        }
+        File upper = new File(shapefile.getParentFile(), base + extension.toUpperCase());
+        return upper.exists() ? upper : null;
+    }
+
+    // Record layout of a dBASE III/IV table.
+    static final class DbfLayout {
+        final int recordCount;
+        final int headerLength;
+        final int recordLength;
+        final DbfColumn[] columns;
+
+        private DbfLayout(int recordCount, int headerLength, int recordLength, DbfColumn[] columns) {
+            this.recordCount = recordCount;
+            this.headerLength = headerLength;
+            this.recordLength = recordLength;
+            this.columns = columns;
+        }
+
+        static DbfLayout read(ByteBuffer dbf) {
+            if (dbf.capacity() < 32) {
+                return null;
+            }
+            int recordCount = dbf.getInt(4);
+            int headerLength = dbf.getShort(8) & 0xFFFF;
+            int recordLength = dbf.getShort(10) & 0xFFFF;
+            int fieldCount = (headerLength - 33) / 32;
+            if (recordCount < 0 || fieldCount < 0 || headerLength > dbf.capacity()) {
+                return null;
+            }
+            DbfColumn[] columns = new DbfColumn[fieldCount];
+            int offset = 1; // each record starts with the deletion flag
+            int n = 0;
+            for (int i = 0; i < fieldCount; i++) {
+                int at = 32 + 32 * i;
+                if (dbf.get(at) == 0x0D) {
+                    break;
+                }
+                int nameLength = 0;
+                while (nameLength < 11 && dbf.get(at + nameLength) != 0) {
+                    nameLength++;
+                }
+                byte[] name = new byte[nameLength];
+                for (int c = 0; c < nameLength; c++) {
+                    name[c] = dbf.get(at + c);
+                }
+                char type = (char) dbf.get(at + 11);
+                int length = dbf.get(at + 16) & 0xFF;
+                int decimals = dbf.get(at + 17) & 0xFF;
+                columns[n++] = new DbfColumn(new String(name, StandardCharsets.ISO_8859_1).trim(), type, offset, length, decimals);
+                offset += length;
+            }
+            if (offset > recordLength) {
+                return null;
+            }
+            DbfColumn[] used = new DbfColumn[n];
+            System.arraycopy(columns, 0, used, 0, n);
+            return new DbfLayout(recordCount, headerLength, recordLength, used);
+        }
+
+        DbfColumn column(String name) {
+            for (DbfColumn col : columns) {
+                if (col.name.equals(name)) {
+                    return col;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One fixed-width DBF column. Values are decoded from the mapped record bytes
+     * (ISO-8859-1, one byte per char) the way GeoTools decodes them: character
+     * columns trimmed, numeric columns without decimals as integers, the rest as
+     * doubles, and logical columns from T/t/Y/y and F/f/N/n.
+     */
+    static final class DbfColumn {
+        // Never a plainLong result: the magnitude of Long.MIN_VALUE overflows the accumulator.
+        private static final long NOT_PLAIN = Long.MIN_VALUE;
+
+        final String name;
+        final char type;
+        final int offset;
+        final int length;
+        final int decimals;
+
+        DbfColumn(String name, char type, int offset, int length, int decimals) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.decimals = decimals;
+        }
+
+        boolean isSupported() {
+            return type == 'C' || type == 'N' || type == 'F' || type == 'L';
+        }
+
+        private boolean isNumeric() {
+            return type == 'N' || type == 'F';
+        }
+
+        // Whether GeoTools would read the value as null.
+        boolean isNull(ByteBuffer dbf, int record) {
+            int start = record + offset;
+            if (type == 'L') {
+                char c = (char) dbf.get(start);
+                return "TtYyFfNn".indexOf(c) < 0;
+            }
+            if (isNumeric()) {
+                int from = trimStart(dbf, start);
+                int to = trimEnd(dbf, start, from);
+                return from == to || Double.isNaN(parse(dbf, from, to));
+            }
+            return false;
+        }
+
+        // The value as text, as String.valueOf would print the decoded GeoTools value.
+        String text(ByteBuffer dbf, int record) {
+            int start = record + offset;
+            if (type == 'L') {
+                return String.valueOf(isTrue(dbf, record));
+            }
+            int from = trimStart(dbf, start);
+            int to = trimEnd(dbf, start, from);
+            if (isIntegral()) {
+                // Exact, as GeoTools decodes these columns to Integer or Long.
+                long value = plainLong(dbf, from, to);
+                if (value != NOT_PLAIN) {
+                    return String.valueOf(value);
+                }
+            }
+            if (isNumeric()) {
+                double value = parse(dbf, from, to);
+                if (!Double.isNaN(value)) {
+                    return isIntegral() ? String.valueOf((long) value) : String.valueOf(value);
+                }
+            }
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = dbf.get(from + i);
+            }
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        // The value as a number, or NaN if it does not parse.
+        double number(ByteBuffer dbf, int record) {
+            if (isNumeric()) {
+                int from = trimStart(dbf, record + offset);
+                return parse(dbf, from, trimEnd(dbf, record + offset, from));
+            }
+            if (type == 'L') {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(text(dbf, record));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        // Boolean.parseBoolean of the decoded value's text.
+        boolean isTrue(ByteBuffer dbf, int record) {
+            if (type == 'L') {
+                return "TtYy".indexOf((char) dbf.get(record + offset)) >= 0;
+            }
+            return Boolean.parseBoolean(text(dbf, record));
+        }
+
+        private boolean isIntegral() {
+            return type == 'N' && decimals == 0;
+        }
+
+        // First non-blank byte of the field starting at start.
+        private int trimStart(ByteBuffer dbf, int start) {
+            int from = start;
+            while (from < start + length && (dbf.get(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            return from;
+        }
+
+        // End (exclusive) of the field starting at start, without trailing blanks.
+        private int trimEnd(ByteBuffer dbf, int start, int from) {
+            int to = start + length;
+            while (to > from && (dbf.get(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+            return to;
+        }
+
+        // An optional sign and digits that fit a long, accumulated in place; NOT_PLAIN for anything else.
+        private static long plainLong(ByteBuffer dbf, int from, int to) {
+            int i = from;
+            boolean negative = false;
+            if (i < to && (dbf.get(i) == '-' || dbf.get(i) == '+')) {
+                negative = dbf.get(i) == '-';
+                i++;
+            }
+            if (i == to) {
+                return NOT_PLAIN;
+            }
+            long value = 0;
+            for (int p = i; p < to; p++) {
+                byte b = dbf.get(p);
+                if (b < '0' || b > '9' || value > (Long.MAX_VALUE - (b - '0')) / 10) {
+                    return NOT_PLAIN;
+                }
+                value = value * 10 + (b - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        // Plain integers are accumulated in place (and rounded once); anything else
+        // goes through Double.parseDouble so the result is correctly rounded.
+        private double parse(ByteBuffer dbf, int from, int to) {
+            if (from == to) {
+                return Double.NaN;
+            }
+            long plain = plainLong(dbf, from, to);
+            if (plain != NOT_PLAIN) {
+                return plain;
+            }
+            char[] chars = new char[to - from];
+            for (int p = from; p < to; p++) {
+                chars[p - from] = (char) (dbf.get(p) & 0xFF);
+            }
+            try {
+                double parsed = Double.parseDouble(new String(chars));
+                if (isIntegral() && parsed != Math.rint(parsed)) {
+                    return Double.NaN;
+                }
+                return parsed;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.ShapefileDataStoreFactory;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Writes several output files in one pass over the links. Each link's geometry is
+ * read from the input .shp and reprojected once (chunk by chunk, see
+ * ReprojectedChunk), and the record is handed to every sink that includes the
+ * link. Sinks write on their own threads, fed through bounded queues, so the
+ * spatial files (shapefile, GeoPackage or FlatGeobuf) and the CSV are written
+ * concurrently while the calling thread reads and reprojects.
+ *
+ * A sink that fails keeps draining its queue without writing, so the other sinks
+ * finish; its error is left in getFailure() for the caller to report.
+ */
+final class OutputFanout {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int CHUNK_LINKS = 4096;
+    private static final Record END = new Record(null, null, 0, 0.0);
+
+    // Transforms by target EPSG code and source CRS, so repeated writes and batch
+    // scenarios decode the CRS and search for the transform once.
+    private static final Map<String, MathTransform> TRANSFORMS = new ConcurrentHashMap<>();
+
+    private final File inputShapefile;
+    private final CoordinateReferenceSystem sourceCRS;
+    private final String epsgCode;
+    private final int parallelism;
+
+    /**
+     * @param parallelism Threads for reprojecting a chunk of links.
+     */
+    OutputFanout(File inputShapefile, CoordinateReferenceSystem sourceCRS, String epsgCode, int parallelism) {
+        this.inputShapefile = inputShapefile;
+        this.sourceCRS = sourceCRS;
+        this.epsgCode = epsgCode;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // The transform from the source CRS to the EPSG code, decoded on first use.
+    static MathTransform transform(CoordinateReferenceSystem sourceCRS, String epsgCode) throws FactoryException {
+        if (sourceCRS == null) {
+            throw new IllegalStateException("The input shapefile has no coordinate reference system");
+        }
+        String key = epsgCode + "\n" + sourceCRS.toWKT();
+        MathTransform transform = TRANSFORMS.get(key);
+        if (transform == null) {
+            transform = CRS.findMathTransform(sourceCRS, CRS.decode(epsgCode), true);
+            TRANSFORMS.putIfAbsent(key, transform);
+        }
+        return transform;
+    }
+
+    /**
+     * Writes links to all sinks and waits for them to finish.
+     *
+     * @param centrality Centrality per link for the sinks that write the score at
+     *                   selection time (see Sink), or null to use link.centrality.
+     */
+    void write(List<Link> links, double[] centrality, List<Sink> sinks) {
+        boolean needGeometry = false;
+        for (Sink sink : sinks) {
+            needGeometry |= sink.needsGeometry();
+        }
+        MathTransform transform = null;
+        if (needGeometry) {
+            try {
+                transform = transform(sourceCRS, epsgCode);
+            } catch (Exception e) {
+                failGeometrySinks(sinks, "Error writing features", e);
+                needGeometry = false;
+            }
+        }
+
+        // A thread per sink: sinks block on their queues, which a work-stealing pool does not account for.
+        ExecutorService pool = Executors.newFixedThreadPool(sinks.size());
+        List<Future<Void>> done = new ArrayList<>(sinks.size());
+        for (Sink sink : sinks) {
+            done.add(pool.submit(sink));
+        }
+        // Links are read in chunks, and each chunk is reprojected as one packed coordinate array.
+        ForkJoinPool transformPool = needGeometry && parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try (ShapefileGeometrySource geometries = new ShapefileGeometrySource(inputShapefile)) {
+            for (int from = 0; from < links.size(); from += CHUNK_LINKS) {
+                int to = Math.min(links.size(), from + CHUNK_LINKS);
+                ReprojectedChunk chunk = null;
+                if (needGeometry) {
+                    try {
+                        Geometry[] sources = new Geometry[to - from];
+                        for (int i = from; i < to; i++) {
+                            Link link = links.get(i);
+                            sources[i - from] = geometries.read(link.table.shpOffset(link.row));
+                        }
+                        chunk = ReprojectedChunk.reproject(sources, transform, transformPool, parallelism);
+                    } catch (Exception e) {
+                        // As before, a geometry that cannot be read or reprojected fails the spatial files only.
+                        failGeometrySinks(sinks, "Error writing features", e);
+                        needGeometry = false;
+                    }
+                }
+                for (int i = from; i < to; i++) {
+                    Link link = links.get(i);
+                    Record record = new Record(link, chunk, i - from, centrality != null ? centrality[i] : link.centrality);
+                    for (Sink sink : sinks) {
+                        if (sink.accepts(link)) {
+                            sink.queue.put(record);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Sink sink : sinks) {
+                sink.fail("Output interrupted", e);
+            }
+        } catch (IOException e) {
+            failGeometrySinks(sinks, "Error writing features", e);
+        } finally {
+            try {
+                for (Sink sink : sinks) {
+                    sink.queue.put(END);
+                }
+                for (Future<Void> future : done) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Error in output writer: " + e.getCause());
+            } finally {
+                pool.shutdown();
+                if (transformPool != null) {
+                    transformPool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void failGeometrySinks(List<Sink> sinks, String message, Exception e) {
+        for (Sink sink : sinks) {
+            if (sink.needsGeometry()) {
+                sink.fail(message, e);
+            }
+        }
+    }
+
+    // One link on its way to the sinks.
+    static final class Record {
+        final Link link;
+        final double centrality; // the score at selection time
+        private final ReprojectedChunk chunk; // null when no sink needs geometry
+        private final int index;
+
+        Record(Link link, ReprojectedChunk chunk, int index, double centrality) {
+            this.link = link;
+            this.chunk = chunk;
+            this.index = index;
+            this.centrality = centrality;
+        }
+
+        // The reprojected geometry, built on first use; null for a null shape.
+        Geometry geometry() {
+            return chunk != null ? chunk.geometry(index) : null;
+        }
+
+        // The chunk with the link's packed coordinates, or null when no sink needs geometry.
+        ReprojectedChunk chunk() {
+            return chunk;
+        }
+
+        // The link's index in chunk().
+        int index() {
+            return index;
+        }
+    }
+
+    /**
+     * An output file written on its own thread. Records are taken from the queue
+     * until END; after a failure they are drained without writing. Errors are
+     * caught too, so the producer never blocks on the queue of a dead sink.
+     */
+    abstract static class Sink implements Callable<Void> {
+        final String path;
+        final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile String failureMessage;
+        private volatile Throwable failure;
+
+        Sink(String path) {
+            this.path = path;
+        }
+
+        boolean needsGeometry() {
+            return false;
+        }
+
+        // Whether the link belongs in this file.
+        boolean accepts(Link link) {
+            return true;
+        }
+
+        abstract void open() throws Exception;
+
+        abstract void write(Record record) throws Exception;
+
+        // Called after the last record when nothing failed, before close.
+        void finish() throws Exception {
+        }
+
+        abstract void close() throws Exception;
+
+        // Keeps the first failure.
+        synchronized void fail(String message, Throwable e) {
+            if (failure == null) {
+                failureMessage = message;
+                failure = e;
+            }
+        }
+
+        Throwable getFailure() {
+            return failure;
+        }
+
+        String getFailureMessage() {
+            return failureMessage;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            // Opened even after an earlier failure, so the file exists (possibly empty) as it did before.
+            boolean opened = false;
+            try {
+                open();
+                opened = true;
+            } catch (Throwable e) {
+                fail(openFailureMessage(), e);
+            }
+            try {
+                while (true) {
+                    Record record = queue.take();
+                    if (record == END) {
+                        break;
+                    }
+                    if (failure == null) {
+                        try {
+                            write(record);
+                        } catch (Throwable e) {
+                            fail(writeFailureMessage(), e);
+                        }
+                    }
+                }
+                if (opened && failure == null) {
+                    try {
+                        finish();
+                    } catch (Throwable e) {
+                        fail(writeFailureMessage(), e);
+                    }
+                }
+            } finally {
+                if (opened) {
+                    try {
+                        close();
+                    } catch (Throwable e) {
+                        fail(openFailureMessage(), e);
+                    }
+                }
+            }
+            return null;
+        }
+
+        abstract String openFailureMessage();
+
+        abstract String writeFailureMessage();
+    }
+
+    /**
+     * A spatial file of LinkSchema features, with OTHERSIDE for the representative
+     * schema. Links are written in the order given by links (buffering the ones
+     * that arrive early), or in arrival order when it is null.
+     */
+    abstract static class FeatureSink extends Sink {
+        final boolean representative;
+        private final boolean selectionCentrality;
+        private final IdentityHashMap<Link, Integer> order;
+        private final Map<Integer, Record> pending = new HashMap<>();
+        private int next;
+
+        /**
+         * @param selectionCentrality Write the score at selection time rather than
+         *                            link.centrality (which step 8.5 may have averaged).
+         * @param links The links of the file in output order, or null for all links in arrival order.
+         */
+        FeatureSink(String path, boolean representative, boolean selectionCentrality, List<Link> links) {
+            super(path);
+            this.representative = representative;
+            this.selectionCentrality = selectionCentrality;
+            if (links != null) {
+                order = new IdentityHashMap<>(links.size());
+                for (int i = 0; i < links.size(); i++) {
+                    order.put(links.get(i), i);
+                }
+            } else {
+                order = null;
+            }
+        }
+
+        @Override
+        boolean needsGeometry() {
+            return true;
+        }
+
+        @Override
+        boolean accepts(Link link) {
+            return order == null || order.containsKey(link);
+        }
+
+        @Override
+        final void write(Record record) throws Exception {
+            if (order == null) {
+                writeFeature(record);
+                return;
+            }
+            pending.put(order.get(record.link), record);
+            Record ready;
+            while ((ready = pending.remove(next)) != null) {
+                writeFeature(ready);
+                next++;
+            }
+        }
+
+        // A link of the order that never arrived would hold back every later one.
+        @Override
+        void finish() throws IOException {
+            if (order != null && (!pending.isEmpty() || next != order.size())) {
+                throw new IOException("Wrote " + next + " of " + order.size() + " features: link "
+                        + next + " never arrived");
+            }
+        }
+
+        abstract void writeFeature(Record record) throws Exception;
+
+        // The CENTRALITY value of the record.
+        double centrality(Record record) {
+            return selectionCentrality ? record.centrality : record.link.centrality;
+        }
+
+        // The output file, with its folder created if needed.
+        File outputFile() {
+            File f = new File(path);
+            File parentDir = f.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+            return f;
+        }
+
+        @Override
+        String writeFailureMessage() {
+            return "Error writing features";
+        }
+    }
+
+    // A shapefile, with a .qix spatial index unless disabled.
+    static final class ShapefileSink extends FeatureSink {
+        private final SimpleFeatureType featureType;
+        private final boolean spatialIndex;
+        private ShapefileDataStore store;
+        private FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+
+        ShapefileSink(String path, SimpleFeatureType featureType, boolean representative, boolean selectionCentrality,
+                      List<Link> links, boolean spatialIndex) {
+            super(path, representative, selectionCentrality, links);
+            this.featureType = featureType;
+            this.spatialIndex = spatialIndex;
+        }
+
+        @Override
+        void open() throws IOException {
+            File f = outputFile();
+            Map<String, Object> params = new HashMap<>();
+            params.put("url", f.toURI().toURL());
+            params.put("create spatial index", spatialIndex);
+            store = (ShapefileDataStore) new ShapefileDataStoreFactory().createNewDataStore(params);
+            if (store == null) {
+                throw new IllegalStateException("Error: Could not create ShapefileDataStore for: " + path);
+            }
+            store.createSchema(featureType);
+            store.setCharset(Charset.forName("UTF-8"));
+            String[] names = store.getTypeNames();
+            if (names == null || names.length == 0) {
+                store.dispose();
+                store = null;
+                throw new IOException("Error: No type name created in new shapefile.");
+            }
+            writer = store.getFeatureWriterAppend(names[0], null);
+        }
+
+        @Override
+        void writeFeature(Record record) throws IOException {
+            setAttributes(writer.next(), record, this);
+            writer.write();
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } finally {
+                if (store != null) {
+                    store.dispose();
+                }
+            }
+        }
+
+        @Override
+        String openFailureMessage() {
+            return "Error writing shapefile";
+        }
+    }
+
+    /**
+     * A GeoPackage with one feature table, written through the GeoTools JDBC store.
+     * Inserts are committed every COMMIT_FEATURES features, rather than one by one
+     * in auto-commit mode or all at once at the end. The table's SRS is the EPSG
+     * code the geometries are reprojected to; GeoTools adds the R-tree index.
+     */
+    static final class GeoPackageSink extends FeatureSink {
+        private static final int COMMIT_FEATURES = 10000;
+
+        private final SimpleFeatureType featureType;
+        private final String epsgCode;
+        private DataStore store;
+        private Transaction transaction;
+        private FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+        private int uncommitted;
+
+        GeoPackageSink(String path, SimpleFeatureType featureType, String epsgCode, boolean representative,
+                       boolean selectionCentrality, List<Link> links) {
+            super(path, representative, selectionCentrality, links);
+            this.featureType = featureType;
+            this.epsgCode = epsgCode;
+        }
+
+        @Override
+        void open() throws IOException, FactoryException {
+            File f = outputFile();
+            // A table that already exists cannot be created again.
+            Files.deleteIfExists(f.toPath());
+            Map<String, Object> params = new HashMap<>();
+            params.put("dbtype", "geopkg");
+            params.put("database", f.getPath());
+            store = DataStoreFinder.getDataStore(params);
+            if (store == null) {
+                throw new IOException("Error: GeoPackage support (gt-geopkg) is not available for: " + path);
+            }
+            SimpleFeatureType type = SimpleFeatureTypeBuilder.retype(featureType, CRS.decode(epsgCode));
+            store.createSchema(type);
+            transaction = new DefaultTransaction("write " + f.getName());
+            writer = store.getFeatureWriterAppend(type.getTypeName(), transaction);
+        }
+
+        @Override
+        void writeFeature(Record record) throws IOException {
+            setAttributes(writer.next(), record, this);
+            writer.write();
+            if (++uncommitted == COMMIT_FEATURES) {
+                transaction.commit();
+                uncommitted = 0;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+                if (transaction != null) {
+                    transaction.commit();
+                }
+            } finally {
+                try {
+                    if (transaction != null) {
+                        transaction.close();
+                    }
+                } finally {
+                    if (store != null) {
+                        store.dispose();
+                    }
+                }
+            }
+        }
+
+        @Override
+        String openFailureMessage() {
+            return "Error writing GeoPackage";
+        }
+    }
+
+    /**
+     * A FlatGeobuf file (see FlatGeobufWriter), optionally with a packed Hilbert
+     * R-tree. Coordinates are taken from the packed chunk of the record when it has
+     * them, so no JTS geometry is built for this file.
+     */
+    static final class FlatGeobufSink extends FeatureSink {
+        private static final String[] COLUMNS = {"ID", "TYPE", "GROUP", "CENTRALITY", "RMSE", "OTHERSIDE"};
+        private static final byte[] COLUMN_TYPES = {
+                FlatGeobufWriter.COLUMN_STRING, FlatGeobufWriter.COLUMN_STRING, FlatGeobufWriter.COLUMN_STRING,
+                FlatGeobufWriter.COLUMN_DOUBLE, FlatGeobufWriter.COLUMN_DOUBLE, FlatGeobufWriter.COLUMN_STRING};
+
+        private final String layerName;
+        private final String epsgCode;
+        private final boolean spatialIndex;
+        private final Object[] values;
+        private FlatGeobufWriter writer;
+        private double[] xy = new double[256];
+        private int[] ends = new int[16];
+
+        FlatGeobufSink(String path, String layerName, String epsgCode, boolean representative, boolean selectionCentrality,
+                       List<Link> links, boolean spatialIndex) {
+            super(path, representative, selectionCentrality, links);
+            this.layerName = layerName;
+            this.epsgCode = epsgCode;
+            this.spatialIndex = spatialIndex;
+            this.values = new Object[representative ? COLUMNS.length : COLUMNS.length - 1];
+        }
+
+        @Override
+        void open() throws IOException {
+            writer = new FlatGeobufWriter(outputFile(), layerName, Arrays.copyOf(COLUMNS, values.length),
+                    Arrays.copyOf(COLUMN_TYPES, values.length), epsg(epsgCode), spatialIndex);
+        }
+
+        @Override
+        void writeFeature(Record record) throws IOException {
+            Link link = record.link;
+            values[0] = link.id();
+            values[1] = link.type();
+            values[2] = link.group;
+            values[3] = centrality(record);
+            values[4] = link.rmse;
+            if (representative) {
+                values[5] = link.otherSideId;
+            }
+            ReprojectedChunk chunk = record.chunk();
+            int start = chunk != null ? chunk.pointStart(record.index()) : -1;
+            if (start >= 0) {
+                int parts = partEnds(chunk.source(record.index()));
+                writer.write(chunk.coordinates(), 2 * start, chunk.pointCount(record.index()), ends, parts, values);
+                return;
+            }
+            Geometry geometry = record.geometry();
+            if (geometry == null) {
+                writer.write(xy, 0, 0, ends, 0, values);
+                return;
+            }
+            int parts = partEnds(geometry);
+            int points = parts > 0 ? ends[parts - 1] : 0;
+            if (xy.length < 2 * points) {
+                xy = new double[Math.max(2 * points, 2 * xy.length)];
+            }
+            int at = 0;
+            for (Coordinate c : geometry.getCoordinates()) {
+                xy[at++] = c.x;
+                xy[at++] = c.y;
+            }
+            writer.write(xy, 0, points, ends, parts, values);
+        }
+
+        // Fills ends with the end point of each part of geometry and returns the number of parts.
+        private int partEnds(Geometry geometry) {
+            int parts = geometry.getNumGeometries();
+            if (ends.length < parts) {
+                ends = new int[Math.max(parts, 2 * ends.length)];
+            }
+            int end = 0;
+            for (int p = 0; p < parts; p++) {
+                end += geometry.getGeometryN(p).getNumPoints();
+                ends[p] = end;
+            }
+            return parts;
+        }
+
+        // The numeric code of "EPSG:2039", or 0 if it has none.
+        private static int epsg(String epsgCode) {
+            try {
+                return Integer.parseInt(epsgCode.substring(epsgCode.lastIndexOf(':') + 1).trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            writer.close();
+        }
+
+        @Override
+        String openFailureMessage() {
+            return "Error writing FlatGeobuf";
+        }
+    }
+
+    // The LinkSchema attributes of record (OTHERSIDE only for the representative schema).
+    private static void setAttributes(SimpleFeature ft, Record record, FeatureSink sink) {
+        Link link = record.link;
+        ft.setAttribute("the_geom", record.geometry());
+        ft.setAttribute("ID", link.id());
+        ft.setAttribute("TYPE", link.type());
+        ft.setAttribute("GROUP", link.group);
+        ft.setAttribute("CENTRALITY", sink.centrality(record));
+        ft.setAttribute("RMSE", link.rmse);
+        if (sink.representative) {
+            ft.setAttribute("OTHERSIDE", link.otherSideId);
+        }
+    }
+
+    // results.csv (gzipped as results.csv.gz): the selected links with their score at selection time.
+    static final class CsvSink extends Sink {
+        private CsvWriter csv;
+
+        CsvSink(String path) {
+            super(path);
+        }
+
+        @Override
+        void open() throws IOException {
+            File f = new File(path);
+            File par = f.getParentFile();
+            if (par != null && !par.exists()) {
+                par.mkdirs();
+            }
+            csv = new CsvWriter(f);
+            csv.text("ID,TYPE,GROUP,CENTRALITY,RMSE,DATA1,isTwoSided,COMBINED_ID,LENGTH");
+            csv.endRow();
+        }
+
+        @Override
+        void write(Record record) throws IOException {
+            Link link = record.link;
+            LinkTable table = link.table;
+            csv.text(table.strings(), table.idRef(link.row));
+            csv.text(link.type());
+            csv.text(link.group);
+            csv.fixed(record.centrality, 4);
+            csv.fixed(link.rmse, 4);
+            csv.fixed(link.data1(), 4);
+            csv.bool(link.isTwoSided());
+            csv.text(table.strings(), table.combinedRef(link.row));
+            csv.fixed(link.length(), 4);
+            csv.endRow();
+        }
+
+        @Override
+        void close() throws IOException {
+            csv.close();
+        }
+
+        @Override
+        String openFailureMessage() {
+            return "Error writing CSV";
+        }
+
+        @Override
+        String writeFailureMessage() {
+            return "Error writing CSV";
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.geotools.geometry.jts.JTS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * The reprojected geometries of a run of consecutive links.
+ *
+ * The x, y coordinates of all line geometries are packed into one array and
+ * transformed with MathTransform.transform(double[], ...), split into slices on a
+ * ForkJoinPool when the chunk is large. JTS geometries are rebuilt from the packed
+ * coordinates only when a writer asks for them, and then once per link however
+ * many writers use it.
+ *
+ * The result is the same as JTS.transform(geometry, transform): the transform is
+ * applied to the same coordinates point by point, and the rebuilt geometries keep
+ * the source structure (LineString, LinearRing, MultiLineString and their parts)
+ * and the Z and M ordinates of the source.
+ * Other geometry types, and transforms that are not 2D to 2D, go through
+ * JTS.transform directly.
+ */
+final class ReprojectedChunk {
+
+    // Fewer points than this per slice are not worth a task.
+    private static final int MIN_POINTS_PER_TASK = 4096;
+
+    private final Geometry[] sources; // null for null shapes
+    private final int[] pointStart;   // first point of geometry i in coords; pointStart[n] = total points
+    private final double[] coords;    // transformed x, y pairs
+    private final Geometry[] built;
+
+    private ReprojectedChunk(Geometry[] sources, int[] pointStart, double[] coords, Geometry[] built) {
+        this.sources = sources;
+        this.pointStart = pointStart;
+        this.coords = coords;
+        this.built = built;
+    }
+
+    /**
+     * Reprojects sources (which may contain nulls).
+     *
+     * @param pool Pool for the transform slices, or null to transform on the calling thread.
+     */
+    static ReprojectedChunk reproject(Geometry[] sources, MathTransform transform, ForkJoinPool pool, int parallelism)
+            throws TransformException {
+        int n = sources.length;
+        Geometry[] built = new Geometry[n];
+        int[] pointStart = new int[n + 1];
+        boolean packed = transform.getSourceDimensions() == 2 && transform.getTargetDimensions() == 2;
+        int points = 0;
+        for (int i = 0; i < n; i++) {
+            pointStart[i] = points;
+            Geometry source = sources[i];
+            if (source == null) {
+                continue;
+            }
+            if (packed && isLinear(source)) {
+                points += source.getNumPoints();
+            } else {
+                built[i] = JTS.transform(source, transform);
+            }
+        }
+        pointStart[n] = points;
+
+        double[] coords = new double[2 * points];
+        for (int i = 0; i < n; i++) {
+            if (sources[i] != null && built[i] == null) {
+                pack(sources[i], coords, 2 * pointStart[i]);
+            }
+        }
+        transform(coords, points, transform, pool, parallelism);
+        return new ReprojectedChunk(sources, pointStart, coords, built);
+    }
+
+    // The reprojected geometry of link i of the chunk, or null for a null shape.
+    synchronized Geometry geometry(int i) {
+        if (built[i] == null && sources[i] != null) {
+            built[i] = rebuild(sources[i], pointStart[i]);
+        }
+        return built[i];
+    }
+
+    /**
+     * Where the packed coordinates of link i start: its x, y pairs are at
+     * 2 * pointStart(i) in coordinates(), for pointCount(i) points, with the part
+     * structure of source(i). -1 for null shapes and geometries that were not packed;
+     * geometry(i) is the only form of those.
+     */
+    int pointStart(int i) {
+        return pointStart[i + 1] > pointStart[i] ? pointStart[i] : -1;
+    }
+
+    int pointCount(int i) {
+        return pointStart[i + 1] - pointStart[i];
+    }
+
+    // Shared and never changed after reproject: readers must not write to it.
+    double[] coordinates() {
+        return coords;
+    }
+
+    Geometry source(int i) {
+        return sources[i];
+    }
+
+    private static boolean isLinear(Geometry geometry) {
+        return geometry instanceof LineString || geometry instanceof MultiLineString;
+    }
+
+    private static void pack(Geometry source, double[] coords, int at) {
+        Coordinate[] coordinates = source.getCoordinates();
+        for (Coordinate c : coordinates) {
+            coords[at++] = c.x;
+            coords[at++] = c.y;
+        }
+    }
+
+    // One transform call for the whole array, or one per slice on the pool.
+    private static void transform(double[] coords, int points, MathTransform transform, ForkJoinPool pool, int parallelism)
+            throws TransformException {
+        int tasks = pool == null ? 1 : Math.min(parallelism, points / MIN_POINTS_PER_TASK);
+        if (tasks <= 1) {
+            transform.transform(coords, 0, coords, 0, points);
+            return;
+        }
+        List<Callable<Void>> slices = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            int from = (int) ((long) points * t / tasks);
+            int to = (int) ((long) points * (t + 1) / tasks);
+            slices.add(() -> {
+                transform.transform(coords, 2 * from, coords, 2 * from, to - from);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> slice : pool.invokeAll(slices)) {
+                slice.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransformException("Reprojection interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TransformException) {
+                throw (TransformException) e.getCause();
+            }
+            throw new TransformException("Reprojection failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    // The source structure over the transformed coordinates from point index start.
+    private Geometry rebuild(Geometry source, int start) {
+        GeometryFactory factory = source.getFactory();
+        Geometry geometry;
+        if (source instanceof MultiLineString) {
+            LineString[] lines = new LineString[source.getNumGeometries()];
+            int at = start;
+            for (int p = 0; p < lines.length; p++) {
+                LineString part = (LineString) source.getGeometryN(p);
+                lines[p] = line(factory, part, at);
+                at += part.getNumPoints();
+            }
+            geometry = factory.createMultiLineString(lines);
+        } else {
+            geometry = line(factory, (LineString) source, start);
+        }
+        geometry.setUserData(source.getUserData());
+        return geometry;
+    }
+
+    // Copies of the source coordinates with x, y replaced, so that Z and M (PolyLineZ
+    // and PolyLineM input) are carried over as JTS.transform carries them for a 2D transform.
+    private LineString line(GeometryFactory factory, LineString source, int start) {
+        Coordinate[] coordinates = new Coordinate[source.getNumPoints()];
+        for (int i = 0; i < coordinates.length; i++) {
+            Coordinate c = source.getCoordinateN(i).copy();
+            c.x = coords[2 * (start + i)];
+            c.y = coords[2 * (start + i) + 1];
+            coordinates[i] = c;
+        }
+        return source instanceof LinearRing ? factory.createLinearRing(coordinates) : factory.createLineString(coordinates);
+    }
+}
@@ -0,0 +1,492 @@
+package com.golan;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Run settings read from a properties file, mirroring the LinkDistributorLogic
+ * constructor and setters. Every key but input and output is optional and
+ * defaults to the value the UI starts with:
+ *
+ * <pre>
+ * input=/data/network.shp
+ * output=/data/out
+ * epsg=2039
+ * filterRamps=true
+ * rampValues=13,14,15
+ * roadTypes=1,2,3,4,5,6
+ * combineTwoSided=true
+ * weighting=HOPS                 # HOPS, LENGTH, ATTRIBUTE or TRAVEL_TIME
+ * weightAttribute=SPEED          # for ATTRIBUTE and TRAVEL_TIME
+ * directed=false
+ * snapTolerance=0.01
+ * rmse=Group1:0.15,Group2:0.20,Group3:0.25,Group4:0.30,Group5:0.30,Group6:0.40,Other:0.0
+ * approximate=false
+ * pivots=0                       # 0 = derived from targetError/confidence
+ * targetError=0.05
+ * confidence=0.95
+ * seed=42
+ * incremental=false
+ * cache=true                     # reuse centrality from the on-disk cache
+ * cacheDir=/data/cache           # default: centrality_cache in the output folder
+ * cacheMaxMB=1024
+ * selection=TOP_CENTRALITY       # TOP_CENTRALITY, MIN_SPACING or CELL_QUOTA
+ * spacing=1000
+ * cellQuota=1
+ * threads=8                      # centrality, statistics and reprojection threads (default: all cores)
+ * loadThreads=8                  # shapefile decoding threads (default: all cores)
+ * outputFormats=SHAPEFILE       # SHAPEFILE, GEOPACKAGE and/or FLATGEOBUF, comma-separated
+ * spatialIndex=true              # .qix for shapefiles, packed Hilbert R-tree for FlatGeobuf
+ * gzipCsv=false                  # results.csv.gz instead of results.csv
+ * scoreIndex=true                # network_scores.bin, every link's score indexed by link ID
+ * debug=false
+ * debugPrintLimit=100
+ * prometheusFile=/var/lib/node_exporter/textfile/link_distributor.prom   # stage metrics in Prometheus format
+ * </pre>
+ *
+ * A single group's RMSE can also be set as rmse.GROUP=value. An rmse list given
+ * on the command line or for a scenario replaces the rmse.GROUP values inherited
+ * from the file.
+ *
+ * The same settings can be given as a JSON object (a file ending in .json). Nested
+ * objects become dotted keys, arrays comma-separated values and null leaves a
+ * setting at its default:
+ *
+ * <pre>
+ * {
+ *   "input": "/data/network.shp",
+ *   "output": "/data/out",
+ *   "roadTypes": [1, 2, 3],
+ *   "rmse": { "Group1": 0.15, "Group2": 0.20 },
+ *   "approximate": true,
+ *   "pivots": 500
+ * }
+ * </pre>
+ *
+ * Invalid values are reported as IllegalArgumentException naming the key.
+ */
+final class RunConfig {
+
+    // The group RMSE values the UI starts with.
+    static final String DEFAULT_RMSE = "Group1:0.15,Group2:0.20,Group3:0.25,Group4:0.30,Group5:0.30,Group6:0.40,Other:0.0";
+
+    private final Map<String, String> values;
+
+    RunConfig(Map<String, String> values) {
+        this.values = values;
+    }
+
+    // Reads a .json file (see Json) or a properties file.
+    static RunConfig load(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".json")) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            Map<String, String> values = new LinkedHashMap<>();
+            try {
+                new Json(text).readDocument(values);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file.getName() + ": " + e.getMessage());
+            }
+            return new RunConfig(values);
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key).trim());
+        }
+        return new RunConfig(values);
+    }
+
+    // This configuration with the given settings replacing its own.
+    RunConfig with(Map<String, String> settings) {
+        return new RunConfig(overlay(values, settings));
+    }
+
+    /**
+     * This configuration with the keys under {@code prefix + "."} laid over it,
+     * e.g. scenario.tight.rmse overriding rmse for prefix "scenario.tight".
+     */
+    RunConfig withOverrides(String prefix) {
+        Map<String, String> layer = new LinkedHashMap<>();
+        String start = prefix + ".";
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().startsWith(start)) {
+                layer.put(entry.getKey().substring(start.length()), entry.getValue());
+            }
+        }
+        return new RunConfig(overlay(values, layer));
+    }
+
+    /*
+     * base with layer laid over it. A layer that sets the rmse list replaces the
+     * whole list, so rmse.GROUP keys from below (such as a JSON "rmse" object in the
+     * base file) are dropped rather than applied over the layer's list.
+     */
+    private static Map<String, String> overlay(Map<String, String> base, Map<String, String> layer) {
+        Map<String, String> merged = new LinkedHashMap<>(base);
+        if (layer.containsKey("rmse")) {
+            merged.keySet().removeIf(key -> key.startsWith("rmse."));
+        }
+        merged.putAll(layer);
+        return merged;
+    }
+
+    // Keys set under prefix + "." (without the prefix).
+    Set<String> keysUnder(String prefix) {
+        Set<String> keys = new HashSet<>();
+        String start = prefix + ".";
+        for (String key : values.keySet()) {
+            if (key.startsWith(start)) {
+                keys.add(key.substring(start.length()));
+            }
+        }
+        return keys;
+    }
+
+    String get(String key, String defaultValue) {
+        String value = values.get(key);
+        return (value == null || value.isEmpty()) ? defaultValue : value;
+    }
+
+    String require(String key) {
+        String value = get(key, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required setting '" + key + "'");
+        }
+        return value;
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        throw new IllegalArgumentException("Setting '" + key + "' must be true or false: " + value);
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting '" + key + "' must be an integer: " + value);
+        }
+    }
+
+    long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting '" + key + "' must be an integer: " + value);
+        }
+    }
+
+    double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting '" + key + "' must be a number: " + value);
+        }
+    }
+
+    <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = get(key, null);
+        try {
+            return value == null ? defaultValue : Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Setting '" + key + "' has an unknown value: " + value);
+        }
+    }
+
+    // The RMSE per group: the rmse list, then any rmse.GROUP setting over it.
+    Map<String, Double> groupRmse() {
+        Map<String, Double> rmse = new HashMap<>();
+        String rmseValue = get("rmse", DEFAULT_RMSE);
+        for (String pair : rmseValue.split(",")) {
+            String[] parts = pair.split(":");
+            try {
+                rmse.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Setting 'rmse' must be Group:Value pairs separated by commas: " + rmseValue);
+            }
+        }
+        // rmse.GROUP overrides one group, e.g. from a JSON "rmse" object or a scenario.
+        for (String group : keysUnder("rmse")) {
+            rmse.put(group, getDouble("rmse." + group, 0.0));
+        }
+        return rmse;
+    }
+
+    /**
+     * A LinkDistributorLogic with these settings.
+     *
+     * @param outputFolder Base output folder; null to use the 'output' setting.
+     */
+    LinkDistributorLogic createLogic(String outputFolder) {
+        String input = require("input");
+        String output = outputFolder != null ? outputFolder : require("output");
+
+        Set<Integer> rampValues = new HashSet<>();
+        for (String value : get("rampValues", "13,14,15").split(",")) {
+            try {
+                rampValues.add(Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Setting 'rampValues' must be comma-separated integers: " + get("rampValues", ""));
+            }
+        }
+        Set<String> roadTypes = new HashSet<>();
+        for (String value : get("roadTypes", "1,2,3,4,5,6").split(",")) {
+            roadTypes.add(value.trim());
+        }
+
+        LinkDistributorLogic logic = new LinkDistributorLogic(
+                input, output, get("epsg", "2039"),
+                getBoolean("filterRamps", true), rampValues,
+                roadTypes, getBoolean("combineTwoSided", true),
+                getEnum("weighting", LinkDistributorLogic.CentralityWeighting.class, LinkDistributorLogic.CentralityWeighting.HOPS),
+                get("weightAttribute", null),
+                groupRmse(), getBoolean("debug", false), getInt("debugPrintLimit", 100));
+        logic.setSnapTolerance(getDouble("snapTolerance", LinkDistributorLogic.NodeManager.DEFAULT_TOLERANCE));
+        logic.setDirectedCentrality(getBoolean("directed", false));
+        if (get("threads", null) != null) {
+            logic.setCentralityParallelism(getInt("threads", 1));
+        }
+        if (get("loadThreads", null) != null) {
+            logic.setLoadParallelism(getInt("loadThreads", 1));
+        }
+        if (getBoolean("approximate", false)) {
+            logic.setApproximateCentrality(getInt("pivots", 0), getDouble("targetError", 0.05),
+                    getDouble("confidence", 0.95), getLong("seed", 42L));
+        } else {
+            logic.setIncrementalCentrality(getBoolean("incremental", false));
+        }
+        if (getInt("cacheMaxMB", 1) < 1) {
+            throw new IllegalArgumentException("Setting 'cacheMaxMB' must be at least 1");
+        }
+        String cacheDir = get("cacheDir", null);
+        logic.setCentralityCache(getBoolean("cache", true), cacheDir != null ? new File(cacheDir) : null,
+                get("cacheMaxMB", null) != null ? getInt("cacheMaxMB", 1) * (1L << 20) : CentralityCache.DEFAULT_MAX_BYTES);
+        logic.setSpatialSelection(
+                getEnum("selection", LinkDistributorLogic.SampleSelection.class, LinkDistributorLogic.SampleSelection.TOP_CENTRALITY),
+                getDouble("spacing", 0.0), getInt("cellQuota", 1));
+        Set<LinkDistributorLogic.OutputFormat> formats = EnumSet.noneOf(LinkDistributorLogic.OutputFormat.class);
+        for (String value : get("outputFormats", "SHAPEFILE").split(",")) {
+            try {
+                formats.add(LinkDistributorLogic.OutputFormat.valueOf(value.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Setting 'outputFormats' has an unknown value: " + value.trim());
+            }
+        }
+        logic.setOutputFormats(formats, getBoolean("spatialIndex", true));
+        logic.setGzipCsv(getBoolean("gzipCsv", false));
+        logic.setWriteScoreIndex(getBoolean("scoreIndex", true));
+        String prometheusFile = get("prometheusFile", null);
+        logic.setMetricsPrometheusFile(prometheusFile != null ? new File(prometheusFile) : null);
+        return logic;
+    }
+
+    /**
+     * Minimal JSON reader for configuration files: a document is one object whose
+     * values are flattened into string settings.
+     */
+    private static final class Json {
+        private final String text;
+        private int pos;
+
+        Json(String text) {
+            this.text = text;
+        }
+
+        void readDocument(Map<String, String> values) {
+            skipWhitespace();
+            if (peek() != '{') {
+                throw error("expected an object");
+            }
+            readObject("", values);
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("unexpected content after the object");
+            }
+        }
+
+        private void readObject(String prefix, Map<String, String> values) {
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = prefix + readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                char c = peek();
+                if (c == '{') {
+                    readObject(key + ".", values);
+                } else if (c == '[') {
+                    values.put(key, readArray());
+                } else {
+                    String value = readScalar();
+                    if (value != null) {
+                        values.put(key, value);
+                    }
+                }
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return;
+                }
+            }
+        }
+
+        // An array of scalars as a comma-separated value.
+        private String readArray() {
+            expect('[');
+            StringBuilder joined = new StringBuilder();
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return "";
+            }
+            while (true) {
+                skipWhitespace();
+                char c = peek();
+                if (c == '{' || c == '[') {
+                    throw error("arrays may only hold strings, numbers and booleans");
+                }
+                String value = readScalar();
+                if (value != null) {
+                    if (joined.length() > 0) {
+                        joined.append(',');
+                    }
+                    joined.append(value);
+                }
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return joined.toString();
+                }
+            }
+        }
+
+        // A string, number or boolean as text; null for a JSON null.
+        private String readScalar() {
+            if (peek() == '"') {
+                return readString();
+            }
+            int start = pos;
+            while (pos < text.length() && "{}[],: \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.equals("true") || literal.equals("false")
+                    || literal.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) {
+                return literal;
+            }
+            pos = start;
+            throw error("invalid value '" + literal + "'");
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case '"': case '\\': case '/': sb.append(escape); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("invalid unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("invalid escape '\\" + escape + "'");
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        // A parse error with the line and column of the current position.
+        private IllegalArgumentException error(String message) {
+            int line = 1;
+            int column = 1;
+            for (int i = 0; i < pos && i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    line++;
+                    column = 1;
+                } else {
+                    column++;
+                }
+            }
+            return new IllegalArgumentException("JSON " + message + " at line " + line + ", column " + column);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resource use of the stages of one run, written as metrics.json in the run
+ * folder and optionally as a Prometheus text-format file (for the node exporter's
+ * textfile collector).
+ *
+ * Stages are measured one at a time between begin() and end():
+ * <pre>
+ * wall time       System.nanoTime()
+ * CPU time        process CPU time, so the worker threads of parallel stages count
+ * allocated bytes ThreadMXBean allocation counters summed over all threads; a
+ *                 daemon thread samples them every 50 ms, so pool workers that end
+ *                 within a stage are counted up to their last sample
+ * peak heap       the heap pools' peak usage, reset at the start of the stage
+ * GC time, count  summed over the garbage collectors
+ * throughput      items per second of wall time (links, edges or groups)
+ * </pre>
+ * The JVM-wide measures overlap when several runs share the process, as the
+ * scenarios of a batch do. Measures the JVM does not support are reported as -1.
+ */
+final class RunMetrics {
+
+    private static final long SAMPLE_MILLIS = 50;
+
+    static final class Stage {
+        final String step;
+        final String name;
+        long wallNanos;
+        long cpuNanos = -1;
+        long allocatedBytes = -1;
+        long peakHeapBytes;
+        long gcMillis;
+        long gcCount;
+        long items;
+        String unit = "";
+
+        Stage(String step, String name) {
+            this.step = step;
+            this.name = name;
+        }
+
+        double throughput() {
+            return wallNanos > 0 ? items * 1e9 / wallNanos : 0.0;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long finishNanos = -1; // set by finish()
+
+    // The open stage and its readings at begin().
+    private Stage current;
+    private long wallStart;
+    private long cpuStart;
+    private long gcMillisStart;
+    private long gcCountStart;
+    private Map<Long, Long> allocatedStart;
+    private Map<Long, Long> allocatedLast; // latest reading per thread seen during the stage
+    private Thread sampler;
+
+    /**
+     * Starts measuring a stage, ending the previous one (with no items) if it is
+     * still open.
+     */
+    synchronized void begin(String step, String name) {
+        if (current != null) {
+            end(0, "");
+        }
+        current = new Stage(step, name);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        gcMillisStart = gcMillis();
+        gcCountStart = gcCount();
+        allocatedLast = allocationSupported() ? new HashMap<>() : null;
+        sampleAllocations();
+        allocatedStart = allocatedLast != null ? new HashMap<>(allocatedLast) : null;
+        if (allocatedLast != null) {
+            Stage stage = current;
+            sampler = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(SAMPLE_MILLIS);
+                        synchronized (this) {
+                            if (current != stage) {
+                                return;
+                            }
+                            sampleAllocations();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Stage ended.
+                }
+            }, "stage-metrics");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+        cpuStart = processCpuNanos();
+        wallStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the open stage.
+     *
+     * @param items Number of items the stage processed, for the throughput.
+     * @param unit What the items are, e.g. "links".
+     */
+    synchronized void end(long items, String unit) {
+        if (current == null) {
+            return;
+        }
+        Stage stage = current;
+        stage.wallNanos = System.nanoTime() - wallStart;
+        long cpu = processCpuNanos();
+        stage.cpuNanos = cpuStart >= 0 && cpu >= 0 ? cpu - cpuStart : -1;
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+        if (allocatedLast != null) {
+            sampleAllocations();
+            long allocated = 0;
+            for (Map.Entry<Long, Long> entry : allocatedLast.entrySet()) {
+                allocated += entry.getValue() - allocatedStart.getOrDefault(entry.getKey(), 0L);
+            }
+            stage.allocatedBytes = allocated;
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        stage.peakHeapBytes = peak;
+        stage.gcMillis = gcMillis() - gcMillisStart;
+        stage.gcCount = gcCount() - gcCountStart;
+        stage.items = items;
+        stage.unit = unit;
+        stages.add(stage);
+        current = null;
+    }
+
+    // Ends the open stage and stops the run's wall clock, e.g. before a batch writes its metrics later.
+    synchronized void finish() {
+        if (current != null) {
+            end(0, "");
+        }
+        if (finishNanos < 0) {
+            finishNanos = System.nanoTime();
+        }
+    }
+
+    // Adds stages measured by another instance, e.g. the shared steps of a batch.
+    synchronized void addAll(List<Stage> measured) {
+        stages.addAll(measured);
+    }
+
+    synchronized List<Stage> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    // Wall time since this instance was created, up to finish() if it was called.
+    long elapsedMillis() {
+        long finish = finishNanos;
+        return ((finish >= 0 ? finish : System.nanoTime()) - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Writes the stages as JSON.
+     *
+     * @param run Run-level values written before the stages, e.g. the input path;
+     *            numbers are written as JSON numbers and anything else as strings.
+     */
+    void writeJson(File file, Map<String, Object> run) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        for (Map.Entry<String, Object> entry : run.entrySet()) {
+            Object value = entry.getValue();
+            json.append("  ").append(quote(entry.getKey())).append(": ")
+                    .append(value instanceof Number ? value.toString() : quote(String.valueOf(value))).append(",\n");
+        }
+        json.append("  \"totalWallMillis\": ").append(elapsedMillis()).append(",\n");
+        json.append("  \"availableProcessors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"maxHeapBytes\": ").append(Runtime.getRuntime().maxMemory()).append(",\n");
+        json.append("  \"stages\": [");
+        List<Stage> stages = getStages();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"step\": ").append(quote(stage.step))
+                    .append(", \"name\": ").append(quote(stage.name))
+                    .append(", \"wallMillis\": ").append(millis(stage.wallNanos))
+                    .append(", \"cpuMillis\": ").append(stage.cpuNanos < 0 ? "-1" : millis(stage.cpuNanos))
+                    .append(", \"allocatedBytes\": ").append(stage.allocatedBytes)
+                    .append(", \"peakHeapBytes\": ").append(stage.peakHeapBytes)
+                    .append(", \"gcMillis\": ").append(stage.gcMillis)
+                    .append(", \"gcCount\": ").append(stage.gcCount)
+                    .append(", \"items\": ").append(stage.items)
+                    .append(", \"unit\": ").append(quote(stage.unit))
+                    .append(", \"throughputPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", stage.throughput()))
+                    .append('}');
+        }
+        json.append(stages.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        writeAtomically(file, json.toString());
+    }
+
+    /**
+     * Writes the stages in the Prometheus text exposition format, one gauge per
+     * measure labelled by step and stage. The file is replaced atomically where the
+     * file system allows, so a collector never reads half of it.
+     *
+     * @param labels Labels added to every sample, e.g. the input file name.
+     */
+    void writePrometheus(File file, Map<String, String> labels) throws IOException {
+        writePrometheus(file, Collections.singletonList(this), Collections.singletonList(labels));
+    }
+
+    /**
+     * Writes the stages of several runs into one Prometheus file, e.g. the shared
+     * steps and the scenarios of a batch.
+     *
+     * @param labels Labels added to the samples of the run at the same index; they
+     *               must tell the runs apart, e.g. by scenario.
+     */
+    static void writePrometheus(File file, List<RunMetrics> runs, List<Map<String, String>> labels) throws IOException {
+        List<String> common = new ArrayList<>(runs.size());
+        List<List<Stage>> stagesByRun = new ArrayList<>(runs.size());
+        for (int r = 0; r < runs.size(); r++) {
+            StringBuilder pairs = new StringBuilder();
+            for (Map.Entry<String, String> entry : labels.get(r).entrySet()) {
+                pairs.append(entry.getKey()).append("=\"").append(escapeLabel(entry.getValue())).append("\",");
+            }
+            common.add(pairs.toString());
+            stagesByRun.add(runs.get(r).getStages());
+        }
+        StringBuilder text = new StringBuilder();
+        gauge(text, "link_distributor_run_wall_seconds", "Wall-clock time of the whole run.");
+        for (int r = 0; r < runs.size(); r++) {
+            text.append("link_distributor_run_wall_seconds{").append(trimComma(common.get(r))).append("} ")
+                    .append(seconds(runs.get(r).elapsedMillis() * 1_000_000L)).append('\n');
+        }
+
+        String[] names = {"wall_seconds", "cpu_seconds", "allocated_bytes", "peak_heap_bytes", "gc_seconds", "items", "items_per_second"};
+        String[] help = {"Wall-clock time of a pipeline stage.", "Process CPU time during a pipeline stage.",
+                "Bytes allocated by all threads during a pipeline stage.", "Peak heap use during a pipeline stage.",
+                "Garbage collection time during a pipeline stage.", "Items processed by a pipeline stage.",
+                "Items processed per second of wall-clock time."};
+        for (int m = 0; m < names.length; m++) {
+            String metric = "link_distributor_stage_" + names[m];
+            gauge(text, metric, help[m]);
+            for (int r = 0; r < runs.size(); r++) {
+                for (Stage stage : stagesByRun.get(r)) {
+                    String value;
+                    switch (m) {
+                        case 0: value = seconds(stage.wallNanos); break;
+                        case 1: value = stage.cpuNanos < 0 ? "NaN" : seconds(stage.cpuNanos); break;
+                        case 2: value = stage.allocatedBytes < 0 ? "NaN" : Long.toString(stage.allocatedBytes); break;
+                        case 3: value = Long.toString(stage.peakHeapBytes); break;
+                        case 4: value = seconds(stage.gcMillis * 1_000_000L); break;
+                        case 5: value = Long.toString(stage.items); break;
+                        default: value = String.format(Locale.ROOT, "%.1f", stage.throughput()); break;
+                    }
+                    text.append(metric).append('{').append(common.get(r))
+                            .append("step=\"").append(escapeLabel(stage.step)).append("\",stage=\"").append(escapeLabel(stage.name));
+                    if (m >= 5) {
+                        text.append("\",unit=\"").append(escapeLabel(stage.unit));
+                    }
+                    text.append("\"} ").append(value).append('\n');
+                }
+            }
+        }
+        writeAtomically(file, text.toString());
+    }
+
+    private static void gauge(StringBuilder text, String metric, String help) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" gauge\n");
+    }
+
+    private static String trimComma(String labels) {
+        return labels.length() == 0 ? "" : labels.substring(0, labels.length() - 1);
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        // A file of its own, as the runs of a batch may replace the same file at once.
+        Path tmp = Files.createTempFile(parent != null ? parent.toPath() : Paths.get(""), file.getName(), ".tmp");
+        try {
+            // Temporary files are private to the owner; the collector may run as another user.
+            if (Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-r--r--"));
+            }
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Reads every live thread's allocation counter into allocatedLast.
+    private void sampleAllocations() {
+        if (allocatedLast == null) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocatedLast.put(ids[i], bytes[i]);
+            }
+        }
+    }
+
+    private static boolean allocationSupported() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
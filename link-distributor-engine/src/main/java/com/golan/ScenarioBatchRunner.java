@@ -0,0 +1,345 @@
+package com.golan;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.golan.LinkDistributorLogic.CentralityScores;
+import com.golan.LinkDistributorLogic.GroupSampleInfo;
+import com.golan.LinkDistributorLogic.RunSummary;
+
+/**
+ * Runs many sampling scenarios against one loaded network.
+ *
+ * The shapefile is loaded once. Centrality is computed once per distinct
+ * centrality key (road types, ramp filter and the centrality settings), and the
+ * scenarios then run steps 2-3 and 5-10 in parallel, each into its own folder
+ * under a timestamped batch folder. A comparison.csv with one row per scenario
+ * and group is written next to them, and a metrics.json with the stage metrics of
+ * the shared load and centrality steps. With a prometheusFile, the batch writes
+ * one file once all scenarios are done: the load, the steps of each centrality
+ * set labelled with its number and the steps of each scenario labelled with its
+ * name.
+ *
+ * Scenarios are described in the run configuration file (see RunConfig): the
+ * top-level settings are the defaults, "scenarios" lists the scenario names and
+ * "scenario.NAME.KEY" overrides a setting for one scenario, e.g.
+ *
+ * <pre>
+ * scenarios=base,tight,noRamps
+ * scenario.tight.rmse=Group1:0.10,Group2:0.15,Group3:0.20,Group4:0.25,Group5:0.25,Group6:0.30
+ * scenario.noRamps.filterRamps=false
+ * batchThreads=4
+ * </pre>
+ *
+ * Settings that change how the network is loaded, and the prometheusFile, cannot
+ * differ between scenarios.
+ *
+ * Usage: ScenarioBatchRunner <batch.properties|batch.json>, or LinkDistributorCli
+ * with the same file. Exit status: 0 when all scenarios succeeded, 1 when the
+ * network could not be loaded or a scenario failed, 2 for a usage or configuration
+ * error, 3 when the input shapefile does not exist.
+ */
+public class ScenarioBatchRunner {
+
+    // Settings fixed by the shared network load.
+    private static final List<String> SHARED_SETTINGS = Arrays.asList(
+            "input", "output", "snapTolerance", "weightAttribute", "loadThreads", "debug", "debugPrintLimit",
+            "scenarios", "batchThreads", "prometheusFile");
+
+    static class Scenario {
+        final String name;
+        final LinkDistributorLogic logic;
+        int centralitySet; // 1-based index of the shared centrality scores used
+        RunSummary summary;
+        String failure;
+
+        Scenario(String name, LinkDistributorLogic logic) {
+            this.name = name;
+            this.logic = logic;
+        }
+    }
+
+    private final List<Scenario> scenarios;
+    private final int parallelism;
+    private File prometheusFile; // null = no Prometheus text file
+    private String input = "";
+
+    ScenarioBatchRunner(List<Scenario> scenarios, int parallelism) {
+        if (scenarios.isEmpty()) {
+            throw new IllegalArgumentException("No scenarios to run");
+        }
+        this.scenarios = scenarios;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Writes the stage metrics of the whole batch to file in the Prometheus text format; null disables it.
+    void setMetricsPrometheusFile(File prometheusFile, String input) {
+        this.prometheusFile = prometheusFile;
+        this.input = input;
+    }
+
+    /**
+     * Runs all scenarios into subfolders of batchFolder and writes comparison.csv.
+     *
+     * @return false if the network could not be loaded or any scenario failed.
+     */
+    boolean run(String batchFolder) {
+        new File(batchFolder).mkdirs();
+
+        // Step 1 once, with the settings all scenarios share. The weight attribute is
+        // only read by instances weighted by it, so prefer one of those.
+        LinkDistributorLogic loader = scenarios.get(0).logic;
+        for (Scenario scenario : scenarios) {
+            if (scenario.logic.readsWeightAttribute()) {
+                loader = scenario.logic;
+                break;
+            }
+        }
+        RunMetrics sharedMetrics = new RunMetrics();
+        RunMetrics batchMetrics = new RunMetrics(); // the load and the whole batch's wall time
+        LinkTable table = loader.loadNetwork();
+        sharedMetrics.addAll(loader.getMetrics().getStages());
+        batchMetrics.addAll(loader.getMetrics().getStages());
+        List<RunMetrics> setMetrics = new ArrayList<>();
+        if (table.size() == 0) {
+            System.err.println("Error: No links found in shapefile. Aborting batch.");
+            writePrometheus(batchMetrics, setMetrics, false);
+            return false;
+        }
+        CoordinateReferenceSystem crs = loader.getSourceCRS();
+
+        // Step 4 once per distinct centrality key, in order of first use.
+        Map<String, CentralityScores> scoresByKey = new LinkedHashMap<>();
+        Map<String, Integer> setByKey = new LinkedHashMap<>();
+        for (Scenario scenario : scenarios) {
+            String key = scenario.logic.centralityKey();
+            if (!scoresByKey.containsKey(key)) {
+                System.out.println("\n=== Centrality set " + (scoresByKey.size() + 1) + " (first used by scenario " + scenario.name + ") ===");
+                scoresByKey.put(key, scenario.logic.computeCentralityScores(table));
+                RunMetrics set = scenario.logic.getMetrics();
+                set.finish();
+                sharedMetrics.addAll(set.getStages());
+                setMetrics.add(set);
+                setByKey.put(key, scoresByKey.size());
+            }
+            scenario.centralitySet = setByKey.get(key);
+        }
+        System.out.println("\nComputed " + scoresByKey.size() + " centrality set(s) for " + scenarios.size() + " scenario(s).");
+        writeSharedMetrics(sharedMetrics, new File(batchFolder, "metrics.json"), scoresByKey.size());
+
+        // Steps 5-10 for all scenarios in parallel.
+        List<Callable<Void>> tasks = new ArrayList<>(scenarios.size());
+        for (Scenario scenario : scenarios) {
+            CentralityScores scores = scoresByKey.get(scenario.logic.centralityKey());
+            tasks.add(() -> {
+                try {
+                    scenario.summary = scenario.logic.runScenario(table, crs, scores, batchFolder + File.separator + scenario.name);
+                    int errors = scenario.logic.getErrorCount();
+                    if (errors > 0) {
+                        scenario.failure = errors + " output error(s)";
+                    }
+                    System.out.println("Scenario " + scenario.name + " completed.");
+                } catch (RuntimeException e) {
+                    scenario.failure = e.toString();
+                    System.err.println("Error in scenario " + scenario.name + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, scenarios.size()));
+        try {
+            for (Future<Void> done : pool.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Batch interrupted.");
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("Error running scenarios: " + e.getCause());
+            return false;
+        } finally {
+            pool.shutdown();
+        }
+
+        writeComparisonCsv(new File(batchFolder, "comparison.csv"));
+        writePrometheus(batchMetrics, setMetrics, true);
+        boolean allSucceeded = true;
+        for (Scenario scenario : scenarios) {
+            if (scenario.failure != null) {
+                System.err.println("Scenario " + scenario.name + " failed: " + scenario.failure);
+                allSucceeded = false;
+            }
+        }
+        return allSucceeded;
+    }
+
+    // Steps 1-4 of the shared load and centrality sets; each scenario folder has its own metrics.json for the rest.
+    private void writeSharedMetrics(RunMetrics metrics, File file, int centralitySets) {
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("batchFolder", file.getParent());
+        run.put("scenarios", scenarios.size());
+        run.put("centralitySets", centralitySets);
+        try {
+            metrics.writeJson(file, run);
+        } catch (IOException e) {
+            System.err.println("Error writing batch metrics: " + e.getMessage());
+        }
+    }
+
+    // The load, each centrality set by its 1-based number, then each scenario's own steps if they ran.
+    private void writePrometheus(RunMetrics batchMetrics, List<RunMetrics> setMetrics, boolean withScenarios) {
+        if (prometheusFile == null) {
+            return;
+        }
+        List<RunMetrics> runs = new ArrayList<>();
+        List<Map<String, String>> labels = new ArrayList<>();
+        Map<String, String> shared = new LinkedHashMap<>();
+        shared.put("input", new File(input).getName());
+        runs.add(batchMetrics);
+        labels.add(shared);
+        for (int i = 0; i < setMetrics.size(); i++) {
+            Map<String, String> setLabels = new LinkedHashMap<>(shared);
+            setLabels.put("centralitySet", Integer.toString(i + 1));
+            runs.add(setMetrics.get(i));
+            labels.add(setLabels);
+        }
+        if (withScenarios) {
+            for (Scenario scenario : scenarios) {
+                Map<String, String> scenarioLabels = new LinkedHashMap<>(shared);
+                scenarioLabels.put("scenario", scenario.name);
+                runs.add(scenario.logic.getMetrics());
+                labels.add(scenarioLabels);
+            }
+        }
+        try {
+            RunMetrics.writePrometheus(prometheusFile, runs, labels);
+        } catch (IOException e) {
+            System.err.println("Error writing Prometheus metrics: " + e.getMessage());
+        }
+    }
+
+    // One row per scenario and group; failed scenarios get a single FAILED row.
+    private void writeComparisonCsv(File file) {
+        try (FileWriter fw = new FileWriter(file)) {
+            fw.write("Scenario,CentralitySet,TotalLinks,SampledLinks,Group,N_g,RMSE,w_g,n_g,Selected,"
+                    + "AvgCentrality,MaxCentrality,MinCentrality,StdDevCentrality,P50Centrality,P90Centrality,DurationMs\n");
+            for (Scenario scenario : scenarios) {
+                RunSummary summary = scenario.summary;
+                if (summary == null) {
+                    fw.write(scenario.name + "," + scenario.centralitySet + ",FAILED\n");
+                    continue;
+                }
+                List<String> groups = new ArrayList<>(summary.groups.keySet());
+                Collections.sort(groups);
+                for (String group : groups) {
+                    GroupSampleInfo info = summary.groups.get(group);
+                    fw.write(String.format("%s,%d,%d,%d,%s,%d,%.2f,%.5f,%d,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f,%d\n",
+                            scenario.name, scenario.centralitySet, summary.totalLinks, summary.sampledLinks,
+                            group, info.N_g, info.rmse, info.w_g, info.n_g, info.selected,
+                            info.avgCentrality, info.maxCentrality, info.minCentrality,
+                            info.stdDevCentrality, info.p50Centrality, info.p90Centrality, summary.durationMillis));
+                }
+            }
+            System.out.println("Comparison CSV: " + file.getPath());
+        } catch (IOException e) {
+            System.err.println("Error writing comparison CSV: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // The scenarios listed in a batch configuration, each with its overrides applied.
+    static List<Scenario> scenariosFrom(RunConfig config, String batchFolder) {
+        String names = config.get("scenarios", null);
+        if (names == null) {
+            throw new IllegalArgumentException("Missing required setting 'scenarios'");
+        }
+        List<Scenario> list = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (!name.matches("[A-Za-z0-9_-]+")) {
+                throw new IllegalArgumentException("Scenario names may only use letters, digits, '_' and '-': '" + name + "'");
+            }
+            for (Scenario existing : list) {
+                if (existing.name.equals(name)) {
+                    throw new IllegalArgumentException("Duplicate scenario name '" + name + "'");
+                }
+            }
+            String prefix = "scenario." + name;
+            for (String key : config.keysUnder(prefix)) {
+                if (SHARED_SETTINGS.contains(key)) {
+                    throw new IllegalArgumentException("Setting '" + key + "' is shared by all scenarios and cannot be set in " + prefix);
+                }
+            }
+            LinkDistributorLogic logic = config.withOverrides(prefix).createLogic(batchFolder);
+            logic.setMetricsPrometheusFile(null); // written once for the batch
+            list.add(new Scenario(name, logic));
+        }
+        return list;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: ScenarioBatchRunner <batch.properties|batch.json>");
+            System.exit(LinkDistributorCli.EXIT_USAGE);
+        }
+        RunConfig config;
+        try {
+            config = RunConfig.load(new File(args[0]));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading batch configuration: " + e.getMessage());
+            System.exit(LinkDistributorCli.EXIT_USAGE);
+            return;
+        }
+        System.exit(runBatch(config));
+    }
+
+    /**
+     * Runs the batch described by config into a timestamped folder under its output.
+     *
+     * @return The process exit status (see LinkDistributorCli).
+     */
+    static int runBatch(RunConfig config) {
+        List<Scenario> scenarios;
+        String batchFolder;
+        int batchThreads;
+        try {
+            String runDateTime = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+            batchFolder = config.require("output") + File.separator + "batch_" + runDateTime;
+            scenarios = scenariosFrom(config, batchFolder);
+            batchThreads = config.getInt("batchThreads", Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error reading batch configuration: " + e.getMessage());
+            return LinkDistributorCli.EXIT_USAGE;
+        }
+        if (!new File(config.require("input")).isFile()) {
+            System.err.println("Error: Input shapefile not found: " + config.require("input"));
+            return LinkDistributorCli.EXIT_INPUT;
+        }
+
+        long start = System.currentTimeMillis();
+        ScenarioBatchRunner runner = new ScenarioBatchRunner(scenarios, batchThreads);
+        String prometheusFile = config.get("prometheusFile", null);
+        runner.setMetricsPrometheusFile(prometheusFile != null ? new File(prometheusFile) : null, config.require("input"));
+        boolean ok = runner.run(batchFolder);
+        System.out.println("Batch of " + scenarios.size() + " scenario(s) finished in " + (System.currentTimeMillis() - start)
+                + " ms. Output: " + batchFolder);
+        return ok ? LinkDistributorCli.EXIT_OK : LinkDistributorCli.EXIT_FAILED;
+    }
+}
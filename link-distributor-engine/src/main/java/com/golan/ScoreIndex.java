@@ -0,0 +1,284 @@
+package com.golan;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * The centrality score, group, end nodes and length of every link of the network,
+ * as a binary columnar file with a hash index over the link IDs. The file is
+ * memory-mapped and read in place, so a lookup by ID costs one hash and a probe or
+ * two, with no parsing up front.
+ *
+ * All numbers are big-endian (as DataOutputStream writes them), and every column
+ * starts on a multiple of its width:
+ *
+ * <pre>
+ * int magic, int version, int rows, int slots, int groups, int idBytes, long namesAt,
+ * double[rows] scores, double[rows] lengths, int[rows] fromNodes, int[rows] toNodes,
+ * int[slots] hash slots, int[rows + 1] id offsets, byte[rows] group indexes,
+ * byte[idBytes] UTF-8 ids, UTF[groups] group names (from byte namesAt)
+ * </pre>
+ *
+ * slots is a power of two, at least twice rows. A slot holds a row or -1 when
+ * empty; the ID of row r is found from slot hash(id) &amp; (slots - 1) onwards by
+ * linear probing (see hash). Rows are inserted in order, so of several rows with
+ * the same ID the first is found.
+ *
+ * A run writes the file as network_scores.bin. Scores are the normalized
+ * centrality, 0 for links outside the centrality road types; node IDs are the
+ * snapped network nodes of step 1.
+ */
+public final class ScoreIndex {
+
+    public static final String FILE_NAME = "network_scores.bin";
+
+    private static final int MAGIC = 0x4C534358; // "LSCX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+    private static final int EMPTY = -1;
+
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final int mask;
+    private final int lengthsAt;
+    private final int fromNodesAt;
+    private final int toNodesAt;
+    private final int slotsAt;
+    private final int offsetsAt;
+    private final int groupsAt;
+    private final int idsAt;
+    private final String[] groupNames;
+
+    private ScoreIndex(MappedByteBuffer buffer, int rows, int slots, String[] groupNames) {
+        this.buffer = buffer;
+        this.rows = rows;
+        this.mask = slots - 1;
+        this.lengthsAt = HEADER_BYTES + rows * Double.BYTES;
+        this.fromNodesAt = lengthsAt + rows * Double.BYTES;
+        this.toNodesAt = fromNodesAt + rows * Integer.BYTES;
+        this.slotsAt = toNodesAt + rows * Integer.BYTES;
+        this.offsetsAt = slotsAt + slots * Integer.BYTES;
+        this.groupsAt = offsetsAt + (rows + 1) * Integer.BYTES;
+        this.idsAt = groupsAt + rows;
+        this.groupNames = groupNames;
+    }
+
+    /**
+     * Maps a score index file. The mapping stays valid after the file is closed,
+     * and the returned index may be shared between threads.
+     */
+    public static ScoreIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Score index too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a score index: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported score index version " + buffer.getInt(4) + ": " + file);
+            }
+            int rows = buffer.getInt(8);
+            int slots = buffer.getInt(12);
+            int groups = buffer.getInt(16);
+            int idBytes = buffer.getInt(20);
+            long namesAt = buffer.getLong(24);
+            if (rows < 0 || Integer.bitCount(slots) != 1 || slots <= rows || idBytes < 0
+                    || namesAt != HEADER_BYTES + (long) rows * (2 * Double.BYTES + 2 * Integer.BYTES + 1)
+                            + (long) slots * Integer.BYTES + (rows + 1L) * Integer.BYTES + idBytes
+                    || namesAt > buffer.limit()) {
+                throw new IOException("Corrupt score index: " + file);
+            }
+            buffer.position((int) namesAt);
+            String[] groupNames = new String[groups];
+            for (int g = 0; g < groups; g++) {
+                groupNames[g] = readUtf(buffer);
+            }
+            return new ScoreIndex(buffer, rows, slots, groupNames);
+        }
+    }
+
+    // Number of links.
+    public int size() {
+        return rows;
+    }
+
+    // Row of the link with this ID, or -1.
+    public int find(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        for (int slot = (int) hash(key, 0, key.length) & mask; ; slot = (slot + 1) & mask) {
+            int row = buffer.getInt(slotsAt + slot * Integer.BYTES);
+            if (row == EMPTY || idEquals(row, key)) {
+                return row;
+            }
+        }
+    }
+
+    // Score of the link with this ID, or NaN if there is none.
+    public double score(String id) {
+        int row = find(id);
+        return row >= 0 ? score(row) : Double.NaN;
+    }
+
+    public double score(int row) {
+        return buffer.getDouble(HEADER_BYTES + checked(row) * Double.BYTES);
+    }
+
+    public double length(int row) {
+        return buffer.getDouble(lengthsAt + checked(row) * Double.BYTES);
+    }
+
+    public int fromNode(int row) {
+        return buffer.getInt(fromNodesAt + checked(row) * Integer.BYTES);
+    }
+
+    public int toNode(int row) {
+        return buffer.getInt(toNodesAt + checked(row) * Integer.BYTES);
+    }
+
+    public int groupIndex(int row) {
+        return buffer.get(groupsAt + checked(row)) & 0xFF;
+    }
+
+    public String group(int row) {
+        return groupNames[groupIndex(row)];
+    }
+
+    public String id(int row) {
+        int from = idsAt + buffer.getInt(offsetsAt + checked(row) * Integer.BYTES);
+        int to = idsAt + buffer.getInt(offsetsAt + (row + 1) * Integer.BYTES);
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the index of all rows of table, replacing file atomically.
+     *
+     * @param scoreByRow Score of every row.
+     * @param groupByRow Index into groupNames of every row.
+     */
+    static void write(File file, LinkTable table, double[] scoreByRow, byte[] groupByRow, String[] groupNames) throws IOException {
+        int rows = table.size();
+        byte[][] ids = new byte[rows][];
+        int idBytes = 0;
+        for (int row = 0; row < rows; row++) {
+            ids[row] = table.id(row).getBytes(StandardCharsets.UTF_8);
+            idBytes += ids[row].length;
+        }
+        int slots = Integer.highestOneBit(Math.max(8, rows * 2 - 1)) << 1;
+        int[] slotRows = new int[slots];
+        Arrays.fill(slotRows, EMPTY);
+        for (int row = 0; row < rows; row++) {
+            int slot = (int) hash(ids[row], 0, ids[row].length) & (slots - 1);
+            while (slotRows[slot] != EMPTY) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            slotRows[slot] = row;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rows);
+                out.writeInt(slots);
+                out.writeInt(groupNames.length);
+                out.writeInt(idBytes);
+                out.writeLong(HEADER_BYTES + (long) rows * (2 * Double.BYTES + 2 * Integer.BYTES + 1)
+                        + (long) slots * Integer.BYTES + (rows + 1L) * Integer.BYTES + idBytes);
+                for (int row = 0; row < rows; row++) {
+                    out.writeDouble(scoreByRow[row]);
+                }
+                for (int row = 0; row < rows; row++) {
+                    out.writeDouble(table.length(row));
+                }
+                for (int row = 0; row < rows; row++) {
+                    out.writeInt(table.startNode(row));
+                }
+                for (int row = 0; row < rows; row++) {
+                    out.writeInt(table.endNode(row));
+                }
+                for (int slotRow : slotRows) {
+                    out.writeInt(slotRow);
+                }
+                int offset = 0;
+                out.writeInt(offset);
+                for (int row = 0; row < rows; row++) {
+                    offset += ids[row].length;
+                    out.writeInt(offset);
+                }
+                out.write(groupByRow, 0, rows);
+                for (int row = 0; row < rows; row++) {
+                    out.write(ids[row]);
+                }
+                for (String name : groupNames) {
+                    out.writeUTF(name);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            // No partial file is left behind (a previous index, if any, stays in place).
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of an ID, with the MurmurHash3 finalizer so
+     * that the low bits used for the slot depend on every byte. Readers in other
+     * languages must hash the same way.
+     */
+    static long hash(byte[] bytes, int from, int to) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private boolean idEquals(int row, byte[] key) {
+        int from = buffer.getInt(offsetsAt + row * Integer.BYTES);
+        int to = buffer.getInt(offsetsAt + (row + 1) * Integer.BYTES);
+        if (to - from != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(idsAt + from + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checked(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+        return row;
+    }
+
+    // Reads a string written by DataOutputStream.writeUTF (plain UTF-8 for the group names used here).
+    private static String readUtf(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
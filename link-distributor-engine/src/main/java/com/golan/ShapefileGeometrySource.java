@@ -0,0 +1,42 @@
+package com.golan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.geotools.data.shapefile.files.ShpFiles;
+import org.geotools.data.shapefile.shp.ShapefileReader;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Re-reads link geometries from the input .shp by record offset, for the writers.
+ * The loaded LinkTable keeps only endpoints and lengths, so full geometries are
+ * materialized just for the links that are actually written.
+ */
+final class ShapefileGeometrySource implements Closeable {
+
+    private final File shapefile;
+    private ShapefileReader reader;
+
+    ShapefileGeometrySource(File shapefile) {
+        this.shapefile = shapefile;
+    }
+
+    // Geometry of the record at the given .shp byte offset, or null for a null shape.
+    synchronized Geometry read(int offset) throws IOException {
+        if (reader == null) {
+            reader = new ShapefileReader(new ShpFiles(shapefile), false, false, new GeometryFactory());
+        }
+        Object shape = reader.shapeAt(offset);
+        return (shape instanceof Geometry) ? (Geometry) shape : null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.golan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.golan.LinkDistributorLogic.NodeManager;
+
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileReader;
+import org.geotools.data.shapefile.files.ShpFiles;
+import org.geotools.data.shapefile.shp.ShapefileReader;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Streams the input shapefile into a LinkTable in a single pass over the .shp and
+ * .dbf, without building a SimpleFeature per record. Each record's geometry is
+ * only used to extract its endpoints and length and is then dropped; the table
+ * keeps the record's byte offset so the geometry can be re-read at write time.
+ *
+ * PolyLine files are read by MappedShapefileReader straight from memory-mapped
+ * .shp/.dbf buffers; the GeoTools ShapefileReader/DbaseFileReader pass below is
+ * the fallback for anything that reader does not decode.
+ */
+final class ShapefileLinkLoader {
+
+    // Same default as ShapefileDataStore, so attribute values decode identically.
+    static final Charset DBF_CHARSET = Charset.forName("ISO-8859-1");
+
+    private final boolean debugMode;
+    private final int debugPrintLimit;
+    private final String weightAttribute;
+    private boolean useMappedReader = true;
+    private int parallelism = 1;
+    private double snapTolerance = NodeManager.DEFAULT_TOLERANCE;
+    private CoordinateReferenceSystem sourceCRS;
+
+    /**
+     * @param weightAttribute Optional numeric attribute to store in the weight column (may be null).
+     */
+    ShapefileLinkLoader(boolean debugMode, int debugPrintLimit, String weightAttribute) {
+        this.debugMode = debugMode;
+        this.debugPrintLimit = debugPrintLimit;
+        this.weightAttribute = weightAttribute;
+    }
+
+    // Disables the memory-mapped reader, e.g. to compare both paths.
+    void setUseMappedReader(boolean useMappedReader) {
+        this.useMappedReader = useMappedReader;
+    }
+
+    // Number of threads decoding records on the memory-mapped path.
+    void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Distance within which link endpoints are snapped to the same node.
+    void setSnapTolerance(double snapTolerance) {
+        this.snapTolerance = snapTolerance;
+    }
+
+    // CRS of the last loaded shapefile, as declared by its .prj.
+    CoordinateReferenceSystem getSourceCRS() {
+        return sourceCRS;
+    }
+
+    LinkTable load(File shapefile) throws IOException {
+        // The schema (and with it the CRS) is read from the headers only.
+        ShapefileDataStore store = new ShapefileDataStore(shapefile.toURI().toURL());
+        String typeName;
+        try {
+            typeName = store.getTypeNames()[0];
+            sourceCRS = store.getSchema().getCoordinateReferenceSystem();
+        } finally {
+            store.dispose();
+        }
+
+        NodeManager nodes = new NodeManager(snapTolerance);
+        if (useMappedReader) {
+            LinkTable table = new MappedShapefileReader(debugMode, debugPrintLimit, weightAttribute, nodes, parallelism).load(shapefile, typeName);
+            if (table != null) {
+                if (debugMode) {
+                    System.out.println("Loaded " + table.size() + " links with the memory-mapped reader.");
+                }
+                return table;
+            }
+            System.out.println("Shapefile variant not supported by the memory-mapped reader; loading through GeoTools.");
+            nodes = new NodeManager(snapTolerance);
+        }
+
+        ShpFiles files = new ShpFiles(shapefile);
+        ShapefileReader shpReader = null;
+        DbaseFileReader dbfReader = null;
+        try {
+            shpReader = new ShapefileReader(files, false, true, new GeometryFactory());
+            dbfReader = new DbaseFileReader(files, true, DBF_CHARSET);
+            DbaseFileHeader header = dbfReader.getHeader();
+            int idCol = fieldIndex(header, "ID");
+            int typeCol = fieldIndex(header, "TYPE");
+            int data1Col = fieldIndex(header, "DATA1");
+            int twoSidedCol = fieldIndex(header, "isTwoSided");
+            int combinedCol = fieldIndex(header, "combinedId");
+            int weightCol = weightAttribute != null ? fieldIndex(header, weightAttribute) : -1;
+            if (weightAttribute != null && weightCol < 0) {
+                System.err.println("Warning: Weight attribute '" + weightAttribute + "' not found in " + shapefile.getName() + ".");
+            }
+
+            LinkTable table = new LinkTable(header.getNumRecords(), nodes);
+            int recordNumber = 0;
+            while (shpReader.hasNext() && dbfReader.hasNext()) {
+                ShapefileReader.Record record = shpReader.nextRecord();
+                Object[] values = dbfReader.readEntry();
+                recordNumber++;
+                String featureId = typeName + "." + recordNumber;
+
+                Object shape = record.shape();
+                Geometry geom = (shape instanceof Geometry) ? (Geometry) shape : null;
+                Coordinate[] coords = (geom != null) ? geom.getCoordinates() : null;
+                if (coords == null || coords.length < 2) {
+                    if (debugMode) {
+                        System.out.println("Skipping feature with insufficient geometry. Feature ID: " + featureId);
+                    }
+                    continue;
+                }
+
+                double data1Value = -1;
+                Object data1Attr = value(values, data1Col);
+                if (data1Attr != null) {
+                    try {
+                        data1Value = Double.parseDouble(data1Attr.toString());
+                    } catch (NumberFormatException e) {
+                        System.err.println("Warning: Invalid DATA1 value '" + data1Attr + "' for feature ID: " + featureId);
+                    }
+                }
+
+                Object typeAttr = value(values, typeCol);
+                if (typeAttr == null) {
+                    System.err.println("Warning: TYPE attribute is null for feature ID: " + featureId);
+                    continue;
+                }
+                String typeStr = typeAttr.toString();
+                try {
+                    Integer.parseInt(typeStr);
+                } catch (NumberFormatException e) {
+                    System.err.println("Warning: Invalid TYPE value '" + typeStr + "' for feature ID: " + featureId);
+                    continue;
+                }
+
+                Object idAttr = value(values, idCol);
+                String fid = (idAttr != null) ? idAttr.toString() : featureId;
+                boolean isTwoSided = false;
+                Object isTwo = value(values, twoSidedCol);
+                if (isTwo != null) {
+                    isTwoSided = Boolean.parseBoolean(isTwo.toString());
+                }
+                String combined = fid;
+                Object cIdAttr = value(values, combinedCol);
+                if (cIdAttr != null) {
+                    combined = cIdAttr.toString();
+                }
+
+                double weightValue = Double.NaN;
+                Object weightAttr = value(values, weightCol);
+                if (weightAttr instanceof Number) {
+                    weightValue = ((Number) weightAttr).doubleValue();
+                } else if (weightAttr != null) {
+                    try {
+                        weightValue = Double.parseDouble(weightAttr.toString().trim());
+                    } catch (NumberFormatException e) {
+                        // left as NaN; reported in aggregate when weights are derived
+                    }
+                }
+
+                Coordinate start = coords[0];
+                Coordinate end = coords[coords.length - 1];
+                long geomHash = LinkTable.GEOMETRY_HASH_SEED;
+                for (Coordinate c : coords) {
+                    geomHash = LinkTable.hashPoint(geomHash, c.x, c.y);
+                }
+                int row = table.add(fid, typeStr, combined, data1Value, isTwoSided,
+                        start.x, start.y, end.x, end.y, geom.getLength(), weightValue, record.offset(), geomHash);
+
+                if (debugMode) {
+                    if (table.size() <= debugPrintLimit) {
+                        System.out.println("Loaded Link ID: " + fid + ", Type: " + typeStr + ", CombinedID: " + table.combinedId(row) + ", DATA1: " + data1Value);
+                    } else if (table.size() == debugPrintLimit + 1) {
+                        System.out.println("... (" + (table.size() - debugPrintLimit) + " more links loaded)");
+                    }
+                }
+            }
+            return table;
+        } finally {
+            if (dbfReader != null) {
+                dbfReader.close();
+            }
+            if (shpReader != null) {
+                shpReader.close();
+            }
+        }
+    }
+
+    private static int fieldIndex(DbaseFileHeader header, String name) {
+        for (int i = 0; i < header.getNumFields(); i++) {
+            if (header.getFieldName(i).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Object value(Object[] values, int col) {
+        return col >= 0 ? values[col] : null;
+    }
+}
@@ -0,0 +1,165 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Spatially balanced selection of a group's sample links: links are taken in the
+ * TopKSelection order (descending centrality, then link ID) and a link is skipped
+ * when it conflicts with one already taken, until k links are taken or the group
+ * is exhausted.
+ *
+ * A link is placed at the midpoint of its end points. With a minimum spacing, it
+ * conflicts when another taken link lies closer than the spacing; with a cell quota,
+ * when its grid cell (one spacing wide) already holds the quota. Taken links are
+ * indexed in a grid hash keyed by packed cell coordinates, as in NodeManager, so
+ * each conflict test probes at most nine cells. The ranking is a binary heap over
+ * the whole group that is only popped as far as needed, so the next best link
+ * costs O(log n) instead of a full sort up front.
+ */
+final class SpatialSelection {
+
+    private final double spacing;
+    private final int cellQuota; // 0 = minimum spacing between taken links
+
+    /**
+     * @param spacing Minimum distance between taken links, or the cell width for a
+     *                quota, in the units of the input CRS.
+     * @param cellQuota Maximum number of taken links per cell, or 0 to enforce the
+     *                  minimum spacing instead.
+     */
+    SpatialSelection(double spacing, int cellQuota) {
+        if (!(spacing > 0.0) || Double.isInfinite(spacing)) {
+            throw new IllegalArgumentException("Spacing must be positive: " + spacing);
+        }
+        if (cellQuota < 0) {
+            throw new IllegalArgumentException("Cell quota must not be negative: " + cellQuota);
+        }
+        this.spacing = spacing;
+        this.cellQuota = cellQuota;
+    }
+
+    // Up to k non-conflicting links, most central first. Safe to call from several threads.
+    List<Link> select(List<Link> links, int k) {
+        int n = links.size();
+        k = Math.min(k, n);
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        double[] scores = TopKSelection.scores(links);
+
+        // Max-heap over all positions: the root is the best link not yet considered.
+        int[] heap = new int[n];
+        for (int i = 0; i < n; i++) {
+            heap[i] = i;
+        }
+        for (int i = (n >>> 1) - 1; i >= 0; i--) {
+            siftDown(heap, i, n, scores, links);
+        }
+
+        Taken taken = new Taken(k);
+        List<Link> selected = new ArrayList<>(k);
+        int size = n;
+        while (selected.size() < k && size > 0) {
+            Link link = links.get(heap[0]);
+            heap[0] = heap[--size];
+            siftDown(heap, 0, size, scores, links);
+
+            double x = 0.5 * (link.table.startX(link.row) + link.table.endX(link.row));
+            double y = 0.5 * (link.table.startY(link.row) + link.table.endY(link.row));
+            if (cellQuota > 0 ? taken.cellTaken(x, y) < cellQuota : !taken.anyWithin(x, y)) {
+                taken.add(x, y);
+                selected.add(link);
+            }
+        }
+        return selected;
+    }
+
+    // Moves heap[i] down until both children rank below it.
+    private static void siftDown(int[] heap, int i, int size, double[] scores, List<Link> links) {
+        int item = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && TopKSelection.ranksBelow(heap[child], heap[right], scores, links)) {
+                child = right;
+            }
+            if (!TopKSelection.ranksBelow(item, heap[child], scores, links)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+
+    // Midpoints of the links taken so far, chained per grid cell.
+    private final class Taken {
+        private final LongIntHashMap cellHead;
+        private final LongIntHashMap cellCount;
+        private final double[] takenX;
+        private final double[] takenY;
+        private final int[] nextInCell;
+        private int size;
+
+        Taken(int capacity) {
+            cellHead = new LongIntHashMap(capacity);
+            cellCount = new LongIntHashMap(cellQuota > 0 ? capacity : 1);
+            takenX = new double[capacity];
+            takenY = new double[capacity];
+            nextInCell = new int[capacity];
+        }
+
+        int cellTaken(double x, double y) {
+            int count = cellCount.get(cellKey(cell(x), cell(y)));
+            return count == LongIntHashMap.NO_VALUE ? 0 : count;
+        }
+
+        boolean anyWithin(double x, double y) {
+            long cellX = cell(x);
+            long cellY = cell(y);
+            double spacingSq = spacing * spacing;
+            for (long cx = cellX - 1; cx <= cellX + 1; cx++) {
+                for (long cy = cellY - 1; cy <= cellY + 1; cy++) {
+                    for (int id = cellHead.get(cellKey(cx, cy)); id >= 0; id = nextInCell[id]) {
+                        double dx = takenX[id] - x;
+                        double dy = takenY[id] - y;
+                        if (dx * dx + dy * dy < spacingSq) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        void add(double x, double y) {
+            int id = size++;
+            takenX[id] = x;
+            takenY[id] = y;
+            long key = cellKey(cell(x), cell(y));
+            nextInCell[id] = cellHead.get(key);
+            cellHead.put(key, id);
+            if (cellQuota > 0) {
+                cellCount.put(key, cellTaken(x, y) + 1);
+            }
+        }
+
+        private long cell(double v) {
+            double c = Math.floor(v / spacing);
+            if (Math.abs(c) >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Coordinate " + v + " is out of range for spacing " + spacing);
+            }
+            return (long) c;
+        }
+    }
+
+    // Both cell coordinates fit in 32 bits (see cell), so packing them is exact.
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
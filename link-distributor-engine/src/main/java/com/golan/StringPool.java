@@ -0,0 +1,72 @@
+package com.golan;
+
+import java.util.Arrays;
+
+/**
+ * Append-only pool of strings stored back to back in one char array. A string is
+ * referred to by an int ref, so a table column of ids costs 4 bytes per row plus
+ * its characters instead of a String object per row.
+ */
+final class StringPool {
+
+    private char[] chars;
+    private int used;
+    private int[] starts; // starts[ref] .. starts[ref + 1] are the chars of ref
+    private int count;
+
+    StringPool(int expectedStrings) {
+        chars = new char[Math.max(16, expectedStrings * 8)];
+        starts = new int[Math.max(2, expectedStrings + 1)];
+    }
+
+    int size() {
+        return count;
+    }
+
+    int add(String s) {
+        int len = s.length();
+        if (used + len > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, used + len));
+        }
+        s.getChars(0, len, chars, used);
+        used += len;
+        if (count + 2 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        starts[++count] = used;
+        return count - 1;
+    }
+
+    String get(int ref) {
+        return new String(chars, starts[ref], starts[ref + 1] - starts[ref]);
+    }
+
+    // The characters of ref are chars()[start(ref)] .. chars()[end(ref) - 1]. The
+    // array is replaced as the pool grows, so it is only valid until the next add.
+    char[] chars() {
+        return chars;
+    }
+
+    int start(int ref) {
+        return starts[ref];
+    }
+
+    int end(int ref) {
+        return starts[ref + 1];
+    }
+
+    // Lexicographic comparison of two pooled strings without materializing them.
+    int compare(int a, int b) {
+        int i = starts[a];
+        int j = starts[b];
+        int endA = starts[a + 1];
+        int endB = starts[b + 1];
+        while (i < endA && j < endB) {
+            int diff = chars[i++] - chars[j++];
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (endA - starts[a]) - (endB - starts[b]);
+    }
+}
@@ -0,0 +1,168 @@
+package com.golan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Picks the k most central links of each group without sorting the whole group.
+ *
+ * A group's scores are copied into a primitive array and streamed through a
+ * bounded min-heap of k positions whose root is the weakest link kept so far, so a
+ * group of n links costs O(n log k). Links rank by descending centrality and, on
+ * equal centrality, by ascending link ID, which makes the selection and its order
+ * independent of the input order. Groups are selected in parallel.
+ */
+final class TopKSelection {
+
+    private TopKSelection() {
+    }
+
+    // Chooses up to k links of one group, most preferred first.
+    interface GroupSelector {
+        List<Link> select(List<Link> links, int k);
+    }
+
+    /**
+     * @param groups Links of each group.
+     * @param k Number of links to keep per group (parallel to groups).
+     * @param parallelism Maximum number of threads.
+     * @return The selected links of each group, most central first.
+     */
+    static List<List<Link>> select(List<List<Link>> groups, int[] k, int parallelism) {
+        return select(groups, k, parallelism, TopKSelection::top);
+    }
+
+    // As select above, with another per-group selection (e.g. SpatialSelection).
+    static List<List<Link>> select(List<List<Link>> groups, int[] k, int parallelism, GroupSelector selector) {
+        List<Callable<List<Link>>> tasks = new ArrayList<>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            List<Link> links = groups.get(g);
+            int limit = k[g];
+            tasks.add(() -> selector.select(links, limit));
+        }
+        int threads = Math.min(parallelism, Math.max(1, groups.size()));
+        List<List<Link>> selected = new ArrayList<>(groups.size());
+        try {
+            if (threads == 1) {
+                for (Callable<List<Link>> task : tasks) {
+                    selected.add(task.call());
+                }
+                return selected;
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (Future<List<Link>> result : pool.invokeAll(tasks)) {
+                    selected.add(result.get());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Top-k selection interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Top-k selection failed", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Top-k selection failed", e);
+        }
+        return selected;
+    }
+
+    // The k most central links, most central first.
+    static List<Link> top(List<Link> links, int k) {
+        int n = links.size();
+        k = Math.min(k, n);
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        double[] scores = scores(links);
+
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(heap, size++, scores, links);
+            } else if (ranksBelow(heap[0], i, scores, links)) {
+                heap[0] = i;
+                siftDown(heap, size, scores, links);
+            }
+        }
+
+        // Popping the root yields the weakest remaining link, so fill from the back.
+        Link[] result = new Link[k];
+        while (size > 0) {
+            result[size - 1] = links.get(heap[0]);
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores, links);
+        }
+        List<Link> list = new ArrayList<>(k);
+        Collections.addAll(list, result);
+        return list;
+    }
+
+    static double[] scores(List<Link> links) {
+        double[] scores = new double[links.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = links.get(i).centrality;
+        }
+        return scores;
+    }
+
+    // Whether position a ranks below position b: lower centrality, or a larger ID on a tie.
+    static boolean ranksBelow(int a, int b, double[] scores, List<Link> links) {
+        int c = Double.compare(scores[a], scores[b]);
+        if (c != 0) {
+            return c < 0;
+        }
+        Link linkA = links.get(a);
+        Link linkB = links.get(b);
+        if (linkA.table == linkB.table) {
+            // Ties are common (every link outside the centrality types scores 0), so compare pooled IDs in place.
+            return linkA.table.compareIds(linkA.row, linkB.row) > 0;
+        }
+        return linkA.id().compareTo(linkB.id()) > 0;
+    }
+
+    private static void siftUp(int[] heap, int i, double[] scores, List<Link> links) {
+        int item = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!ranksBelow(item, heap[parent], scores, links)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores, List<Link> links) {
+        if (size == 0) {
+            return;
+        }
+        int item = heap[0];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && ranksBelow(heap[right], heap[child], scores, links)) {
+                child = right;
+            }
+            if (!ranksBelow(heap[child], item, scores, links)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+}
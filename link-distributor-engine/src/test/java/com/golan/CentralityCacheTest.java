@@ -0,0 +1,133 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.golan.LinkDistributorLogic.CentralityScores;
+
+class CentralityCacheTest {
+
+    private static final String SETTINGS = "roadTypes=1,2|filterRamps=true|mode=EXACT";
+
+    @TempDir
+    Path dir;
+
+    // A network file pair; only its bytes matter to the cache key.
+    private File shapefile(String name, String content) throws IOException {
+        Files.write(dir.resolve(name + ".shp"), ("shp:" + content).getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve(name + ".dbf"), ("dbf:" + content).getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(name + ".shp").toFile();
+    }
+
+    private static LinkTable table(String prefix, int rows) {
+        LinkTable table = new LinkTable(rows);
+        for (int i = 0; i < rows; i++) {
+            table.add(prefix + i, "1", prefix + i, 0.0, false, i, 0, i, 1, 1, 1.0, 0, 0L);
+        }
+        return table;
+    }
+
+    private static CentralityScores scores(int rows) {
+        double[] byRow = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            byRow[row] = row / (double) rows;
+        }
+        return new CentralityScores(byRow, "sampled", 17, 0.025);
+    }
+
+    private CentralityCache cache(long maxBytes) {
+        return new CentralityCache(dir.resolve("cache").toFile(), maxBytes);
+    }
+
+    private File entry(CentralityCache cache, String key) {
+        return new File(cache.getDirectory(), key + ".cent");
+    }
+
+    @Test
+    void storedScoresRoundTrip() throws IOException {
+        File shapefile = shapefile("net", "a");
+        CentralityCache cache = cache(CentralityCache.DEFAULT_MAX_BYTES);
+        String key = cache.key(shapefile, SETTINGS);
+        assertEquals(key, cache(CentralityCache.DEFAULT_MAX_BYTES).key(shapefile, SETTINGS));
+        assertNotEquals(key, cache.key(shapefile, SETTINGS + "|directed"));
+
+        LinkTable table = table("link-", 300);
+        assertNull(cache.load(key, table));
+        CentralityScores stored = scores(table.size());
+        cache.store(key, SETTINGS, table, stored);
+        CentralityScores loaded = cache(CentralityCache.DEFAULT_MAX_BYTES).load(key, table);
+        assertNotNull(loaded);
+        assertArrayEquals(stored.byRow, loaded.byRow);
+        assertEquals("sampled", loaded.update);
+        assertEquals(17, loaded.pivotsUsed);
+        assertEquals(0.025, loaded.errorBound);
+    }
+
+    @Test
+    void changedNetworkGetsANewKey() throws IOException {
+        CentralityCache cache = cache(CentralityCache.DEFAULT_MAX_BYTES);
+        String before = cache.key(shapefile("net", "a"), SETTINGS);
+        String after = cache.key(shapefile("net", "ab"), SETTINGS);
+        assertNotEquals(before, after);
+        assertEquals(before, cache.key(shapefile("other", "a"), SETTINGS));
+    }
+
+    @Test
+    void entryForOtherLinksIsAMiss() throws IOException {
+        CentralityCache cache = cache(CentralityCache.DEFAULT_MAX_BYTES);
+        String key = cache.key(shapefile("net", "a"), SETTINGS);
+        LinkTable table = table("link-", 50);
+        cache.store(key, SETTINGS, table, scores(table.size()));
+        assertNull(cache.load(key, table("other-", 50)));
+        assertNull(cache.load(key, table("link-", 49)));
+        assertNotNull(cache.load(key, table));
+    }
+
+    @Test
+    void unreadableEntryIsAMiss() throws IOException {
+        CentralityCache cache = cache(CentralityCache.DEFAULT_MAX_BYTES);
+        String key = cache.key(shapefile("net", "a"), SETTINGS);
+        File entry = entry(cache, key);
+        assertTrue(entry.getParentFile().mkdirs());
+        Files.write(entry.toPath(), new byte[] {1, 2, 3});
+        assertNull(cache.load(key, table("link-", 5)));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        LinkTable table = table("link-", 100);
+        CentralityCache unbounded = cache(CentralityCache.DEFAULT_MAX_BYTES);
+        String a = unbounded.key(shapefile("a", "a"), SETTINGS);
+        String b = unbounded.key(shapefile("b", "b"), SETTINGS);
+        String c = unbounded.key(shapefile("c", "c"), SETTINGS);
+        unbounded.store(a, SETTINGS, table, scores(table.size()));
+        long entryBytes = entry(unbounded, a).length();
+
+        // Room for two entries.
+        CentralityCache cache = cache(2 * entryBytes + entryBytes / 2);
+        cache.store(b, SETTINGS, table, scores(table.size()));
+        long now = System.currentTimeMillis();
+        assertTrue(entry(cache, a).setLastModified(now - 20_000));
+        assertTrue(entry(cache, b).setLastModified(now - 10_000));
+        // A hit makes a the most recently used entry, so b goes first.
+        assertNotNull(cache.load(a, table));
+        cache.store(c, SETTINGS, table, scores(table.size()));
+        assertTrue(entry(cache, a).isFile());
+        assertFalse(entry(cache, b).isFile());
+        assertTrue(entry(cache, c).isFile());
+    }
+}
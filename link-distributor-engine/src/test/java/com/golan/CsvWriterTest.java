@@ -0,0 +1,183 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvWriterTest {
+
+    @TempDir
+    Path dir;
+
+    // Writes values one per row with fixed(value, decimals) and checks each row against String.format.
+    private void assertFixedMatchesFormat(List<Double> values, int decimals) throws IOException {
+        File file = dir.resolve("fixed" + decimals + ".csv").toFile();
+        try (CsvWriter csv = new CsvWriter(file)) {
+            for (double value : values) {
+                csv.fixed(value, decimals);
+                csv.endRow();
+            }
+        }
+        String[] rows = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n", -1);
+        assertEquals(values.size() + 1, rows.length);
+        for (int i = 0; i < values.size(); i++) {
+            double value = values.get(i);
+            assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", value), rows[i],
+                    "value " + value + " (bits " + Long.toHexString(Double.doubleToRawLongBits(value)) + ")");
+        }
+    }
+
+    @Test
+    void fixedMatchesFormatForRandomDoubles() throws IOException {
+        Random random = new Random(20240611L);
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            double magnitude = Math.pow(10, random.nextInt(16) - 6);
+            values.add((random.nextBoolean() ? 1 : -1) * random.nextDouble() * magnitude);
+        }
+        for (int i = 0; i < 10000; i++) {
+            values.add(Double.longBitsToDouble(random.nextLong()));
+        }
+        for (int decimals = 0; decimals <= 9; decimals++) {
+            assertFixedMatchesFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void fixedMatchesFormatOnTies() throws IOException {
+        List<Double> values = new ArrayList<>();
+        double[] ties = {0.00005, 1.00005, 2.5e-5, 0.5, 1.5, 2.5, 0.125, 0.375, 1.00015, 0.00015, 123.45675, 0.45, 1.45};
+        for (double tie : ties) {
+            values.add(tie);
+            values.add(-tie);
+            values.add(Math.nextUp(tie));
+            values.add(Math.nextDown(tie));
+        }
+        // Every decimal tie of the form k.5 units in the last place kept, for several scales.
+        for (int k = 0; k < 20000; k++) {
+            values.add((k + 0.5) / 1e4);
+            values.add((k + 0.5) / 1e2);
+        }
+        for (int decimals = 0; decimals <= 9; decimals++) {
+            assertFixedMatchesFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void fixedMatchesFormatOnSignedZeroAndSpecialValues() throws IOException {
+        List<Double> values = List.of(0.0, -0.0, -0.00001, -0.00004, -0.00005, -0.00006, -1e-300, 1e-300,
+                -Double.MIN_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MAX_VALUE, -Double.MAX_VALUE);
+        for (int decimals = 0; decimals <= 9; decimals++) {
+            assertFixedMatchesFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void fixedMatchesFormatAroundTheExactScaleLimit() throws IOException {
+        // With 4 decimals the scaled value reaches 1e15 at 1e11.
+        List<Double> values = new ArrayList<>();
+        for (double base : new double[] {1e11, 99999999999.99995, 99999999999.9999, 1e10, 1e15, 1e16}) {
+            double value = base;
+            for (int i = 0; i < 64; i++) {
+                values.add(value);
+                values.add(-value);
+                value = Math.nextUp(value);
+            }
+            value = base;
+            for (int i = 0; i < 64; i++) {
+                value = Math.nextDown(value);
+                values.add(value);
+            }
+        }
+        for (int decimals = 0; decimals <= 9; decimals++) {
+            assertFixedMatchesFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void textIsUtf8AndPooledTextMatchesText() throws IOException {
+        String[] texts = {"", "plain", "שלום", "naïve", "€100", "🚗 car", "x\uD800y", null};
+        StringPool pool = new StringPool(4);
+        int[] refs = new int[texts.length - 1];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = pool.add(texts[i]);
+        }
+        File plain = dir.resolve("text.csv").toFile();
+        File pooled = dir.resolve("pooled.csv").toFile();
+        try (CsvWriter a = new CsvWriter(plain); CsvWriter b = new CsvWriter(pooled)) {
+            for (int i = 0; i < refs.length; i++) {
+                a.text(texts[i]);
+                b.text(pool, refs[i]);
+            }
+            a.endRow();
+            b.endRow();
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < refs.length; i++) {
+            expected.append(i > 0 ? "," : "").append(texts[i]);
+        }
+        expected.append('\n');
+        byte[] expectedBytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expectedBytes, Files.readAllBytes(plain.toPath()));
+        assertArrayEquals(expectedBytes, Files.readAllBytes(pooled.toPath()));
+
+        File nulls = dir.resolve("null.csv").toFile();
+        try (CsvWriter csv = new CsvWriter(nulls)) {
+            csv.text(null);
+            csv.bool(true);
+            csv.bool(false);
+            csv.endRow();
+        }
+        assertEquals("null,true,false\n", new String(Files.readAllBytes(nulls.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void gzipWritesTheSameBytesCompressed() throws IOException {
+        File plain = dir.resolve("rows.csv").toFile();
+        File gzip = dir.resolve("rows.csv.gz").toFile();
+        Random random = new Random(7L);
+        // Enough rows to flush the 1 MB buffer several times.
+        try (CsvWriter a = new CsvWriter(plain); CsvWriter b = new CsvWriter(gzip)) {
+            for (CsvWriter csv : new CsvWriter[] {a, b}) {
+                csv.text("ID,VALUE,FLAG");
+                csv.endRow();
+            }
+            for (int row = 0; row < 200000; row++) {
+                String id = "link-" + row + (row % 7 == 0 ? "-ש" : "");
+                double value = random.nextGaussian() * 1000;
+                boolean flag = random.nextBoolean();
+                for (CsvWriter csv : new CsvWriter[] {a, b}) {
+                    csv.text(id);
+                    csv.fixed(value, 4);
+                    csv.bool(flag);
+                    csv.endRow();
+                }
+            }
+        }
+        byte[] expected = Files.readAllBytes(plain.toPath());
+        assertTrue(expected.length > 2 << 20, "rows should span several buffer flushes");
+        try (InputStream in = new GZIPInputStream(new FileInputStream(gzip))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            assertArrayEquals(expected, out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Known answers for small graphs, worked out by hand over every vertex pair
+ * (unordered pairs in undirected graphs, ordered pairs in directed ones).
+ */
+class EdgeBetweennessEngineTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    // A graph with edge e running from edges[e][0] to edges[e][1]; null weights mean hop counts.
+    private static CsrGraph graph(int vertexCount, int[][] edges, double[] weights, boolean directed) {
+        int[] source = new int[edges.length];
+        int[] target = new int[edges.length];
+        int[] owner = new int[edges.length];
+        for (int e = 0; e < edges.length; e++) {
+            source[e] = edges[e][0];
+            target[e] = edges[e][1];
+            owner[e] = e;
+        }
+        return new CsrGraph(vertexCount, source, target, owner, new Link[edges.length], weights, directed);
+    }
+
+    // Exact scores, checked to be the same for one and several threads.
+    private static double[] scores(CsrGraph graph) throws InterruptedException, ExecutionException {
+        double[] single = new EdgeBetweennessEngine(graph, 1).computeScores();
+        assertArrayEquals(single, new EdgeBetweennessEngine(graph, 3).computeScores(), TOLERANCE);
+        return single;
+    }
+
+    @Test
+    void path() throws Exception {
+        // 0 - 1 - 2 - 3: an edge carries every pair it separates, each counted once.
+        int[][] edges = {{0, 1}, {1, 2}, {2, 3}};
+        double[] expected = {3, 4, 3};
+        assertArrayEquals(expected, scores(graph(4, edges, null, false)), TOLERANCE);
+        assertArrayEquals(expected, scores(graph(4, edges, new double[] {5, 0.5, 2}, false)), TOLERANCE);
+    }
+
+    @Test
+    void star() throws Exception {
+        // Centre 0 with four leaves: each spoke carries its leaf to the centre and the three other leaves.
+        int[][] edges = {{0, 1}, {2, 0}, {0, 3}, {4, 0}};
+        assertArrayEquals(new double[] {4, 4, 4, 4}, scores(graph(5, edges, null, false)), TOLERANCE);
+    }
+
+    @Test
+    void weightedDiamondWithTies() throws Exception {
+        // Diamond 0-1-3-2-0 and chord 1-2. Weighted, 0 reaches 3 both ways at cost 3,
+        // and 1 reaches 2 at cost 3 directly, through 0 and through 3.
+        int[][] edges = {{0, 1}, {0, 2}, {1, 3}, {2, 3}, {1, 2}};
+        double[] weights = {1, 2, 2, 1, 3};
+        double side = 1 + 0.5 + 1.0 / 3;
+        assertArrayEquals(new double[] {side, side, side, side, 1.0 / 3},
+                scores(graph(4, edges, weights, false)), TOLERANCE);
+        // By hop count the chord is the only shortest path between 1 and 2.
+        assertArrayEquals(new double[] {1.5, 1.5, 1.5, 1.5, 1},
+                scores(graph(4, edges, null, false)), TOLERANCE);
+    }
+
+    @Test
+    void weightsOverrideHopCounts() throws Exception {
+        // 0-1 directly at cost 2 ties with 0-2-1 at cost 1 + 1.
+        int[][] edges = {{0, 1}, {0, 2}, {2, 1}};
+        assertArrayEquals(new double[] {0.5, 1.5, 1.5}, scores(graph(3, edges, new double[] {2, 1, 1}, false)), TOLERANCE);
+        assertArrayEquals(new double[] {1, 1, 1}, scores(graph(3, edges, null, false)), TOLERANCE);
+    }
+
+    @Test
+    void directedParallelArcs() throws Exception {
+        // Cycle 0 -> 1 -> 2 -> 0 with two arcs from 0 to 1, over all six ordered pairs.
+        int[][] edges = {{0, 1}, {0, 1}, {1, 2}, {2, 0}};
+        assertArrayEquals(new double[] {1.5, 1.5, 3, 3}, scores(graph(3, edges, null, true)), TOLERANCE);
+        // A costlier parallel arc is never on a shortest path.
+        assertArrayEquals(new double[] {3, 0, 3, 3},
+                scores(graph(3, edges, new double[] {1, 2, 1, 1}, true)), TOLERANCE);
+    }
+
+    @Test
+    void directedArcsCountEachOrderedPair() throws Exception {
+        // 0 <-> 1 -> 2: 1 -> 2 carries (0, 2) and (1, 2); nothing reaches back from 2.
+        int[][] edges = {{0, 1}, {1, 0}, {1, 2}};
+        assertArrayEquals(new double[] {2, 1, 2}, scores(graph(3, edges, null, true)), TOLERANCE);
+    }
+
+    @Test
+    void selfLoopCarriesNothing() throws Exception {
+        int[][] edges = {{0, 1}, {1, 1}, {1, 2}};
+        assertArrayEquals(new double[] {2, 0, 2}, scores(graph(3, edges, null, false)), TOLERANCE);
+        assertArrayEquals(new double[] {2, 0, 2}, scores(graph(3, edges, new double[] {1, 0.5, 1}, false)), TOLERANCE);
+        int[][] arcs = {{0, 1}, {1, 1}, {1, 2}};
+        assertArrayEquals(new double[] {2, 0, 2}, scores(graph(3, arcs, null, true)), TOLERANCE);
+    }
+
+    @Test
+    void everyVertexAsPivotIsExact() throws Exception {
+        Random random = new Random(7);
+        int n = 60;
+        int[][] edges = new int[150][];
+        double[] weights = new double[edges.length];
+        for (int e = 0; e < edges.length; e++) {
+            // A ring keeps the graph connected; the rest are random chords.
+            edges[e] = e < n ? new int[] {e, (e + 1) % n} : new int[] {random.nextInt(n), random.nextInt(n)};
+            weights[e] = 1 + random.nextInt(4);
+        }
+        for (boolean directed : new boolean[] {false, true}) {
+            for (double[] w : new double[][] {null, weights}) {
+                CsrGraph graph = graph(n, edges, w, directed);
+                EdgeBetweennessEngine engine = new EdgeBetweennessEngine(graph, 4);
+                double[] exact = engine.computeScores();
+                assertArrayEquals(exact, engine.computeScores(EdgeBetweennessEngine.samplePivots(n, n, 11L)), 1e-9);
+                assertArrayEquals(exact, engine.computeContributions(null), 1e-9);
+            }
+        }
+    }
+}
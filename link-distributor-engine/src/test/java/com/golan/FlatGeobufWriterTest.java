@@ -0,0 +1,346 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.wololo.flatgeobuf.PackedRTree;
+import org.wololo.flatgeobuf.generated.Column;
+import org.wololo.flatgeobuf.generated.Feature;
+import org.wololo.flatgeobuf.generated.Geometry;
+import org.wololo.flatgeobuf.generated.Header;
+
+// Writes features with FlatGeobufWriter and reads them back with the flatgeobuf-java FlatBuffers classes.
+class FlatGeobufWriterTest {
+
+    private static final String[] COLUMNS = {"ID", "TYPE", "CENTRALITY"};
+    private static final byte[] TYPES = {FlatGeobufWriter.COLUMN_STRING, FlatGeobufWriter.COLUMN_STRING, FlatGeobufWriter.COLUMN_DOUBLE};
+    private static final int EPSG = 2039;
+    private static final int MULTILINESTRING = 5; // GeometryType.MultiLineString
+
+    @TempDir
+    Path dir;
+
+    // One feature as written: interleaved x, y, the part ends and a value per column.
+    private static final class Line {
+        final double[] xy;
+        final int[] ends;
+        final Object[] values;
+
+        Line(double[] xy, int[] ends, Object[] values) {
+            this.xy = xy;
+            this.ends = ends;
+            this.values = values;
+        }
+
+        int points() {
+            return xy.length / 2;
+        }
+    }
+
+    // A feature as read back.
+    private static final class ReadFeature {
+        double[] xy;      // null without geometry
+        long[] ends;      // empty for one part
+        Map<Integer, Object> properties = new HashMap<>();
+        long offset;      // from the start of the features
+    }
+
+    /*
+     * Random features: about one in five multi-part, one in ten without geometry,
+     * with non-ASCII and null values. Feature i has the ID "link-i".
+     */
+    private static List<Line> lines(int count, long seed) {
+        Random random = new Random(seed);
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Object[] values = {"link-" + i, i % 3 == 0 ? "כביש" : null, random.nextDouble()};
+            if (i % 10 == 9) {
+                lines.add(new Line(new double[0], new int[0], values));
+                continue;
+            }
+            int parts = i % 5 == 4 ? 2 + random.nextInt(3) : 1;
+            int[] ends = new int[parts];
+            int points = 0;
+            for (int p = 0; p < parts; p++) {
+                points += 2 + random.nextInt(4);
+                ends[p] = points;
+            }
+            double[] xy = new double[2 * points];
+            double x = 180000 + random.nextDouble() * 10000;
+            double y = 600000 + random.nextDouble() * 10000;
+            for (int k = 0; k < points; k++) {
+                x += random.nextGaussian() * 50;
+                y += random.nextGaussian() * 50;
+                xy[2 * k] = x;
+                xy[2 * k + 1] = y;
+            }
+            lines.add(new Line(xy, ends, values));
+        }
+        return lines;
+    }
+
+    // Writes all lines after a prefix of junk coordinates, so from is exercised too.
+    private File write(List<Line> lines, boolean indexed) throws IOException {
+        File file = dir.resolve((indexed ? "indexed" : "streamed") + lines.size() + ".fgb").toFile();
+        try (FlatGeobufWriter writer = new FlatGeobufWriter(file, "output", COLUMNS, TYPES, EPSG, indexed)) {
+            for (Line line : lines) {
+                double[] xy = new double[6 + line.xy.length];
+                Arrays.fill(xy, 0, 6, Double.NaN);
+                System.arraycopy(line.xy, 0, xy, 6, line.xy.length);
+                writer.write(xy, 6, line.points(), line.ends, line.ends.length, line.values);
+            }
+            assertEquals(lines.size(), writer.size());
+        }
+        return file;
+    }
+
+    private void assertRoundTrip(List<Line> lines, boolean indexed) throws IOException {
+        File file = write(lines, indexed);
+        assertFalse(new File(file.getPath() + ".features.tmp").exists());
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] magic = new byte[8];
+        bytes.get(magic);
+        assertArrayEquals(new byte[] {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00}, magic);
+        int headerSize = bytes.getInt();
+        Header header = Header.getRootAsHeader(bytes.slice().order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals("output", header.name());
+        assertEquals(MULTILINESTRING, header.geometryType());
+        assertEquals(lines.size(), header.featuresCount());
+        assertEquals(EPSG, header.crs().code());
+        assertEquals(COLUMNS.length, header.columnsLength());
+        for (int c = 0; c < COLUMNS.length; c++) {
+            Column column = header.columns(c);
+            assertEquals(COLUMNS[c], column.name());
+            assertEquals(TYPES[c], column.type());
+        }
+
+        double[] extent = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (Line line : lines) {
+            extend(extent, line.xy);
+        }
+        assertEquals(4, header.envelopeLength());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(extent[0] <= extent[2] ? extent[i] : 0.0, header.envelope(i), "envelope " + i);
+        }
+
+        int treeAt = 12 + headerSize;
+        int nodeSize = header.indexNodeSize();
+        long treeBytes = 0;
+        if (indexed && !lines.isEmpty()) {
+            assertEquals(16, nodeSize);
+            treeBytes = PackedRTree.calcSize(lines.size(), nodeSize);
+        } else {
+            assertEquals(0, nodeSize);
+        }
+        int featuresAt = (int) (treeAt + treeBytes);
+
+        List<ReadFeature> read = new ArrayList<>();
+        int at = featuresAt;
+        while (at < bytes.limit()) {
+            int size = bytes.getInt(at);
+            ByteBuffer slice = ByteBuffer.wrap(bytes.array(), at + 4, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+            ReadFeature feature = decode(Feature.getRootAsFeature(slice));
+            feature.offset = at - featuresAt;
+            read.add(feature);
+            at += 4 + size;
+        }
+        assertEquals(bytes.limit(), at);
+        assertEquals(lines.size(), read.size());
+
+        // Streamed files keep the write order; indexed ones are in the tree's leaf order.
+        Map<String, ReadFeature> byId = new HashMap<>();
+        for (int k = 0; k < read.size(); k++) {
+            ReadFeature feature = read.get(k);
+            byId.put((String) feature.properties.get(0), feature);
+            if (!indexed) {
+                assertEquals("link-" + k, feature.properties.get(0));
+            }
+        }
+        for (Line line : lines) {
+            ReadFeature feature = byId.get((String) line.values[0]);
+            assertNotNull(feature, "feature " + line.values[0]);
+            assertFeature(line, feature);
+        }
+
+        if (treeBytes > 0) {
+            assertTree(bytes, treeAt, lines.size(), nodeSize, read);
+        }
+    }
+
+    private static ReadFeature decode(Feature feature) {
+        ReadFeature read = new ReadFeature();
+        Geometry geometry = feature.geometry();
+        if (geometry != null) {
+            read.xy = new double[geometry.xyLength()];
+            for (int i = 0; i < read.xy.length; i++) {
+                read.xy[i] = geometry.xy(i);
+            }
+            read.ends = new long[geometry.endsLength()];
+            for (int i = 0; i < read.ends.length; i++) {
+                read.ends[i] = geometry.ends(i);
+            }
+            assertEquals(0, geometry.zLength());
+            assertEquals(0, geometry.partsLength());
+        }
+        byte[] properties = new byte[feature.propertiesLength()];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = (byte) feature.properties(i);
+        }
+        ByteBuffer b = ByteBuffer.wrap(properties).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            int column = b.getShort() & 0xFFFF;
+            if (TYPES[column] == FlatGeobufWriter.COLUMN_STRING) {
+                byte[] text = new byte[b.getInt()];
+                b.get(text);
+                read.properties.put(column, new String(text, StandardCharsets.UTF_8));
+            } else {
+                read.properties.put(column, b.getDouble());
+            }
+        }
+        return read;
+    }
+
+    private static void assertFeature(Line line, ReadFeature feature) {
+        String id = (String) line.values[0];
+        if (line.points() == 0) {
+            assertNull(feature.xy, id);
+        } else {
+            assertArrayEquals(line.xy, feature.xy, id);
+            long[] ends = new long[line.ends.length > 1 ? line.ends.length : 0];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = line.ends[i];
+            }
+            assertArrayEquals(ends, feature.ends, id);
+        }
+        for (int c = 0; c < COLUMNS.length; c++) {
+            assertEquals(line.values[c], feature.properties.get(c), id + " column " + COLUMNS[c]);
+        }
+    }
+
+    /*
+     * The tree is stored root first, a level at a time. The leaves are the last
+     * count nodes: each points at the next feature and holds its bounds. Every
+     * other node points at its first child and holds the union of its children,
+     * which are up to nodeSize consecutive nodes of the level below.
+     */
+    private static void assertTree(ByteBuffer bytes, int treeAt, int count, int nodeSize, List<ReadFeature> features) {
+        // As in the reference implementation, even a single leaf gets a root.
+        List<Integer> levelSizes = new ArrayList<>(); // root first
+        int n = count;
+        levelSizes.add(n);
+        do {
+            n = (n + nodeSize - 1) / nodeSize;
+            levelSizes.add(0, n);
+        } while (n != 1);
+        int levelStart = 0;
+        for (int level = 0; level < levelSizes.size() - 1; level++) {
+            int childStart = levelStart + levelSizes.get(level);
+            int childEnd = childStart + levelSizes.get(level + 1);
+            for (int k = 0; k < levelSizes.get(level); k++) {
+                int node = treeAt + 40 * (levelStart + k);
+                int first = childStart + k * nodeSize;
+                assertEquals(first, bytes.getLong(node + 32), "node " + (levelStart + k));
+                double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+                for (int child = first; child < Math.min(first + nodeSize, childEnd); child++) {
+                    int c = treeAt + 40 * child;
+                    box[0] = Math.min(box[0], bytes.getDouble(c));
+                    box[1] = Math.min(box[1], bytes.getDouble(c + 8));
+                    box[2] = Math.max(box[2], bytes.getDouble(c + 16));
+                    box[3] = Math.max(box[3], bytes.getDouble(c + 24));
+                }
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(box[i], bytes.getDouble(node + 8 * i), "node " + (levelStart + k) + " bound " + i);
+                }
+            }
+            levelStart = childStart;
+        }
+        for (int k = 0; k < count; k++) {
+            int node = treeAt + 40 * (levelStart + k);
+            ReadFeature feature = features.get(k);
+            assertEquals(feature.offset, bytes.getLong(node + 32), "leaf " + k);
+            if (feature.xy != null) {
+                double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+                extend(box, feature.xy);
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(box[i], bytes.getDouble(node + 8 * i), "leaf " + k + " bound " + i);
+                }
+            }
+        }
+    }
+
+    private static void extend(double[] box, double[] xy) {
+        for (int i = 0; i < xy.length; i += 2) {
+            box[0] = Math.min(box[0], xy[i]);
+            box[1] = Math.min(box[1], xy[i + 1]);
+            box[2] = Math.max(box[2], xy[i]);
+            box[3] = Math.max(box[3], xy[i + 1]);
+        }
+    }
+
+    @Test
+    void emptyFileHasAHeaderOnly() throws IOException {
+        assertRoundTrip(lines(0, 1L), false);
+        assertRoundTrip(lines(0, 1L), true);
+    }
+
+    @Test
+    void singleFeatureRoundTrips() throws IOException {
+        assertRoundTrip(lines(1, 2L), false);
+        assertRoundTrip(lines(1, 2L), true);
+    }
+
+    @Test
+    void singleFeatureWithoutGeometryRoundTrips() throws IOException {
+        List<Line> lines = List.of(new Line(new double[0], new int[0], new Object[] {"link-0", null, null}));
+        assertRoundTrip(lines, false);
+        assertRoundTrip(lines, true);
+    }
+
+    @Test
+    void streamedFeaturesRoundTrip() throws IOException {
+        assertRoundTrip(lines(17, 3L), false);
+        assertRoundTrip(lines(1000, 4L), false);
+    }
+
+    @Test
+    void indexedFeaturesRoundTrip() throws IOException {
+        // 17 features give a root over two leaf groups; 1000 give three levels.
+        assertRoundTrip(lines(17, 3L), true);
+        assertRoundTrip(lines(1000, 4L), true);
+    }
+
+    @Test
+    void largeFeatureGrowsTheWriteBuffer() throws IOException {
+        List<Line> lines = lines(20, 5L);
+        int points = 100_000; // 1.6 MB of coordinates, more than the 1 MB write buffer
+        double[] xy = new double[2 * points];
+        for (int k = 0; k < points; k++) {
+            xy[2 * k] = 180000 + k;
+            xy[2 * k + 1] = 600000 + Math.sin(k);
+        }
+        lines.set(7, new Line(xy, new int[] {points / 2, points}, new Object[] {"link-7", "long", 0.5}));
+        assertRoundTrip(lines, false);
+        assertRoundTrip(lines, true);
+    }
+}
@@ -0,0 +1,285 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.golan.LinkDistributorLogic.Link;
+
+/**
+ * Checks IncrementalBetweenness.update() against a full EdgeBetweennessEngine pass
+ * on the changed network, with graphs built as step 4 builds them.
+ */
+class IncrementalBetweennessTest {
+
+    private static final int SIZE = 14; // grid nodes per side
+    private static final double SPACING = 100.0;
+
+    @TempDir
+    Path dir;
+
+    // One input link: its ID, geometry end points and cost.
+    private static final class LinkSpec {
+        final String id;
+        final String combinedId;
+        final boolean twoSided;
+        final double x0, y0, x1, y1;
+        double weight;
+        long geometryHash;
+
+        LinkSpec(String id, String combinedId, boolean twoSided, double x0, double y0, double x1, double y1, double weight) {
+            this.id = id;
+            this.combinedId = combinedId;
+            this.twoSided = twoSided;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.weight = weight;
+            this.geometryHash = id.hashCode();
+        }
+
+        LinkSpec copy() {
+            LinkSpec copy = new LinkSpec(id, combinedId, twoSided, x0, y0, x1, y1, weight);
+            copy.geometryHash = geometryHash;
+            return copy;
+        }
+    }
+
+    /**
+     * A grid with random costs. In every other row the horizontal links are
+     * digitized as two-sided pairs (one link per direction, sharing a combined ID).
+     *
+     * Two paths of length 3 leave the corner (0, 0), with chords between the nodes
+     * at equal distance from the corner. Sources outside the pendant reach both
+     * ends of a chord through the corner at the same cost, so a changed chord only
+     * affects a few sources, even with hop counts where the grid ties everywhere.
+     */
+    private static List<LinkSpec> grid(long seed) {
+        Random random = new Random(seed);
+        List<LinkSpec> specs = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                double x = i * SPACING;
+                double y = j * SPACING;
+                if (i + 1 < SIZE) {
+                    String id = "h" + i + "_" + j;
+                    double weight = SPACING * (1 + 3 * random.nextDouble());
+                    if (j % 2 == 0) {
+                        specs.add(new LinkSpec(id + "a", id, true, x, y, x + SPACING, y, weight));
+                        specs.add(new LinkSpec(id + "b", id, true, x + SPACING, y, x, y, weight * (1 + random.nextDouble())));
+                    } else {
+                        specs.add(new LinkSpec(id, id, false, x, y, x + SPACING, y, weight));
+                    }
+                }
+                if (j + 1 < SIZE) {
+                    specs.add(new LinkSpec("v" + i + "_" + j, "v" + i + "_" + j, false, x, y, x, y + SPACING,
+                            SPACING * (1 + 3 * random.nextDouble())));
+                }
+            }
+        }
+        for (int k = 1; k <= 3; k++) {
+            double from = -(k - 1) * SPACING;
+            double to = -k * SPACING;
+            specs.add(new LinkSpec("px" + k, "px" + k, false, from, 0, to, 0, SPACING));
+            specs.add(new LinkSpec("py" + k, "py" + k, false, 0, from, 0, to, SPACING));
+        }
+        specs.add(chord(1));
+        specs.add(chord(2));
+        return specs;
+    }
+
+    // The chord between the pendant nodes k steps from the corner.
+    private static LinkSpec chord(int k) {
+        return new LinkSpec("chord" + k, "chord" + k, false, -k * SPACING, 0, 0, -k * SPACING, SPACING);
+    }
+
+    private static int indexOf(List<LinkSpec> specs, String id) {
+        for (int i = 0; i < specs.size(); i++) {
+            if (specs.get(i).id.equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(id);
+    }
+
+    private static List<LinkSpec> copy(List<LinkSpec> specs) {
+        List<LinkSpec> copy = new ArrayList<>(specs.size());
+        for (LinkSpec spec : specs) {
+            copy.add(spec.copy());
+        }
+        return copy;
+    }
+
+    // The centrality graph of the links, as LinkDistributorLogic builds it in step 4.
+    private static CsrGraph graph(List<LinkSpec> specs, boolean weighted, boolean directed) {
+        LinkTable table = new LinkTable(specs.size());
+        for (LinkSpec s : specs) {
+            double length = Math.hypot(s.x1 - s.x0, s.y1 - s.y0);
+            table.add(s.id, "1", s.combinedId, 0.0, s.twoSided, s.x0, s.y0, s.x1, s.y1, length, s.weight, 0, s.geometryHash);
+        }
+        List<Link> links = table.toLinks();
+        int vertexCount = LinkDistributorLogic.assignGraphNodes(links);
+        if (weighted) {
+            for (int i = 0; i < links.size(); i++) {
+                links.get(i).weight = specs.get(i).weight;
+            }
+        }
+        return CsrGraph.fromLinks(links, vertexCount, weighted, directed);
+    }
+
+    private static double[] full(CsrGraph graph) throws Exception {
+        return new EdgeBetweennessEngine(graph, 2).computeScores();
+    }
+
+    // The snapshot a run on before would leave, written to disk and read back as the next run reads it.
+    private CentralitySnapshot snapshot(List<LinkSpec> before, boolean weighted, boolean directed) throws Exception {
+        CsrGraph graph = graph(before, weighted, directed);
+        File file = dir.resolve("snapshot-" + System.nanoTime() + ".bin").toFile();
+        CentralitySnapshot.of(graph, full(graph), "settings").write(file);
+        CentralitySnapshot read = CentralitySnapshot.read(file);
+        assertNotNull(read);
+        return read;
+    }
+
+    // Runs update() from before to after and compares every arc with a full pass on after.
+    private IncrementalBetweenness assertUpdateMatchesFull(List<LinkSpec> before, List<LinkSpec> after,
+                                                           boolean weighted, boolean directed) throws Exception {
+        CsrGraph graph = graph(after, weighted, directed);
+        IncrementalBetweenness incremental = new IncrementalBetweenness(snapshot(before, weighted, directed), graph, 3);
+        double[] updated = incremental.update();
+        assertNotNull(updated, "fell back: " + incremental.getFallbackReason());
+        assertTrue(incremental.getAffectedSources() < graph.vertexCount, "some sources were skipped");
+        double[] expected = full(graph);
+        assertEquals(expected.length, updated.length);
+        double max = 1.0;
+        for (double score : expected) {
+            max = Math.max(max, score);
+        }
+        for (int e = 0; e < expected.length; e++) {
+            assertEquals(expected[e], updated[e], 1e-9 * max, "arc " + e);
+        }
+        return incremental;
+    }
+
+    // Index of the link at the given quantile of full-pass betweenness, from the least used.
+    private static int linkAtQuantile(List<LinkSpec> specs, boolean weighted, boolean directed, double quantile) throws Exception {
+        CsrGraph graph = graph(specs, weighted, directed);
+        double[] linkScores = graph.linkScores(full(graph));
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(i -> linkScores[i]));
+        return order.get((int) (quantile * (order.size() - 1)));
+    }
+
+    private void assertAddRemoveAndRecost(boolean weighted, boolean directed) throws Exception {
+        List<LinkSpec> before = grid(weighted ? 11L : 12L);
+        List<LinkSpec> after = copy(before);
+        if (weighted) {
+            // Re-cost a chord and a lightly used grid link.
+            after.get(indexOf(after, "chord1")).weight *= 1.5;
+            after.get(linkAtQuantile(before, true, directed, 0.2)).weight *= 1.1;
+        } else {
+            // A redrawn link is a changed arc even at the same cost.
+            after.get(indexOf(after, "chord1")).geometryHash ^= 1L;
+        }
+        after.remove(indexOf(after, "chord2"));
+        after.add(chord(3));
+
+        IncrementalBetweenness incremental = assertUpdateMatchesFull(before, after, weighted, directed);
+        assertTrue(incremental.getChangedArcs() > 0);
+        assertTrue(incremental.getAffectedSources() > 0);
+    }
+
+    @Test
+    void undirectedHopCountsMatchFullRecomputation() throws Exception {
+        assertAddRemoveAndRecost(false, false);
+    }
+
+    @Test
+    void undirectedWeightedMatchesFullRecomputation() throws Exception {
+        assertAddRemoveAndRecost(true, false);
+    }
+
+    @Test
+    void directedHopCountsMatchFullRecomputation() throws Exception {
+        assertAddRemoveAndRecost(false, true);
+    }
+
+    @Test
+    void directedWeightedMatchesFullRecomputation() throws Exception {
+        assertAddRemoveAndRecost(true, true);
+    }
+
+    @Test
+    void removingOneSideOfATwoSidedPairMatchesFullRecomputation() throws Exception {
+        // The remaining side then carries arcs in both directions.
+        List<LinkSpec> before = grid(13L);
+        List<LinkSpec> after = copy(before);
+        for (int i = 0; i < after.size(); i++) {
+            if (after.get(i).twoSided && after.get(i).id.equals("h0_0b")) {
+                after.remove(i);
+                break;
+            }
+        }
+        assertEquals(before.size() - 1, after.size());
+        assertUpdateMatchesFull(before, after, true, true);
+    }
+
+    @Test
+    void unchangedNetworkKeepsItsScores() throws Exception {
+        List<LinkSpec> before = grid(14L);
+        IncrementalBetweenness incremental = assertUpdateMatchesFull(before, copy(before), true, true);
+        assertEquals(0, incremental.getChangedArcs());
+        assertEquals(0, incremental.getAffectedSources());
+    }
+
+    @Test
+    void fallsBackWhenTooManyArcsChanged() throws Exception {
+        List<LinkSpec> before = grid(15L);
+        List<LinkSpec> after = copy(before);
+        for (int i = 0; i < after.size(); i += 10) {
+            after.get(i).weight *= 1.5;
+        }
+        IncrementalBetweenness incremental = new IncrementalBetweenness(snapshot(before, true, false), graph(after, true, false), 2);
+        assertNull(incremental.update());
+        assertTrue(incremental.getFallbackReason().contains("arcs changed"), incremental.getFallbackReason());
+    }
+
+    @Test
+    void fallsBackWhenTooManySourcesAreAffected() throws Exception {
+        // A spur to a new node lengthens the shortest-path DAG of every source.
+        List<LinkSpec> before = grid(16L);
+        List<LinkSpec> after = copy(before);
+        after.add(new LinkSpec("spur", "spur", false, 0, 0, -SPACING, 0, SPACING));
+        IncrementalBetweenness incremental = new IncrementalBetweenness(snapshot(before, true, false), graph(after, true, false), 2);
+        assertNull(incremental.update());
+        assertTrue(incremental.getFallbackReason().contains("sources affected"), incremental.getFallbackReason());
+    }
+
+    @Test
+    void fallsBackWhenTheGraphTypeChanged() throws Exception {
+        List<LinkSpec> before = grid(17L);
+        IncrementalBetweenness directedToUndirected =
+                new IncrementalBetweenness(snapshot(before, true, true), graph(before, true, false), 2);
+        assertNull(directedToUndirected.update());
+        assertEquals("graph type changed", directedToUndirected.getFallbackReason());
+        IncrementalBetweenness weightedToHops =
+                new IncrementalBetweenness(snapshot(before, true, false), graph(before, false, false), 2);
+        assertNull(weightedToHops.update());
+        assertEquals("graph type changed", weightedToHops.getFallbackReason());
+    }
+}
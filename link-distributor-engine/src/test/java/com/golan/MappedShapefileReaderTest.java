@@ -0,0 +1,122 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.golan.LinkDistributorLogic.NodeManager;
+
+class MappedShapefileReaderTest {
+
+    // IDs beyond 2^53 = 9007199254740992, where a double can no longer hold every integer.
+    private static final String[] LONG_IDS = {
+            "123456789012345678", "9007199254740993", "-98765432109876543", "999999999999999999", "42"};
+
+    @TempDir
+    Path dir;
+
+    /*
+     * Writes links.shp/.shx/.dbf with one two-point line per ID, with an ID column
+     * N(18,0) and TYPE 1. Records whose deleted flag is set are marked '*' in the .dbf.
+     */
+    private File shapefile(String[] ids, boolean[] deleted) throws IOException {
+        int n = ids.length;
+        int content = 4 + 32 + 4 + 4 + 4 + 2 * 16; // one part, two points
+        ByteBuffer shp = ByteBuffer.allocate(100 + n * (8 + content));
+        ByteBuffer shx = ByteBuffer.allocate(100 + n * 8);
+        header(shp, n);
+        header(shx, n);
+        for (int i = 0; i < n; i++) {
+            shx.order(ByteOrder.BIG_ENDIAN).putInt(shp.position() / 2).putInt(content / 2);
+            shp.order(ByteOrder.BIG_ENDIAN).putInt(i + 1).putInt(content / 2);
+            shp.order(ByteOrder.LITTLE_ENDIAN).putInt(3)
+                    .putDouble(i).putDouble(0).putDouble(i).putDouble(1)
+                    .putInt(1).putInt(2).putInt(0)
+                    .putDouble(i).putDouble(0).putDouble(i).putDouble(1);
+        }
+
+        String[][] fields = {{"ID", "18"}, {"TYPE", "2"}};
+        int recordLength = 1 + 18 + 2;
+        int headerLength = 32 + 32 * fields.length + 1;
+        ByteBuffer dbf = ByteBuffer.allocate(headerLength + n * recordLength + 1).order(ByteOrder.LITTLE_ENDIAN);
+        dbf.put((byte) 3).put((byte) 124).put((byte) 1).put((byte) 1)
+                .putInt(n).putShort((short) headerLength).putShort((short) recordLength);
+        dbf.position(32);
+        for (String[] field : fields) {
+            byte[] name = field[0].getBytes(StandardCharsets.ISO_8859_1);
+            int at = dbf.position();
+            dbf.put(name).position(at + 11);
+            dbf.put((byte) 'N').position(at + 16);
+            dbf.put((byte) Integer.parseInt(field[1])).put((byte) 0).position(at + 32);
+        }
+        dbf.put((byte) 0x0D);
+        for (int i = 0; i < n; i++) {
+            dbf.put((byte) (deleted != null && deleted[i] ? '*' : ' '));
+            dbf.put(String.format("%18s% 2d", ids[i], 1).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        dbf.put((byte) 0x1A);
+
+        Files.write(dir.resolve("links.shp"), shp.array());
+        Files.write(dir.resolve("links.shx"), shx.array());
+        Files.write(dir.resolve("links.dbf"), dbf.array());
+        return dir.resolve("links.shp").toFile();
+    }
+
+    private static void header(ByteBuffer buffer, int records) {
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(9994).position(24);
+        buffer.putInt(buffer.capacity() / 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(1000).putInt(3)
+                .putDouble(0).putDouble(0).putDouble(Math.max(0, records - 1)).putDouble(1)
+                .putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+    }
+
+    private static LinkTable mapped(File shapefile) throws IOException {
+        return new MappedShapefileReader(false, 0, null, new NodeManager(), 1).load(shapefile, "links");
+    }
+
+    @Test
+    void longIntegralIdsAreExact() throws IOException {
+        LinkTable table = mapped(shapefile(LONG_IDS, null));
+        assertNotNull(table);
+        assertEquals(LONG_IDS.length, table.size());
+        for (int row = 0; row < LONG_IDS.length; row++) {
+            assertEquals(LONG_IDS[row], table.id(row));
+            assertEquals(LONG_IDS[row], table.combinedId(row));
+        }
+    }
+
+    @Test
+    void longIntegralIdsMatchTheGeoToolsLoader() throws IOException {
+        File file = shapefile(LONG_IDS, null);
+        LinkTable mapped = mapped(file);
+        ShapefileLinkLoader loader = new ShapefileLinkLoader(false, 0, null);
+        loader.setUseMappedReader(false);
+        LinkTable geotools = loader.load(file);
+        assertEquals(geotools.size(), mapped.size());
+        for (int row = 0; row < mapped.size(); row++) {
+            assertEquals(geotools.id(row), mapped.id(row));
+            assertEquals(geotools.type(row), mapped.type(row));
+            assertEquals(geotools.length(row), mapped.length(row));
+        }
+    }
+
+    @Test
+    void deletedRecordsAreSkipped() throws IOException {
+        String[] ids = {"1", "2", "3", "4"};
+        LinkTable table = mapped(shapefile(ids, new boolean[] {false, true, false, true}));
+        assertEquals(2, table.size());
+        assertEquals("1", table.id(0));
+        assertEquals("3", table.id(1));
+        assertEquals(2.0, table.startX(1));
+    }
+}
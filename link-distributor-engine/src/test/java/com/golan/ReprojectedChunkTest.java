@@ -0,0 +1,214 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateXYZM;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.opengis.referencing.operation.MathTransform;
+
+class ReprojectedChunkTest {
+
+    private static final int PARALLELISM = 4;
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final Random random = new Random(42L);
+
+    // WGS84 longitude/latitude to the Israeli TM grid, as for an input in geographic coordinates.
+    private static MathTransform transform() throws Exception {
+        return CRS.findMathTransform(CRS.decode("EPSG:4326", true), CRS.decode("EPSG:2039"), true);
+    }
+
+    private enum Ordinates { XY, XYZ, XYZM }
+
+    private Coordinate coordinate(Ordinates ordinates) {
+        double x = 34.8 + random.nextDouble() * 0.5;
+        double y = 31.5 + random.nextDouble() * 1.5;
+        switch (ordinates) {
+            case XYZ: return new Coordinate(x, y, random.nextDouble() * 100);
+            case XYZM: return new CoordinateXYZM(x, y, random.nextDouble() * 100, random.nextDouble() * 1000);
+            default: return new Coordinate(x, y);
+        }
+    }
+
+    private Coordinate[] coordinates(int points, Ordinates ordinates) {
+        Coordinate[] coordinates = new Coordinate[points];
+        for (int i = 0; i < points; i++) {
+            coordinates[i] = coordinate(ordinates);
+        }
+        return coordinates;
+    }
+
+    private LineString line(int points, Ordinates ordinates) {
+        return factory.createLineString(coordinates(points, ordinates));
+    }
+
+    private LinearRing ring(int points, Ordinates ordinates) {
+        Coordinate[] coordinates = coordinates(points, ordinates);
+        coordinates[points - 1] = coordinates[0].copy();
+        return factory.createLinearRing(coordinates);
+    }
+
+    // Every kind of geometry the output pass can meet, pointsPerLine points per line.
+    private Geometry[] mixedGeometries(int lines, int pointsPerLine, Ordinates ordinates) {
+        List<Geometry> geometries = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            switch (i % 6) {
+                case 0:
+                case 1:
+                    geometries.add(line(pointsPerLine, ordinates));
+                    break;
+                case 2:
+                    geometries.add(factory.createMultiLineString(new LineString[] {
+                            line(pointsPerLine / 2 + 2, ordinates), line(pointsPerLine / 3 + 2, ordinates)}));
+                    break;
+                case 3:
+                    geometries.add(ring(pointsPerLine + 4, ordinates));
+                    break;
+                case 4:
+                    geometries.add(null);
+                    break;
+                default:
+                    // Not linear: goes through JTS.transform inside reproject().
+                    geometries.add(i % 12 == 5 ? factory.createPoint(coordinate(ordinates))
+                            : factory.createPolygon(ring(pointsPerLine + 4, ordinates)));
+                    break;
+            }
+        }
+        for (Geometry geometry : geometries) {
+            if (geometry != null) {
+                geometry.setUserData("source");
+            }
+        }
+        return geometries.toArray(new Geometry[0]);
+    }
+
+    private static int points(Geometry[] geometries) {
+        int points = 0;
+        for (Geometry geometry : geometries) {
+            points += geometry != null ? geometry.getNumPoints() : 0;
+        }
+        return points;
+    }
+
+    // Every ordinate of actual has the bits of the same ordinate of expected.
+    private static void assertSameGeometry(Geometry expected, Geometry actual, String where) {
+        if (expected == null) {
+            assertNull(actual, where);
+            return;
+        }
+        assertSame(expected.getClass(), actual.getClass(), where);
+        assertEquals(expected.getNumGeometries(), actual.getNumGeometries(), where);
+        for (int p = 0; p < expected.getNumGeometries(); p++) {
+            assertSame(expected.getGeometryN(p).getClass(), actual.getGeometryN(p).getClass(), where + " part " + p);
+            assertEquals(expected.getGeometryN(p).getNumPoints(), actual.getGeometryN(p).getNumPoints(), where + " part " + p);
+        }
+        Coordinate[] e = expected.getCoordinates();
+        Coordinate[] a = actual.getCoordinates();
+        assertEquals(e.length, a.length, where);
+        for (int i = 0; i < e.length; i++) {
+            String at = where + " point " + i;
+            assertEquals(Double.doubleToLongBits(e[i].x), Double.doubleToLongBits(a[i].x), at + " x");
+            assertEquals(Double.doubleToLongBits(e[i].y), Double.doubleToLongBits(a[i].y), at + " y");
+            assertEquals(Double.doubleToLongBits(e[i].getZ()), Double.doubleToLongBits(a[i].getZ()), at + " z");
+            assertEquals(Double.doubleToLongBits(e[i].getM()), Double.doubleToLongBits(a[i].getM()), at + " m");
+        }
+        assertEquals(expected.getUserData(), actual.getUserData(), where + " user data");
+    }
+
+    private static void assertMatchesJtsTransform(Geometry[] sources, ForkJoinPool pool) throws Exception {
+        MathTransform transform = transform();
+        ReprojectedChunk chunk = ReprojectedChunk.reproject(sources, transform, pool, PARALLELISM);
+        for (int i = 0; i < sources.length; i++) {
+            Geometry expected = sources[i] != null ? JTS.transform(sources[i], transform) : null;
+            assertSameGeometry(expected, chunk.geometry(i), "geometry " + i);
+
+            // The packed form holds the same x, y pairs.
+            int start = chunk.pointStart(i);
+            if (start < 0) {
+                continue;
+            }
+            assertEquals(expected.getNumPoints(), chunk.pointCount(i), "geometry " + i);
+            Coordinate[] e = expected.getCoordinates();
+            double[] packed = chunk.coordinates();
+            for (int p = 0; p < e.length; p++) {
+                assertEquals(Double.doubleToLongBits(e[p].x), Double.doubleToLongBits(packed[2 * (start + p)]), "packed x " + i);
+                assertEquals(Double.doubleToLongBits(e[p].y), Double.doubleToLongBits(packed[2 * (start + p) + 1]), "packed y " + i);
+            }
+        }
+    }
+
+    private static void withPool(PoolTest test) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            test.run(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface PoolTest {
+        void run(ForkJoinPool pool) throws Exception;
+    }
+
+    @Test
+    void smallChunkMatchesJtsTransform() throws Exception {
+        Geometry[] sources = mixedGeometries(60, 8, Ordinates.XY);
+        assertTrue(points(sources) < 4096, "below MIN_POINTS_PER_TASK");
+        withPool(pool -> assertMatchesJtsTransform(sources, pool));
+        assertMatchesJtsTransform(sources, null);
+    }
+
+    @Test
+    void largeChunkSplitAcrossThePoolMatchesJtsTransform() throws Exception {
+        Geometry[] sources = mixedGeometries(600, 120, Ordinates.XY);
+        assertTrue(points(sources) > PARALLELISM * 4096, "enough points for every slice");
+        withPool(pool -> assertMatchesJtsTransform(sources, pool));
+        assertMatchesJtsTransform(sources, null);
+    }
+
+    @Test
+    void polyLineZAndMKeepTheirExtraOrdinates() throws Exception {
+        Geometry[] withZ = mixedGeometries(600, 120, Ordinates.XYZ);
+        Geometry[] withZAndM = mixedGeometries(60, 8, Ordinates.XYZM);
+        withPool(pool -> {
+            assertMatchesJtsTransform(withZ, pool);
+            assertMatchesJtsTransform(withZAndM, pool);
+        });
+
+        // And the extra ordinates are the source's, not NaN.
+        ReprojectedChunk chunk = ReprojectedChunk.reproject(withZAndM, transform(), null, 1);
+        Coordinate source = withZAndM[0].getCoordinates()[0];
+        Coordinate reprojected = chunk.geometry(0).getCoordinates()[0];
+        assertEquals(source.getZ(), reprojected.getZ());
+        assertEquals(source.getM(), reprojected.getM());
+    }
+
+    @Test
+    void nullAndNonLinearGeometriesAreNotPacked() throws Exception {
+        Geometry[] sources = {null, factory.createPoint(new Coordinate(35, 32)), line(3, Ordinates.XY), null};
+        ReprojectedChunk chunk = ReprojectedChunk.reproject(sources, transform(), null, 1);
+        assertEquals(-1, chunk.pointStart(0));
+        assertEquals(-1, chunk.pointStart(1));
+        assertEquals(0, chunk.pointStart(2));
+        assertEquals(3, chunk.pointCount(2));
+        assertEquals(-1, chunk.pointStart(3));
+        assertNull(chunk.geometry(0));
+        assertNull(chunk.geometry(3));
+        assertMatchesJtsTransform(sources, null);
+    }
+}
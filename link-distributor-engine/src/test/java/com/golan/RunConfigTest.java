@@ -0,0 +1,232 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RunConfigTest {
+
+    @TempDir
+    Path dir;
+
+    private RunConfig load(String name, String text) throws IOException {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return RunConfig.load(file);
+    }
+
+    private RunConfig json(String text) throws IOException {
+        return load("run.json", text);
+    }
+
+    // The message of the IllegalArgumentException that loading the JSON text throws.
+    private String jsonError(String text) {
+        return assertThrows(IllegalArgumentException.class, () -> json(text)).getMessage();
+    }
+
+    @Test
+    void nestedObjectsBecomeDottedKeys() throws IOException {
+        RunConfig config = json("{\"input\": \"/data/network.shp\",\n"
+                + " \"rmse\": {\"Group1\": 0.15, \"Group2\": 0.2},\n"
+                + " \"scenario\": {\"tight\": {\"rmse\": {\"Group1\": 0.1}, \"pivots\": 500}},\n"
+                + " \"empty\": {}}");
+        assertEquals("/data/network.shp", config.get("input", null));
+        assertEquals("0.15", config.get("rmse.Group1", null));
+        assertEquals("0.2", config.get("rmse.Group2", null));
+        assertEquals("0.1", config.get("scenario.tight.rmse.Group1", null));
+        assertEquals(500, config.getInt("scenario.tight.pivots", 0));
+        assertEquals(Set.of("rmse.Group1", "pivots"), config.keysUnder("scenario.tight"));
+        assertNull(config.get("empty", null));
+        assertNull(config.get("rmse", null));
+    }
+
+    @Test
+    void arraysJoinAndNullsKeepDefaults() throws IOException {
+        RunConfig config = json("{\"roadTypes\": [1, 2, \"3\"], \"outputFormats\": [\"SHAPEFILE\", null, \"FLATGEOBUF\"],"
+                + " \"rampValues\": [], \"epsg\": null, \"directed\": true, \"filterRamps\": false}");
+        assertEquals("1,2,3", config.get("roadTypes", null));
+        assertEquals("SHAPEFILE,FLATGEOBUF", config.get("outputFormats", null));
+        assertEquals("13,14,15", config.get("rampValues", "13,14,15"));
+        assertEquals("2039", config.get("epsg", "2039"));
+        assertTrue(config.getBoolean("directed", false));
+        assertFalse(config.getBoolean("filterRamps", true));
+    }
+
+    @Test
+    void stringEscapesAreDecoded() throws IOException {
+        RunConfig config = json("{\"a\": \"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t\","
+                + " \"u\": \"\\u00e9\\u05D3\\ud83d\\ude97\", \"k\\u0065y\": \"raw é\"}");
+        assertEquals("q\" b\\ s/ \b\f\n\r\t", config.get("a", null));
+        assertEquals("é\u05d3\ud83d\ude97", config.get("u", null));
+        assertEquals("raw é", config.get("key", null));
+    }
+
+    @Test
+    void numbersAreKeptAsWritten() throws IOException {
+        RunConfig config = json("{\"i\": -42, \"z\": 0, \"d\": 0.25, \"e\": 1e-3, \"E\": -2.5E+2, \"big\": 12345678901}");
+        assertEquals(-42, config.getInt("i", 0));
+        assertEquals(0, config.getInt("z", 1));
+        assertEquals(0.25, config.getDouble("d", 0.0));
+        assertEquals("1e-3", config.get("e", null));
+        assertEquals(0.001, config.getDouble("e", 0.0));
+        assertEquals(-250.0, config.getDouble("E", 0.0));
+        assertEquals(12345678901L, config.getLong("big", 0L));
+        for (String invalid : new String[] {"01", "1.", ".5", "+1", "NaN", "Infinity", "0x10", "1e", "--1"}) {
+            assertTrue(jsonError("{\"n\": " + invalid + "}").contains("invalid value '" + invalid + "'"), invalid);
+        }
+    }
+
+    @Test
+    void malformedDocumentsAreRejectedWithThePosition() {
+        assertEquals("run.json: JSON expected ':' at line 2, column 6", jsonError("{\"a\": 1,\n \"b\" 2}"));
+        String[] malformed = {
+                "",
+                "[1, 2]",
+                "{\"a\": 1",
+                "{\"a\": 1,}",
+                "{\"a\": 1} {}",
+                "{\"a\": \"unterminated}",
+                "{\"a\": \"bad \\x escape\"}",
+                "{\"a\": \"\\u12\"}",
+                "{\"a\": [1, [2]]}",
+                "{\"a\": [{\"b\": 1}]}",
+                "{a: 1}",
+                "{\"a\": tru}",
+        };
+        for (String text : malformed) {
+            String message = jsonError(text);
+            assertTrue(message.startsWith("run.json: JSON "), text + " -> " + message);
+            assertTrue(message.matches(".* at line \\d+, column \\d+"), text + " -> " + message);
+        }
+    }
+
+    @Test
+    void propertiesAndJsonGiveTheSameSettings() throws IOException {
+        RunConfig properties = load("run.properties", "input = /data/network.shp\n"
+                + "roadTypes=1,2,3\n"
+                + "rmse=Group1:0.15, Group2:0.20\n"
+                + "rmse.Group3=0.5\n"
+                + "weighting=length\n");
+        RunConfig json = json("{\"input\": \"/data/network.shp\", \"roadTypes\": [1, 2, 3],"
+                + " \"rmse\": \"Group1:0.15,Group2:0.20\", \"weighting\": \"length\","
+                + " \"rmse.Group3\": 0.5}");
+        for (RunConfig config : new RunConfig[] {properties, json}) {
+            assertEquals("/data/network.shp", config.get("input", null));
+            assertEquals("1,2,3", config.get("roadTypes", null));
+            assertEquals(LinkDistributorLogic.CentralityWeighting.LENGTH,
+                    config.getEnum("weighting", LinkDistributorLogic.CentralityWeighting.class, null));
+            assertEquals(Map.of("Group1", 0.15, "Group2", 0.20, "Group3", 0.5), config.groupRmse());
+        }
+    }
+
+    @Test
+    void rmseObjectOverridesTheList() throws IOException {
+        RunConfig config = json("{\"rmse\": {\"Group2\": 0.5, \"Extra\": 0.1}}");
+        Map<String, Double> rmse = config.groupRmse();
+        assertEquals(0.15, rmse.get("Group1"));
+        assertEquals(0.5, rmse.get("Group2"));
+        assertEquals(0.1, rmse.get("Extra"));
+        assertEquals(0.0, rmse.get("Other"));
+        assertEquals(8, rmse.size());
+    }
+
+    @Test
+    void overridesTakePrecedence() throws IOException {
+        RunConfig file = json("{\"pivots\": 100, \"seed\": 1, \"rmse\": \"Group1:0.15,Group2:0.20\","
+                + " \"scenario\": {\"fast\": {\"pivots\": 50, \"rmse\": {\"Group1\": 0.3}}}}");
+        // Command-line key=value settings replace the file's, including a scenario's.
+        Map<String, String> commandLine = new LinkedHashMap<>();
+        commandLine.put("seed", "7");
+        commandLine.put("scenario.fast.rmse.Group2", "0.4");
+        RunConfig config = file.with(commandLine);
+        assertEquals(7, config.getInt("seed", 0));
+        assertEquals(100, config.getInt("pivots", 0));
+        assertEquals(1, file.getInt("seed", 0));
+
+        // A scenario's settings replace the shared ones.
+        RunConfig fast = config.withOverrides("scenario.fast");
+        assertEquals(50, fast.getInt("pivots", 0));
+        assertEquals(7, fast.getInt("seed", 0));
+        Map<String, Double> rmse = fast.groupRmse();
+        assertEquals(0.3, rmse.get("Group1"));
+        assertEquals(0.4, rmse.get("Group2"));
+        assertEquals(Map.of("Group1", 0.15, "Group2", 0.20), config.groupRmse());
+    }
+
+    @Test
+    void rmseListInALayerReplacesInheritedGroupValues() throws IOException {
+        RunConfig file = json("{\"rmse\": {\"Group1\": 0.12},"
+                + " \"scenario\": {\"tight\": {\"rmse\": \"Group1:0.10,Group2:0.15\"},"
+                + " \"mixed\": {\"rmse\": \"Group1:0.10,Group2:0.15\", \"rmse.Group2\": 0.5}}}");
+        assertEquals(0.12, file.groupRmse().get("Group1"));
+
+        // The scenario's list wins over the base file's rmse.Group1.
+        assertEquals(Map.of("Group1", 0.10, "Group2", 0.15), file.withOverrides("scenario.tight").groupRmse());
+        // rmse.GROUP in the same layer as the list still applies over it.
+        assertEquals(Map.of("Group1", 0.10, "Group2", 0.5), file.withOverrides("scenario.mixed").groupRmse());
+
+        // So does an rmse list on the command line, and a scenario's list over that.
+        RunConfig commandLine = file.with(Map.of("rmse", "Group1:0.2"));
+        assertEquals(Map.of("Group1", 0.2), commandLine.groupRmse());
+        assertEquals(Map.of("Group1", 0.10, "Group2", 0.15), commandLine.withOverrides("scenario.tight").groupRmse());
+        // Without a list of its own, a layer keeps the inherited group values.
+        assertEquals(0.12, file.with(Map.of("seed", "7")).groupRmse().get("Group1"));
+    }
+
+    @Test
+    void invalidValuesNameTheSetting() throws IOException {
+        RunConfig config = json("{\"input\": \"in.shp\", \"output\": \"out\", \"pivots\": \"many\", \"directed\": \"yes\","
+                + " \"weighting\": \"FASTEST\", \"spacing\": \"far\"}");
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> config.getInt("pivots", 0))
+                .getMessage().contains("'pivots'"));
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> config.getBoolean("directed", false))
+                .getMessage().contains("'directed'"));
+        assertTrue(assertThrows(IllegalArgumentException.class,
+                () -> config.getEnum("weighting", LinkDistributorLogic.CentralityWeighting.class, null))
+                .getMessage().contains("'weighting'"));
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> config.getDouble("spacing", 0.0))
+                .getMessage().contains("'spacing'"));
+
+        String[][] invalid = {
+                {"rampValues", "13,x", "'rampValues'"},
+                {"rmse", "Group1=0.1", "'rmse'"},
+                {"rmse.Group1", "high", "'rmse.Group1'"},
+                {"outputFormats", "SHAPEFILE,KML", "'outputFormats'"},
+                {"cacheMaxMB", "0", "'cacheMaxMB'"},
+        };
+        RunConfig valid = json("{\"input\": \"in.shp\", \"output\": \"out\"}");
+        for (String[] setting : invalid) {
+            RunConfig withSetting = valid.with(Map.of(setting[0], setting[1]));
+            String message = assertThrows(IllegalArgumentException.class, () -> withSetting.createLogic(null)).getMessage();
+            assertTrue(message.contains(setting[2]), setting[0] + " -> " + message);
+        }
+        assertEquals("Missing required setting 'input'",
+                assertThrows(IllegalArgumentException.class, () -> json("{\"output\": \"out\"}").createLogic(null)).getMessage());
+    }
+
+    @Test
+    void completeConfigurationCreatesALogic() throws IOException {
+        RunConfig config = json("{\"input\": \"/data/network.shp\", \"output\": \"/data/out\", \"epsg\": 2039,"
+                + " \"roadTypes\": [1, 2, 3], \"rampValues\": [13, 14], \"weighting\": \"TRAVEL_TIME\","
+                + " \"weightAttribute\": \"SPEED\", \"directed\": true, \"approximate\": true, \"pivots\": 500,"
+                + " \"selection\": \"cell_quota\", \"spacing\": 1000, \"cellQuota\": 2,"
+                + " \"outputFormats\": [\"shapefile\", \"FlatGeobuf\"], \"threads\": 2, \"cacheMaxMB\": 64}");
+        assertNotNull(config.createLogic(null));
+        assertNotNull(config.createLogic(dir.toString()));
+    }
+}
@@ -0,0 +1,113 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RunMetricsTest {
+
+    @TempDir
+    Path dir;
+
+    private static RunMetrics measured(String... stages) {
+        RunMetrics metrics = new RunMetrics();
+        for (int i = 0; i < stages.length; i++) {
+            metrics.begin(Integer.toString(i + 1), stages[i]);
+            metrics.end(10, "links");
+        }
+        return metrics;
+    }
+
+    private static Map<String, String> labels(String... pairs) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            labels.put(pairs[i], pairs[i + 1]);
+        }
+        return labels;
+    }
+
+    private static List<String> samples(File file) throws IOException {
+        List<String> samples = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.startsWith("#")) {
+                samples.add(line.substring(0, line.lastIndexOf(' ')));
+            }
+        }
+        return samples;
+    }
+
+    @Test
+    void runsAreToldApartByTheirLabels() throws IOException {
+        File file = dir.resolve("metrics.prom").toFile();
+        RunMetrics.writePrometheus(file,
+                Arrays.asList(measured("load"), measured("assignGroups", "centrality"), measured("assignGroups", "output")),
+                Arrays.asList(labels("input", "a.shp"), labels("input", "a.shp", "centralitySet", "1"),
+                        labels("input", "a.shp", "scenario", "x\"y")));
+        List<String> samples = samples(file);
+        assertEquals(new HashSet<>(samples).size(), samples.size(), "duplicate series");
+        assertEquals(3 + 7 * 5, samples.size());
+        assertTrue(samples.contains("link_distributor_run_wall_seconds{input=\"a.shp\",centralitySet=\"1\"}"));
+        assertTrue(samples.contains("link_distributor_stage_wall_seconds{input=\"a.shp\",scenario=\"x\\\"y\",step=\"2\",stage=\"output\"}"));
+        assertTrue(samples.contains("link_distributor_stage_items{input=\"a.shp\",step=\"1\",stage=\"load\",unit=\"links\"}"));
+    }
+
+    @Test
+    void finishStopsTheRunClock() throws InterruptedException {
+        RunMetrics metrics = measured("load");
+        metrics.finish();
+        long elapsed = metrics.elapsedMillis();
+        Thread.sleep(20);
+        assertEquals(elapsed, metrics.elapsedMillis());
+    }
+
+    @Test
+    void concurrentWritersLeaveOneCompleteFile() throws Exception {
+        File file = dir.resolve("shared.prom").toFile();
+        List<Callable<Void>> writers = new ArrayList<>();
+        for (int w = 0; w < 16; w++) {
+            String name = "run" + w;
+            writers.add(() -> {
+                for (int i = 0; i < 20; i++) {
+                    measured("load", "centrality").writePrometheus(file, labels("scenario", name));
+                }
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            for (Future<Void> done : pool.invokeAll(writers)) {
+                done.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(new String[] {"shared.prom"}, dir.toFile().list());
+        List<String> samples = samples(file);
+        assertEquals(1 + 7 * 2, samples.size());
+        // All samples come from the same writer.
+        Set<String> scenarios = new HashSet<>();
+        for (String sample : samples) {
+            scenarios.add(sample.replaceAll(".*scenario=\"(run[0-9]+)\".*", "$1"));
+        }
+        assertEquals(1, scenarios.size(), scenarios.toString());
+    }
+}
@@ -0,0 +1,152 @@
+package com.golan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScoreIndexTest {
+
+    private static final String[] GROUPS = {"Group1", "Group2", "Other"};
+
+    @TempDir
+    Path dir;
+
+    // A table of links with the given IDs, link i running from (i, 0) to (i, 1 + i).
+    private static LinkTable table(String... ids) {
+        LinkTable table = new LinkTable(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            table.add(ids[i], "1", ids[i], 0.0, false, i, 0, i, 1 + i, 1 + i, 1.0, 0, 0L);
+        }
+        return table;
+    }
+
+    private static double[] scores(int rows, long seed) {
+        Random random = new Random(seed);
+        double[] scores = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            scores[row] = row % 7 == 0 ? 0.0 : random.nextDouble();
+        }
+        return scores;
+    }
+
+    private static byte[] groups(int rows) {
+        byte[] groups = new byte[rows];
+        for (int row = 0; row < rows; row++) {
+            groups[row] = (byte) (row % GROUPS.length);
+        }
+        return groups;
+    }
+
+    // Writes the table, opens the file and checks every column of every row.
+    private ScoreIndex assertRoundTrip(LinkTable table) throws IOException {
+        File file = dir.resolve(ScoreIndex.FILE_NAME).toFile();
+        double[] scores = scores(table.size(), table.size());
+        byte[] groups = groups(table.size());
+        ScoreIndex.write(file, table, scores, groups, GROUPS);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        ScoreIndex index = ScoreIndex.open(file);
+        assertEquals(table.size(), index.size());
+        for (int row = 0; row < table.size(); row++) {
+            String id = table.id(row);
+            assertEquals(id, index.id(row));
+            assertEquals(scores[row], index.score(row));
+            assertEquals(table.length(row), index.length(row));
+            assertEquals(table.startNode(row), index.fromNode(row));
+            assertEquals(table.endNode(row), index.toNode(row));
+            assertEquals(groups[row], index.groupIndex(row));
+            assertEquals(GROUPS[groups[row]], index.group(row));
+            int found = index.find(id);
+            assertEquals(id, index.id(found));
+            assertEquals(scores[found], index.score(id));
+        }
+        return index;
+    }
+
+    @Test
+    void findsEveryRowById() throws IOException {
+        String[] ids = new String[5000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "link-" + i;
+        }
+        ScoreIndex index = assertRoundTrip(table(ids));
+        for (int row = 0; row < ids.length; row++) {
+            assertEquals(row, index.find(ids[row]));
+        }
+    }
+
+    @Test
+    void missingIdIsNotFound() throws IOException {
+        ScoreIndex index = assertRoundTrip(table("a", "b", "c"));
+        assertEquals(-1, index.find("d"));
+        assertEquals(-1, index.find(""));
+        assertEquals(-1, index.find("ab"));
+        assertTrue(Double.isNaN(index.score("d")));
+    }
+
+    @Test
+    void firstRowWinsForDuplicateIds() throws IOException {
+        ScoreIndex index = assertRoundTrip(table("a", "b", "a", "c", "a"));
+        assertEquals(0, index.find("a"));
+        assertEquals(index.score(0), index.score("a"));
+        assertEquals("a", index.id(2));
+        assertEquals("a", index.id(4));
+        assertEquals(3, index.find("c"));
+    }
+
+    @Test
+    void nonAsciiIdsRoundTrip() throws IOException {
+        String[] ids = {"דרך-1", "Straße", "路-七", "🚗", "é", "é"};
+        ScoreIndex index = assertRoundTrip(table(ids));
+        for (int row = 0; row < ids.length; row++) {
+            assertEquals(row, index.find(ids[row]));
+        }
+    }
+
+    @Test
+    void emptyTableRoundTrips() throws IOException {
+        ScoreIndex index = assertRoundTrip(table());
+        assertEquals(0, index.size());
+        assertEquals(-1, index.find("a"));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.score(0));
+    }
+
+    @Test
+    void rowOutOfRangeIsRejected() throws IOException {
+        ScoreIndex index = assertRoundTrip(table("a", "b"));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.id(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.group(-1));
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        File file = dir.resolve("results.csv").toFile();
+        Files.write(file.toPath(), "ID,GROUP,CENTRALITY\n".repeat(10).getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> ScoreIndex.open(file));
+    }
+
+    @Test
+    void failedWriteKeepsThePreviousIndexAndRemovesTheTempFile() throws IOException {
+        File file = dir.resolve(ScoreIndex.FILE_NAME).toFile();
+        LinkTable table = table("a", "b", "c");
+        assertRoundTrip(table);
+        // One group short: the write fails after the temporary file was started.
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> ScoreIndex.write(file, table, scores(3, 9L), new byte[2], GROUPS));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        ScoreIndex index = ScoreIndex.open(file);
+        assertEquals(3, index.size());
+        assertEquals(1, index.find("b"));
+    }
+}
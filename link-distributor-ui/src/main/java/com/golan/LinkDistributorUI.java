@@ -2,6 +2,7 @@ package com.golan;
 
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
 import javafx.concurrent.Task;
 import javafx.embed.swing.SwingNode;
@@ -15,6 +16,8 @@ import javafx.scene.layout.*;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
 import org.geotools.data.FileDataStore;
 import org.geotools.data.FileDataStoreFinder;
 import org.geotools.data.simple.SimpleFeatureSource;
@@ -44,7 +47,19 @@ public class LinkDistributorUI extends Application {
     private CheckBox filterRampsCheckbox;
     private TextField rampData1ValuesField;
     private TextField centralityRoadTypesField;
+    private TextField snapToleranceField;
+    private ComboBox<LinkDistributorLogic.CentralityWeighting> weightingCombo;
+    private TextField weightAttributeField;
+    private CheckBox directedCentralityCheckbox;
     private CheckBox combineTwoSidedCheckbox;
+    private CheckBox approximateCentralityCheckbox;
+    private TextField pivotCountField;
+    private TextField samplingSeedField;
+    private CheckBox incrementalCentralityCheckbox;
+    private CheckBox centralityCacheCheckbox;
+    private ComboBox<LinkDistributorLogic.SampleSelection> sampleSelectionCombo;
+    private TextField selectionSpacingField;
+    private TextField cellQuotaField;
     private TextArea groupRmseArea;
     private TextArea logArea;
     private TableView<GroupStats> statsTable;
@@ -56,6 +71,7 @@ public class LinkDistributorUI extends Application {
     // --- Map Components ---
     private JMapPane mapPane;
     private MapContent mapContent;
+    private DataStore mapStore; // the store behind the map layer, disposed when the layer is replaced (Swing thread only)
 
     // --- Theme Resources ---
     private final String lightTheme = getClass().getResource("/light-theme.css").toExternalForm();
@@ -146,8 +162,43 @@ public class LinkDistributorUI extends Application {
         filterRampsCheckbox.setSelected(true);
         rampData1ValuesField = new TextField("13, 14, 15");
         centralityRoadTypesField = new TextField("1, 2, 3, 4, 5, 6");
+        snapToleranceField = new TextField(String.valueOf(LinkDistributorLogic.NodeManager.DEFAULT_TOLERANCE));
+        snapToleranceField.setTooltip(new Tooltip("Link endpoints closer than this distance (in CRS units) become one node."));
+        weightingCombo = new ComboBox<>(FXCollections.observableArrayList(LinkDistributorLogic.CentralityWeighting.values()));
+        weightingCombo.setValue(LinkDistributorLogic.CentralityWeighting.HOPS);
+        weightingCombo.setMaxWidth(Double.MAX_VALUE);
+        weightAttributeField = new TextField();
+        weightAttributeField.setPromptText("e.g. SPEED or TIME");
+        weightAttributeField.disableProperty().bind(Bindings.createBooleanBinding(
+                () -> !weightingCombo.getValue().usesAttribute(), weightingCombo.valueProperty()));
+        directedCentralityCheckbox = new CheckBox("Directed Centrality Graph");
+        directedCentralityCheckbox.setTooltip(new Tooltip("Treat links as directed arcs; two-sided links keep one direction each."));
         combineTwoSidedCheckbox = new CheckBox("Combine Two-Sided Links");
         combineTwoSidedCheckbox.setSelected(true);
+        approximateCentralityCheckbox = new CheckBox("Approximate Centrality");
+        pivotCountField = new TextField("0");
+        pivotCountField.setTooltip(new Tooltip("Number of sampled source nodes; 0 derives it from a 5% error target at 95% confidence."));
+        samplingSeedField = new TextField("42");
+        pivotCountField.disableProperty().bind(approximateCentralityCheckbox.selectedProperty().not());
+        samplingSeedField.disableProperty().bind(approximateCentralityCheckbox.selectedProperty().not());
+        incrementalCentralityCheckbox = new CheckBox("Update Previous Centrality");
+        incrementalCentralityCheckbox.setTooltip(new Tooltip("Reuse the centrality snapshot in the output folder and recompute only affected shortest paths."));
+        incrementalCentralityCheckbox.disableProperty().bind(approximateCentralityCheckbox.selectedProperty());
+        centralityCacheCheckbox = new CheckBox("Reuse Cached Centrality");
+        centralityCacheCheckbox.setSelected(true);
+        centralityCacheCheckbox.setTooltip(new Tooltip("Skip the centrality calculation when the same input was already processed with the same settings."));
+        sampleSelectionCombo = new ComboBox<>(FXCollections.observableArrayList(LinkDistributorLogic.SampleSelection.values()));
+        sampleSelectionCombo.setValue(LinkDistributorLogic.SampleSelection.TOP_CENTRALITY);
+        sampleSelectionCombo.setMaxWidth(Double.MAX_VALUE);
+        selectionSpacingField = new TextField("1000");
+        selectionSpacingField.setTooltip(new Tooltip("Minimum distance between selected links, or the grid cell width for a quota (CRS units)."));
+        selectionSpacingField.disableProperty().bind(Bindings.createBooleanBinding(
+                () -> sampleSelectionCombo.getValue() == LinkDistributorLogic.SampleSelection.TOP_CENTRALITY,
+                sampleSelectionCombo.valueProperty()));
+        cellQuotaField = new TextField("1");
+        cellQuotaField.disableProperty().bind(Bindings.createBooleanBinding(
+                () -> sampleSelectionCombo.getValue() != LinkDistributorLogic.SampleSelection.CELL_QUOTA,
+                sampleSelectionCombo.valueProperty()));
         groupRmseArea = new TextArea("Group1:0.15\nGroup2:0.20\nGroup3:0.25\nGroup4:0.30\nGroup5:0.30\nGroup6:0.40\nOther:0.0");
         groupRmseArea.setPrefRowCount(6);
 
@@ -158,9 +209,29 @@ public class LinkDistributorUI extends Application {
         grid.add(rampData1ValuesField, 1, 2);
         grid.add(new Label("Centrality Road Types:"), 0, 3);
         grid.add(centralityRoadTypesField, 1, 3);
-        grid.add(combineTwoSidedCheckbox, 0, 4, 2, 1);
-        grid.add(new Label("Group RMSE Values:"), 0, 5);
-        grid.add(groupRmseArea, 0, 6, 2, 1);
+        grid.add(new Label("Node Snap Tolerance:"), 0, 4);
+        grid.add(snapToleranceField, 1, 4);
+        grid.add(new Label("Centrality Weighting:"), 0, 5);
+        grid.add(weightingCombo, 1, 5);
+        grid.add(new Label("Weight Attribute:"), 0, 6);
+        grid.add(weightAttributeField, 1, 6);
+        grid.add(directedCentralityCheckbox, 0, 7, 2, 1);
+        grid.add(combineTwoSidedCheckbox, 0, 8, 2, 1);
+        grid.add(approximateCentralityCheckbox, 0, 9, 2, 1);
+        grid.add(new Label("Pivots (0 = auto):"), 0, 10);
+        grid.add(pivotCountField, 1, 10);
+        grid.add(new Label("Sampling Seed:"), 0, 11);
+        grid.add(samplingSeedField, 1, 11);
+        grid.add(incrementalCentralityCheckbox, 0, 12, 2, 1);
+        grid.add(centralityCacheCheckbox, 0, 13, 2, 1);
+        grid.add(new Label("Sample Selection:"), 0, 14);
+        grid.add(sampleSelectionCombo, 1, 14);
+        grid.add(new Label("Spacing / Cell Size:"), 0, 15);
+        grid.add(selectionSpacingField, 1, 15);
+        grid.add(new Label("Links per Cell:"), 0, 16);
+        grid.add(cellQuotaField, 1, 16);
+        grid.add(new Label("Group RMSE Values:"), 0, 17);
+        grid.add(groupRmseArea, 0, 18, 2, 1);
 
         TitledPane paramsPane = new TitledPane("Parameters", grid);
         paramsPane.setCollapsible(false);
@@ -291,6 +362,18 @@ public class LinkDistributorUI extends Application {
 
         Set<String> centralityRoadTypes = new HashSet<>(Arrays.asList(centralityRoadTypesField.getText().split("\\s*,\\s*")));
 
+        double snapTolerance;
+        try {
+            snapTolerance = Double.parseDouble(snapToleranceField.getText().trim());
+        } catch (NumberFormatException e) {
+            logArea.appendText("ERROR: Node snap tolerance must be a number.\n");
+            return;
+        }
+        if (!(snapTolerance > 0.0) || Double.isInfinite(snapTolerance)) {
+            logArea.appendText("ERROR: Node snap tolerance must be positive.\n");
+            return;
+        }
+
         Map<String, Double> groupRmseMap = new HashMap<>();
         try {
             for (String line : groupRmseArea.getText().split("\n")) {
@@ -303,12 +386,68 @@ public class LinkDistributorUI extends Application {
             return;
         }
 
+        int pivotCount = 0;
+        long samplingSeed = 42L;
+        if (approximateCentralityCheckbox.isSelected()) {
+            try {
+                pivotCount = Integer.parseInt(pivotCountField.getText().trim());
+                samplingSeed = Long.parseLong(samplingSeedField.getText().trim());
+            } catch (NumberFormatException e) {
+                logArea.appendText("ERROR: Pivot count and sampling seed must be integers.\n");
+                return;
+            }
+            if (pivotCount < 0) {
+                logArea.appendText("ERROR: Pivot count must not be negative.\n");
+                return;
+            }
+        }
+
+        LinkDistributorLogic.SampleSelection sampleSelection = sampleSelectionCombo.getValue();
+        double selectionSpacing = 0.0;
+        int cellQuota = 0;
+        if (sampleSelection != LinkDistributorLogic.SampleSelection.TOP_CENTRALITY) {
+            try {
+                selectionSpacing = Double.parseDouble(selectionSpacingField.getText().trim());
+                if (sampleSelection == LinkDistributorLogic.SampleSelection.CELL_QUOTA) {
+                    cellQuota = Integer.parseInt(cellQuotaField.getText().trim());
+                }
+            } catch (NumberFormatException e) {
+                logArea.appendText("ERROR: Selection spacing must be a number and links per cell an integer.\n");
+                return;
+            }
+            if (!(selectionSpacing > 0.0) || Double.isInfinite(selectionSpacing)) {
+                logArea.appendText("ERROR: Selection spacing must be positive.\n");
+                return;
+            }
+            if (sampleSelection == LinkDistributorLogic.SampleSelection.CELL_QUOTA && cellQuota < 1) {
+                logArea.appendText("ERROR: Links per cell must be at least 1.\n");
+                return;
+            }
+        }
+
+        LinkDistributorLogic.CentralityWeighting weighting = weightingCombo.getValue();
+        String weightAttribute = weightAttributeField.getText().trim();
+        if (weighting.usesAttribute() && weightAttribute.isEmpty()) {
+            logArea.appendText("ERROR: Centrality weighting " + weighting + " needs a weight attribute name.\n");
+            return;
+        }
+
         LinkDistributorLogic logic = new LinkDistributorLogic(
                 inputFile, outputDir, epsgField.getText(),
                 filterRampsCheckbox.isSelected(), rampData1Values,
                 centralityRoadTypes, combineTwoSidedCheckbox.isSelected(),
+                weighting, weightAttribute,
                 groupRmseMap, debugMode, 100
         );
+        logic.setSnapTolerance(snapTolerance);
+        logic.setDirectedCentrality(directedCentralityCheckbox.isSelected());
+        logic.setSpatialSelection(sampleSelection, selectionSpacing, cellQuota);
+        logic.setCentralityCache(centralityCacheCheckbox.isSelected(), null, CentralityCache.DEFAULT_MAX_BYTES);
+        if (approximateCentralityCheckbox.isSelected()) {
+            logic.setApproximateCentrality(pivotCount, 0.05, 0.95, samplingSeed);
+        } else {
+            logic.setIncrementalCentrality(incrementalCentralityCheckbox.isSelected());
+        }
 
         Task<Void> analysisTask = new Task<>() {
             @Override
@@ -369,25 +508,57 @@ public class LinkDistributorUI extends Application {
             log("Latest output directory: " + latestDir.getAbsolutePath());
 
             Optional<File> shpFileOpt = Arrays.stream(latestDir.listFiles((d, name) -> name.endsWith("_shapefile.shp"))).findFirst();
+            File geoPackage = new File(latestDir, "output.gpkg");
+            DataStore store = null;
+            SimpleFeatureSource featureSource = null;
             if (shpFileOpt.isPresent()) {
                 File shapefile = shpFileOpt.get();
                 log("Found shapefile: " + shapefile.getAbsolutePath());
-                FileDataStore store = FileDataStoreFinder.getDataStore(shapefile);
-                SimpleFeatureSource featureSource = store.getFeatureSource();
-
+                FileDataStore shapefileStore = FileDataStoreFinder.getDataStore(shapefile);
+                if (shapefileStore != null) {
+                    store = shapefileStore;
+                    featureSource = shapefileStore.getFeatureSource();
+                } else {
+                    log("No data store can read " + shapefile.getAbsolutePath());
+                }
+            } else if (geoPackage.isFile()) {
+                // Runs with outputFormats=GEOPACKAGE have no shapefile.
+                log("Found GeoPackage: " + geoPackage.getAbsolutePath());
+                Map<String, Object> params = new HashMap<>();
+                params.put("dbtype", "geopkg");
+                params.put("database", geoPackage.getPath());
+                store = DataStoreFinder.getDataStore(params);
+                if (store == null) {
+                    // gt-geopkg is an optional dependency of the engine.
+                    log("No GeoPackage data store is available to read " + geoPackage.getAbsolutePath());
+                } else if (store.getTypeNames().length == 0) {
+                    log("GeoPackage has no feature tables: " + geoPackage.getAbsolutePath());
+                    store.dispose();
+                    store = null;
+                } else {
+                    featureSource = store.getFeatureSource(store.getTypeNames()[0]);
+                }
+            } else {
+                log("No '*_shapefile.shp' or 'output.gpkg' found in the latest output directory.");
+            }
+            if (featureSource != null) {
                 // Choose map style based on current theme
                 Style style = themeToggle.isSelected() ? createDarkMapStyle() : createLightMapStyle();
 
                 FeatureLayer layer = new FeatureLayer(featureSource, style);
+                DataStore layerStore = store;
 
                 SwingUtilities.invokeLater(() -> {
                     mapContent.layers().clear();
                     mapContent.addLayer(layer);
+                    // The old layer is gone, so its store (and open file handles) can go too.
+                    if (mapStore != null) {
+                        mapStore.dispose();
+                    }
+                    mapStore = layerStore;
                     mapPane.setDisplayArea(mapContent.getMaxBounds());
                     log("Map updated with new layer.");
                 });
-            } else {
-                log("No '*_shapefile.shp' found in the latest output directory.");
             }
 
             Optional<File> csvFileOpt = Arrays.stream(latestDir.listFiles((d, name) -> name.endsWith("summary.csv"))).findFirst();
@@ -429,7 +600,14 @@ public class LinkDistributorUI extends Application {
         maxCenCol.setCellValueFactory(new PropertyValueFactory<>("maxCentrality"));
         TableColumn<GroupStats, Double> minCenCol = new TableColumn<>("Min Centrality");
         minCenCol.setCellValueFactory(new PropertyValueFactory<>("minCentrality"));
-        statsTable.getColumns().setAll(groupCol, nCol, rmseCol, wCol, ngCol, avgCenCol, maxCenCol, minCenCol);
+        TableColumn<GroupStats, Double> sdCenCol = new TableColumn<>("StdDev Centrality");
+        sdCenCol.setCellValueFactory(new PropertyValueFactory<>("stdDevCentrality"));
+        TableColumn<GroupStats, Double> p50CenCol = new TableColumn<>("P50 Centrality");
+        p50CenCol.setCellValueFactory(new PropertyValueFactory<>("p50Centrality"));
+        TableColumn<GroupStats, Double> p90CenCol = new TableColumn<>("P90 Centrality");
+        p90CenCol.setCellValueFactory(new PropertyValueFactory<>("p90Centrality"));
+        statsTable.getColumns().setAll(groupCol, nCol, rmseCol, wCol, ngCol, avgCenCol, maxCenCol, minCenCol,
+                sdCenCol, p50CenCol, p90CenCol);
     }
 
     private List<GroupStats> parseSummaryCsv(File csvFile) throws IOException {
@@ -446,19 +624,24 @@ public class LinkDistributorUI extends Application {
                 if (!headerFound) continue;
 
                 String[] values = line.split(",");
-                if (values.length == 8) {
+                // Summaries written before the spread columns were added have 8 values.
+                if (values.length == 8 || values.length == 11) {
                     try {
+                        boolean hasSpread = values.length == 11;
                         statsList.add(new GroupStats(
                             values[0], Long.parseLong(values[1]), Double.parseDouble(values[2]),
                             Double.parseDouble(values[3]), Integer.parseInt(values[4]),
                             Double.parseDouble(values[5]), Double.parseDouble(values[6]),
-                            Double.parseDouble(values[7])
+                            Double.parseDouble(values[7]),
+                            hasSpread ? Double.parseDouble(values[8]) : 0.0,
+                            hasSpread ? Double.parseDouble(values[9]) : 0.0,
+                            hasSpread ? Double.parseDouble(values[10]) : 0.0
                         ));
                     } catch (NumberFormatException e) {
                         log("Skipping malformed number in CSV line: " + line);
                     }
                 } else {
-                    log("Skipping malformed CSV line (expected 8 values): " + line);
+                    log("Skipping malformed CSV line (expected 8 or 11 values): " + line);
                 }
             }
         }
@@ -534,8 +717,12 @@ public class LinkDistributorUI extends Application {
         private final double avgCentrality;
         private final double maxCentrality;
         private final double minCentrality;
+        private final double stdDevCentrality;
+        private final double p50Centrality;
+        private final double p90Centrality;
 
-        public GroupStats(String group, long N_g, double rmse, double w_g, int n_g, double avgCentrality, double maxCentrality, double minCentrality) {
+        public GroupStats(String group, long N_g, double rmse, double w_g, int n_g, double avgCentrality, double maxCentrality, double minCentrality,
+                          double stdDevCentrality, double p50Centrality, double p90Centrality) {
             this.group = group;
             this.N_g = N_g;
             this.rmse = rmse;
@@ -544,6 +731,9 @@ public class LinkDistributorUI extends Application {
             this.avgCentrality = avgCentrality;
             this.maxCentrality = maxCentrality;
             this.minCentrality = minCentrality;
+            this.stdDevCentrality = stdDevCentrality;
+            this.p50Centrality = p50Centrality;
+            this.p90Centrality = p90Centrality;
         }
 
         public String getGroup() { return group; }
@@ -554,6 +744,9 @@ public class LinkDistributorUI extends Application {
         public double getAvgCentrality() { return avgCentrality; }
         public double getMaxCentrality() { return maxCentrality; }
         public double getMinCentrality() { return minCentrality; }
+        public double getStdDevCentrality() { return stdDevCentrality; }
+        public double getP50Centrality() { return p50Centrality; }
+        public double getP90Centrality() { return p90Centrality; }
     }
 
     public static void main(String[] args) {